@@ -0,0 +1,958 @@
+package com.bosh.utils;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import com.bosh.utils.FileCopier.ProgressListener;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streams a {@link File} or directory tree into a zip or gzip archive, e.g. for exporting logs and
+ * cached media to support. A directory is written to a gzip archive as a tar, so it can be extracted
+ * with any standard tool.
+ *
+ * Content is split into {@link #BLOCK_SIZE} blocks which are deflated in parallel on the libraries
+ * shared background pool. Each block but the last of a stream ends with a sync flush, so the blocks
+ * join into a single deflate stream and their CRCs are combined, rather than each file being
+ * compressed in turn. Blocks are written in the order they were read, so the same input always
+ * produces the same archive, and only a few blocks per pool thread are held in memory at once.
+ * Sync flushing requires API 19, on older devices blocks are deflated one at a time on the calling
+ * thread.
+ *
+ * Files which are already compressed, such as images and videos, are stored within the deflate
+ * stream rather than compressed again. Zip archives are limited to 65535 entries and 4 GB, as ZIP64
+ * is not supported.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ArchiveWriter {
+
+	/** Size of each block of content deflated as a single task **/
+	public static final int BLOCK_SIZE = 128 * MemoryUnit.KB;
+
+	/** Number of blocks per pool thread which may be read ahead of the output **/
+	private static final int BLOCKS_PER_THREAD = 2;
+	private static final int OUTPUT_BUFFER_SIZE = 64 * MemoryUnit.KB;
+	private static final int DEFLATE_BUFFER_SIZE = 32 * MemoryUnit.KB;
+
+	private static final int ZIP_LOCAL_HEADER = 0x04034b50;
+	private static final int ZIP_DATA_DESCRIPTOR = 0x08074b50;
+	private static final int ZIP_CENTRAL_HEADER = 0x02014b50;
+	private static final int ZIP_END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int ZIP_VERSION = 20;
+	/** Sizes follow the data in a descriptor, and names are UTF-8 **/
+	private static final int ZIP_FLAGS_STREAMED = 0x0808;
+	private static final int ZIP_FLAGS_UTF8 = 0x0800;
+	private static final int ZIP_STORED = 0;
+	private static final int ZIP_DEFLATED = 8;
+	private static final long ZIP_MAX_SIZE = 0xffffffffL;
+	private static final int ZIP_MAX_ENTRIES = 0xffff;
+
+	private static final int TAR_BLOCK_SIZE = 512;
+	private static final int GZIP_OS_UNKNOWN = 0xff;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** Extensions of content which is already compressed, so is stored rather than deflated **/
+	private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList("jpg", "jpeg",
+		"png", "gif", "webp", "heic", "mp4", "m4a", "3gp", "mkv", "webm", "mp3", "aac", "ogg", "zip", "gz",
+		"apk"));
+
+	/** True if blocks are deflated in parallel, which requires sync flushing **/
+	@VisibleForTesting
+	static boolean sParallel = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+	private static final ThreadLocal<Deflater> sDeflaters = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		}
+	};
+
+	private final CountingOutputStream mOut;
+	private final ProgressListener mListener;
+	private final CancellationSignal mSignal;
+	private final boolean mParallel = sParallel;
+	private final int mMaxPending = UtilExecutors.getPoolSize() * BLOCKS_PER_THREAD;
+	private final ArrayDeque<Pending> mPending = new ArrayDeque<>();
+	private final List<ZipEntryStream> mZipEntries = new ArrayList<>();
+	private long mTotalBytes;
+	private long mBytesRead;
+
+	private ArchiveWriter(@NonNull OutputStream out, @Nullable ProgressListener listener,
+			@Nullable CancellationSignal signal) {
+		mOut = new CountingOutputStream(new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE));
+		mListener = listener;
+		mSignal = signal;
+	}
+
+	/**
+	 * Writes a {@link File} or directory tree to a zip archive, replacing the destination if it already
+	 * exists. Entries are named relative to the source's parent, so a directory is extracted as a
+	 * single directory. This blocks until the archive is written, so must not be called from the main
+	 * thread or the shared background pool.
+	 *
+	 * @param source	{@link File} or directory to archive
+	 * @param destination	Zip {@link File} to write
+	 * @param listener	Optional {@link ProgressListener}, reporting the bytes of the source read
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Size in bytes of the archive
+	 * @throws IOException	If the source cannot be read or the archive written
+	 */
+	@WorkerThread
+	public static long zip(@NonNull File source, @NonNull File destination, @Nullable ProgressListener listener,
+			@Nullable CancellationSignal signal) throws IOException {
+		return writeFile(source, destination, true, listener, signal);
+	}
+
+	/**
+	 * Writes a {@link File} or directory tree to a zip archive on an {@link OutputStream}, which is
+	 * flushed but not closed.
+	 *
+	 * @param source	{@link File} or directory to archive
+	 * @param out	{@link OutputStream} to write to
+	 * @param listener	Optional {@link ProgressListener}, reporting the bytes of the source read
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Size in bytes of the archive
+	 * @throws IOException	If the source cannot be read or the archive written
+	 */
+	@WorkerThread
+	public static long zip(@NonNull File source, @NonNull OutputStream out, @Nullable ProgressListener listener,
+			@Nullable CancellationSignal signal) throws IOException {
+		return new ArchiveWriter(out, listener, signal).writeZip(source);
+	}
+
+	/**
+	 * Writes a {@link File} to a gzip archive, or a directory tree to a gzipped tar, replacing the
+	 * destination if it already exists. This blocks until the archive is written, so must not be
+	 * called from the main thread or the shared background pool.
+	 *
+	 * @param source	{@link File} or directory to archive
+	 * @param destination	Gzip {@link File} to write
+	 * @param listener	Optional {@link ProgressListener}, reporting the bytes of the source read
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Size in bytes of the archive
+	 * @throws IOException	If the source cannot be read or the archive written
+	 */
+	@WorkerThread
+	public static long gzip(@NonNull File source, @NonNull File destination, @Nullable ProgressListener listener,
+			@Nullable CancellationSignal signal) throws IOException {
+		return writeFile(source, destination, false, listener, signal);
+	}
+
+	/**
+	 * Writes a {@link File} to a gzip archive, or a directory tree to a gzipped tar, on an
+	 * {@link OutputStream}, which is flushed but not closed.
+	 *
+	 * @param source	{@link File} or directory to archive
+	 * @param out	{@link OutputStream} to write to
+	 * @param listener	Optional {@link ProgressListener}, reporting the bytes of the source read
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Size in bytes of the archive
+	 * @throws IOException	If the source cannot be read or the archive written
+	 */
+	@WorkerThread
+	public static long gzip(@NonNull File source, @NonNull OutputStream out, @Nullable ProgressListener listener,
+			@Nullable CancellationSignal signal) throws IOException {
+		return new ArchiveWriter(out, listener, signal).writeGzip(source);
+	}
+
+	/**
+	 * Writes an archive into a {@link File}, removing the partially written destination if writing
+	 * fails or is cancelled.
+	 */
+	private static long writeFile(@NonNull File source, @NonNull File destination, boolean zip,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+
+		FileOutputStream out = new FileOutputStream(destination);
+		boolean success = false;
+		try {
+			ArchiveWriter writer = new ArchiveWriter(out, listener, signal);
+			long written = zip ? writer.writeZip(source) : writer.writeGzip(source);
+			success = true;
+			return written;
+		} finally {
+			FileUtils.closeQuietly(out);
+			if (!success && destination.exists() && !destination.delete()) {
+				UtilLogger.e("ArchiveWriter", "writeFile() Unable to remove partial file: " + destination.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Writes each file and directory as a zip entry followed by the central directory.
+	 */
+	private long writeZip(@NonNull File source) throws IOException {
+		List<File> files = collect(source);
+		String root = source.getParentFile() != null ? source.getParentFile().getAbsolutePath() : "";
+		boolean success = false;
+		try {
+			for (File file : files) {
+				throwIfCanceled();
+				String name = getRelativeName(root, file);
+				if (file.isDirectory()) {
+					ZipEntryStream entry = new ZipEntryStream(name + "/", file.lastModified(), true);
+					mPending.addLast(new Pending(entry, null, true, true));
+					continue;
+				}
+
+				FileInputStream in;
+				try {
+					in = new FileInputStream(file);
+				} catch (FileNotFoundException e) {
+					// Files such as rotated logs can disappear while the tree is archived
+					UtilLogger.e("ArchiveWriter", "writeZip() Skipping unreadable file: " + e);
+					continue;
+				}
+				try {
+					ZipEntryStream entry = new ZipEntryStream(name, file.lastModified(), false);
+					entry.mLevel = getLevel(file);
+					transfer(entry, in, -1);
+					end(entry);
+				} finally {
+					FileUtils.closeQuietly(in);
+				}
+			}
+			drain();
+			writeCentralDirectory();
+			mOut.flush();
+			success = true;
+			return mOut.getCount();
+		} finally {
+			if (!success) {
+				abort();
+			}
+		}
+	}
+
+	/**
+	 * Writes a single file as the gzip content, or a directory tree as a tar.
+	 */
+	private long writeGzip(@NonNull File source) throws IOException {
+		List<File> files = collect(source);
+		String root = source.getParentFile() != null ? source.getParentFile().getAbsolutePath() : "";
+		GzipStream stream = new GzipStream();
+		boolean success = false;
+		try {
+			if (source.isDirectory()) {
+				for (File file : files) {
+					throwIfCanceled();
+					writeTarEntry(stream, getRelativeName(root, file), file);
+				}
+				// A tar ends with two empty blocks
+				write(stream, new byte[TAR_BLOCK_SIZE * 2], 0, TAR_BLOCK_SIZE * 2);
+			} else {
+				stream.mLevel = getLevel(source);
+				FileInputStream in = new FileInputStream(source);
+				try {
+					transfer(stream, in, -1);
+				} finally {
+					FileUtils.closeQuietly(in);
+				}
+			}
+			end(stream);
+			drain();
+			mOut.flush();
+			success = true;
+			return mOut.getCount();
+		} finally {
+			if (!success) {
+				abort();
+			}
+		}
+	}
+
+	/**
+	 * Lists the source and every file and directory beneath it in a deterministic order, totalling the
+	 * size of the files for progress.
+	 */
+	@NonNull
+	private List<File> collect(@NonNull File source) throws IOException {
+		if (!source.exists()) {
+			throw new FileNotFoundException("Unable to archive missing file: " + source.getAbsolutePath());
+		}
+		List<File> files = new ArrayList<>();
+		ArrayDeque<File> stack = new ArrayDeque<>();
+		stack.push(source);
+		while (!stack.isEmpty()) {
+			File file = stack.pop();
+			files.add(file);
+			if (file.isDirectory()) {
+				File[] children = file.listFiles();
+				if (children != null) {
+					Arrays.sort(children);
+					for (int i = children.length - 1; i >= 0; i--) {
+						stack.push(children[i]);
+					}
+				}
+			} else {
+				mTotalBytes += file.length();
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Writes a tar header followed by the file's content, padded to the tar block size. The content is
+	 * limited to the size in the header, and padded with zeros if the file shrinks while being read.
+	 */
+	private void writeTarEntry(@NonNull GzipStream stream, @NonNull String name, @NonNull File file)
+			throws IOException {
+
+		boolean directory = file.isDirectory();
+		FileInputStream in = null;
+		if (!directory) {
+			try {
+				in = new FileInputStream(file);
+			} catch (FileNotFoundException e) {
+				// Files such as rotated logs can disappear while the tree is archived
+				UtilLogger.e("ArchiveWriter", "writeTarEntry() Skipping unreadable file: " + e);
+				return;
+			}
+		}
+
+		try {
+			long size = directory ? 0 : in.getChannel().size();
+			byte[] nameBytes = (directory ? name + "/" : name).getBytes(UTF_8);
+			if (nameBytes.length > 100) {
+				// GNU long name, the entry's own header holds the truncated name
+				byte[] longName = Arrays.copyOf(nameBytes, nameBytes.length + 1);
+				write(stream, createTarHeader("././@LongLink".getBytes(UTF_8), longName.length, 0, 'L'), 0, TAR_BLOCK_SIZE);
+				write(stream, longName, 0, longName.length);
+				writeTarPadding(stream, longName.length);
+				nameBytes = Arrays.copyOf(nameBytes, 100);
+			}
+			write(stream, createTarHeader(nameBytes, size, file.lastModified(), directory ? '5' : '0'), 0, TAR_BLOCK_SIZE);
+
+			if (in != null) {
+				long read = transfer(stream, in, size);
+				if (read < size) {
+					byte[] zeros = new byte[TAR_BLOCK_SIZE];
+					for (long remaining = size - read; remaining > 0; remaining -= zeros.length) {
+						write(stream, zeros, 0, (int) Math.min(zeros.length, remaining));
+					}
+				}
+				writeTarPadding(stream, size);
+			}
+		} finally {
+			FileUtils.closeQuietly(in);
+		}
+	}
+
+	private void writeTarPadding(@NonNull GzipStream stream, long length) throws IOException {
+		int padding = (int) ((TAR_BLOCK_SIZE - length % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE);
+		if (padding > 0) {
+			write(stream, new byte[padding], 0, padding);
+		}
+	}
+
+	/**
+	 * Creates a ustar header block.
+	 */
+	@NonNull
+	private static byte[] createTarHeader(@NonNull byte[] name, long size, long lastModified, char type)
+			throws IOException {
+
+		if (size > 077777777777L) {
+			throw new IOException("File too large for a tar entry: " + size);
+		}
+		byte[] header = new byte[TAR_BLOCK_SIZE];
+		System.arraycopy(name, 0, header, 0, Math.min(name.length, 100));
+		writeOctal(header, 100, 8, type == '5' ? 0755 : 0644);
+		writeOctal(header, 108, 8, 0);
+		writeOctal(header, 116, 8, 0);
+		writeOctal(header, 124, 12, size);
+		writeOctal(header, 136, 12, lastModified / 1000);
+		header[156] = (byte) type;
+		System.arraycopy("ustar\00000".getBytes(UTF_8), 0, header, 257, 8);
+
+		// The checksum is calculated with its own field filled with spaces
+		Arrays.fill(header, 148, 156, (byte) ' ');
+		long checksum = 0;
+		for (byte b : header) {
+			checksum += b & 0xff;
+		}
+		writeOctal(header, 148, 7, checksum);
+		return header;
+	}
+
+	/**
+	 * Writes a zero padded octal number terminated by a null into a tar header field.
+	 */
+	private static void writeOctal(@NonNull byte[] header, int offset, int length, long value) {
+		String octal = Long.toOctalString(value);
+		int digits = length - 1;
+		for (int i = 0; i < digits; i++) {
+			int index = octal.length() - digits + i;
+			header[offset + i] = (byte) (index >= 0 ? octal.charAt(index) : '0');
+		}
+		header[offset + digits] = 0;
+	}
+
+	/**
+	 * Reads from the stream into the deflate stream's blocks, up to the limit if not -1.
+	 *
+	 * @return	Number of bytes read
+	 */
+	private long transfer(@NonNull DeflateStream stream, @NonNull InputStream in, long limit) throws IOException {
+		long total = 0;
+		while (limit < 0 || total < limit) {
+			throwIfCanceled();
+			if (stream.mBlock == null) {
+				stream.mBlock = BufferPool.acquire(BLOCK_SIZE);
+			} else if (stream.mBlockLength == BLOCK_SIZE) {
+				submit(stream, false);
+				stream.mBlock = BufferPool.acquire(BLOCK_SIZE);
+			}
+			int length = BLOCK_SIZE - stream.mBlockLength;
+			if (limit >= 0) {
+				length = (int) Math.min(length, limit - total);
+			}
+			int read = in.read(stream.mBlock, stream.mBlockLength, length);
+			if (read == -1) {
+				break;
+			}
+			stream.mBlockLength += read;
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Copies bytes into the deflate stream's blocks.
+	 */
+	private void write(@NonNull DeflateStream stream, @NonNull byte[] bytes, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			if (stream.mBlock == null) {
+				stream.mBlock = BufferPool.acquire(BLOCK_SIZE);
+			} else if (stream.mBlockLength == BLOCK_SIZE) {
+				submit(stream, false);
+				stream.mBlock = BufferPool.acquire(BLOCK_SIZE);
+			}
+			int count = Math.min(length, BLOCK_SIZE - stream.mBlockLength);
+			System.arraycopy(bytes, offset, stream.mBlock, stream.mBlockLength, count);
+			stream.mBlockLength += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Submits the deflate stream's final block, which may be empty.
+	 */
+	private void end(@NonNull DeflateStream stream) throws IOException {
+		if (stream.mBlock == null) {
+			stream.mBlock = BufferPool.acquire(0);
+		}
+		submit(stream, true);
+	}
+
+	/**
+	 * Submits the deflate stream's current block for deflating, and writes out the oldest pending
+	 * blocks once too many are in flight. The block is released by the task.
+	 */
+	private void submit(@NonNull DeflateStream stream, boolean last) throws IOException {
+		final byte[] block = stream.mBlock;
+		final int length = stream.mBlockLength;
+		final int level = stream.mLevel;
+		final boolean finish = last;
+		final Deflater serialDeflater;
+		if (mParallel) {
+			serialDeflater = null;
+		} else {
+			if (stream.mSerialDeflater == null) {
+				stream.mSerialDeflater = new Deflater(level, true);
+			}
+			serialDeflater = stream.mSerialDeflater;
+		}
+		boolean start = !stream.mSubmitted;
+		stream.mSubmitted = true;
+		stream.mBlock = null;
+		stream.mBlockLength = 0;
+
+		Callable<Block> task = new Callable<Block>() {
+			@Override
+			public Block call() throws Exception {
+				return deflate(block, length, level, finish, serialDeflater);
+			}
+		};
+		Future<Block> future;
+		if (mParallel) {
+			future = UtilExecutors.background().submit(task);
+		} else {
+			FutureTask<Block> inline = new FutureTask<>(task);
+			inline.run();
+			future = inline;
+		}
+
+		mPending.addLast(new Pending(stream, future, start, last));
+		while (mPending.size() > mMaxPending) {
+			writeNext();
+		}
+	}
+
+	/**
+	 * Deflates a block as part of a raw deflate stream. Without a serial deflater the block is
+	 * deflated on its own, ending with a sync flush unless it is the last, so it can be joined to the
+	 * blocks either side of it.
+	 */
+	@NonNull
+	private static Block deflate(@NonNull byte[] data, int length, int level, boolean last,
+			@Nullable Deflater serialDeflater) throws IOException {
+
+		Deflater deflater = serialDeflater;
+		if (deflater == null) {
+			deflater = sDeflaters.get();
+			deflater.reset();
+			deflater.setLevel(level);
+		}
+		PooledByteArrayOutputStream out = new PooledByteArrayOutputStream(length + (length >> 4) + 64);
+		byte[] buffer = BufferPool.acquire(DEFLATE_BUFFER_SIZE);
+		try {
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, length);
+			deflater.setInput(data, 0, length);
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					out.write(buffer, 0, deflater.deflate(buffer, 0, buffer.length));
+				}
+				if (serialDeflater != null) {
+					serialDeflater.end();
+				}
+			} else if (serialDeflater == null) {
+				syncFlush(deflater, buffer, out);
+			} else {
+				while (!deflater.needsInput()) {
+					out.write(buffer, 0, deflater.deflate(buffer, 0, buffer.length));
+				}
+			}
+			return new Block(out, (int) crc.getValue(), length);
+		} catch (RuntimeException e) {
+			out.close();
+			throw e;
+		} finally {
+			BufferPool.release(buffer);
+			BufferPool.release(data);
+		}
+	}
+
+	/**
+	 * Deflates the remaining input ending with a sync flush, so the output ends on a byte boundary. A
+	 * call after the level changes may only apply the new level, so this loops until the input is
+	 * consumed and the flush fits in the buffer.
+	 */
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private static void syncFlush(@NonNull Deflater deflater, @NonNull byte[] buffer,
+			@NonNull PooledByteArrayOutputStream out) throws IOException {
+		int deflated;
+		do {
+			deflated = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+			out.write(buffer, 0, deflated);
+		} while (deflated == buffer.length || !deflater.needsInput());
+	}
+
+	/**
+	 * Writes the oldest pending block, preceded by its stream's header if it is the first and followed
+	 * by its trailer if it is the last.
+	 */
+	private void writeNext() throws IOException {
+		Pending pending = mPending.removeFirst();
+		DeflateStream stream = pending.mStream;
+		if (pending.mStart) {
+			stream.writeHeader(mOut);
+		}
+		if (pending.mBlock != null) {
+			Block block = await(pending.mBlock);
+			try {
+				block.mOutput.writeTo(mOut);
+				stream.mCrc = combineCrc(stream.mCrc, block.mCrc, block.mLength);
+				stream.mSize += block.mLength;
+				stream.mCompressedSize += block.mOutput.size();
+			} finally {
+				block.mOutput.close();
+			}
+			mBytesRead += block.mLength;
+			if (mListener != null && block.mLength > 0) {
+				// Tar headers are counted too, so the total is only approached
+				mListener.onProgress(Math.min(mBytesRead, mTotalBytes), mTotalBytes);
+			}
+		}
+		if (pending.mEnd) {
+			stream.writeTrailer(mOut);
+		}
+	}
+
+	private void drain() throws IOException {
+		while (!mPending.isEmpty()) {
+			throwIfCanceled();
+			writeNext();
+		}
+	}
+
+	@NonNull
+	private Block await(@NonNull Future<Block> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing archive", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Unable to deflate block", e.getCause());
+		}
+	}
+
+	/**
+	 * Cancels the pending blocks, returning the buffers of any already deflated.
+	 */
+	private void abort() {
+		for (Pending pending : mPending) {
+			if (pending.mBlock != null && !pending.mBlock.cancel(true) && pending.mBlock.isDone()) {
+				try {
+					pending.mBlock.get().mOutput.close();
+				} catch (InterruptedException | ExecutionException e) {
+					// Nothing to return
+				}
+			}
+		}
+		mPending.clear();
+	}
+
+	private void writeCentralDirectory() throws IOException {
+		if (mZipEntries.size() > ZIP_MAX_ENTRIES) {
+			throw new IOException("Too many entries for a zip archive: " + mZipEntries.size());
+		}
+		long offset = mOut.getCount();
+		for (ZipEntryStream entry : mZipEntries) {
+			mOut.writeInt(ZIP_CENTRAL_HEADER);
+			mOut.writeShort(ZIP_VERSION);
+			mOut.writeShort(ZIP_VERSION);
+			mOut.writeShort(entry.mDirectory ? ZIP_FLAGS_UTF8 : ZIP_FLAGS_STREAMED);
+			mOut.writeShort(entry.mDirectory ? ZIP_STORED : ZIP_DEFLATED);
+			mOut.writeInt(entry.mDosTime);
+			mOut.writeInt(entry.mCrc);
+			mOut.writeInt((int) entry.mCompressedSize);
+			mOut.writeInt((int) entry.mSize);
+			mOut.writeShort(entry.mName.length);
+			mOut.writeShort(0);
+			mOut.writeShort(0);
+			mOut.writeShort(0);
+			mOut.writeShort(0);
+			mOut.writeInt(0);
+			mOut.writeInt((int) entry.mHeaderOffset);
+			mOut.write(entry.mName);
+		}
+		long size = mOut.getCount() - offset;
+		if (offset > ZIP_MAX_SIZE) {
+			throw new IOException("Archive too large for a zip without ZIP64: " + offset);
+		}
+		mOut.writeInt(ZIP_END_OF_CENTRAL_DIRECTORY);
+		mOut.writeShort(0);
+		mOut.writeShort(0);
+		mOut.writeShort(mZipEntries.size());
+		mOut.writeShort(mZipEntries.size());
+		mOut.writeInt((int) size);
+		mOut.writeInt((int) offset);
+		mOut.writeShort(0);
+	}
+
+	/**
+	 * Returns the deflate level for a file, storing content which is already compressed.
+	 */
+	private static int getLevel(@NonNull File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot != -1 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.US))) {
+			return Deflater.NO_COMPRESSION;
+		}
+		return Deflater.DEFAULT_COMPRESSION;
+	}
+
+	@NonNull
+	private static String getRelativeName(@NonNull String root, @NonNull File file) {
+		String path = file.getAbsolutePath();
+		if (!root.isEmpty() && path.startsWith(root)) {
+			path = path.substring(root.length());
+		}
+		while (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		return path;
+	}
+
+	/**
+	 * Converts a time into the MS-DOS date and time used by zip, with the date in the upper half.
+	 */
+	private static int toDosTime(long millis) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(millis);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25
+			| (calendar.get(Calendar.MONTH) + 1) << 21
+			| calendar.get(Calendar.DAY_OF_MONTH) << 16
+			| calendar.get(Calendar.HOUR_OF_DAY) << 11
+			| calendar.get(Calendar.MINUTE) << 5
+			| calendar.get(Calendar.SECOND) >> 1;
+	}
+
+	/**
+	 * Returns the CRC-32 of two consecutive runs of data from the CRC-32 of each, as zlib's
+	 * crc32_combine(), so blocks can be checksummed in parallel.
+	 */
+	@VisibleForTesting
+	static int combineCrc(int crc1, int crc2, long length2) {
+		if (length2 <= 0) {
+			return crc1;
+		}
+
+		// Operator for one zero bit, then squared into the operators for two and four zero bits
+		int[] odd = new int[32];
+		int[] even = new int[32];
+		odd[0] = 0xedb88320;
+		int row = 1;
+		for (int n = 1; n < 32; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+		squareGf2Matrix(even, odd);
+		squareGf2Matrix(odd, even);
+
+		// Apply length2 zero bytes to crc1
+		do {
+			squareGf2Matrix(even, odd);
+			if ((length2 & 1) != 0) {
+				crc1 = multiplyGf2Matrix(even, crc1);
+			}
+			length2 >>= 1;
+			if (length2 == 0) {
+				break;
+			}
+			squareGf2Matrix(odd, even);
+			if ((length2 & 1) != 0) {
+				crc1 = multiplyGf2Matrix(odd, crc1);
+			}
+			length2 >>= 1;
+		} while (length2 != 0);
+		return crc1 ^ crc2;
+	}
+
+	private static int multiplyGf2Matrix(@NonNull int[] matrix, int vector) {
+		int sum = 0;
+		for (int i = 0; vector != 0; i++, vector >>>= 1) {
+			if ((vector & 1) != 0) {
+				sum ^= matrix[i];
+			}
+		}
+		return sum;
+	}
+
+	private static void squareGf2Matrix(@NonNull int[] square, @NonNull int[] matrix) {
+		for (int n = 0; n < 32; n++) {
+			square[n] = multiplyGf2Matrix(matrix, matrix[n]);
+		}
+	}
+
+	private void throwIfCanceled() {
+		if (mSignal != null && mSignal.isCanceled()) {
+			throw new OperationCanceledException();
+		}
+	}
+
+	/**
+	 * A single deflate stream, split into blocks as it is read. The header and trailer are written
+	 * around its blocks once they reach the front of the output.
+	 */
+	private abstract static class DeflateStream {
+		int mLevel = Deflater.DEFAULT_COMPRESSION;
+		byte[] mBlock;
+		int mBlockLength;
+		boolean mSubmitted;
+		Deflater mSerialDeflater;
+		int mCrc;
+		long mSize;
+		long mCompressedSize;
+
+		abstract void writeHeader(@NonNull CountingOutputStream out) throws IOException;
+
+		abstract void writeTrailer(@NonNull CountingOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Zip entry, with its sizes and CRC written in a data descriptor after its content.
+	 */
+	private class ZipEntryStream extends DeflateStream {
+		final byte[] mName;
+		final int mDosTime;
+		final boolean mDirectory;
+		long mHeaderOffset;
+
+		ZipEntryStream(@NonNull String name, long lastModified, boolean directory) {
+			mName = name.getBytes(UTF_8);
+			mDosTime = toDosTime(lastModified);
+			mDirectory = directory;
+		}
+
+		@Override
+		void writeHeader(@NonNull CountingOutputStream out) throws IOException {
+			mHeaderOffset = out.getCount();
+			if (mHeaderOffset > ZIP_MAX_SIZE) {
+				throw new IOException("Archive too large for a zip without ZIP64: " + mHeaderOffset);
+			}
+			out.writeInt(ZIP_LOCAL_HEADER);
+			out.writeShort(ZIP_VERSION);
+			out.writeShort(mDirectory ? ZIP_FLAGS_UTF8 : ZIP_FLAGS_STREAMED);
+			out.writeShort(mDirectory ? ZIP_STORED : ZIP_DEFLATED);
+			out.writeInt(mDosTime);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeShort(mName.length);
+			out.writeShort(0);
+			out.write(mName);
+		}
+
+		@Override
+		void writeTrailer(@NonNull CountingOutputStream out) throws IOException {
+			if (mSize > ZIP_MAX_SIZE || mCompressedSize > ZIP_MAX_SIZE) {
+				throw new IOException("Entry too large for a zip without ZIP64: " + new String(mName, UTF_8));
+			}
+			if (!mDirectory) {
+				out.writeInt(ZIP_DATA_DESCRIPTOR);
+				out.writeInt(mCrc);
+				out.writeInt((int) mCompressedSize);
+				out.writeInt((int) mSize);
+			}
+			mZipEntries.add(this);
+		}
+	}
+
+	/**
+	 * The single member of a gzip archive.
+	 */
+	private static class GzipStream extends DeflateStream {
+
+		@Override
+		void writeHeader(@NonNull CountingOutputStream out) throws IOException {
+			// No modification time is recorded, so the same content always produces the same archive
+			out.write(new byte[] {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) GZIP_OS_UNKNOWN});
+		}
+
+		@Override
+		void writeTrailer(@NonNull CountingOutputStream out) throws IOException {
+			out.writeInt(mCrc);
+			out.writeInt((int) mSize);
+		}
+	}
+
+	/**
+	 * Block waiting to be written, or a zip directory entry without a block.
+	 */
+	private static class Pending {
+		final DeflateStream mStream;
+		final Future<Block> mBlock;
+		final boolean mStart;
+		final boolean mEnd;
+
+		Pending(@NonNull DeflateStream stream, @Nullable Future<Block> block, boolean start, boolean end) {
+			mStream = stream;
+			mBlock = block;
+			mStart = start;
+			mEnd = end;
+		}
+	}
+
+	/**
+	 * Deflated block, with the CRC and length of its uncompressed content.
+	 */
+	private static class Block {
+		final PooledByteArrayOutputStream mOutput;
+		final int mCrc;
+		final int mLength;
+
+		Block(@NonNull PooledByteArrayOutputStream output, int crc, int length) {
+			mOutput = output;
+			mCrc = crc;
+			mLength = length;
+		}
+	}
+
+	/**
+	 * Counts the bytes written, for the offsets recorded in a zip, and writes little endian values.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		private final OutputStream mOut;
+		private long mCount;
+
+		CountingOutputStream(@NonNull OutputStream out) {
+			mOut = out;
+		}
+
+		long getCount() {
+			return mCount;
+		}
+
+		void writeShort(int value) throws IOException {
+			mOut.write(value);
+			mOut.write(value >>> 8);
+			mCount += 2;
+		}
+
+		void writeInt(int value) throws IOException {
+			writeShort(value & 0xffff);
+			writeShort(value >>> 16);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			mOut.write(b);
+			mCount++;
+		}
+
+		@Override
+		public void write(@NonNull byte[] bytes, int offset, int length) throws IOException {
+			mOut.write(bytes, offset, length);
+			mCount += length;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			mOut.flush();
+		}
+	}
+}
@@ -0,0 +1,349 @@
+package com.bosh.utils;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes {@link File}s atomically, so a crash part way through a write leaves either the previous
+ * contents or the new contents, never a truncated file. Data is written to a temporary file beside
+ * the target, synced to storage according to a {@link SyncPolicy}, and then renamed over the target.
+ *
+ * Text is encoded as UTF-8 a buffer at a time, rather than through an unbuffered writer using the
+ * platform default charset. Many small files can be written through a {@link Batch}, which renames
+ * them all once written and then syncs each of their directories only once.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class AtomicFileWriter {
+
+	/**
+	 * Defines how thoroughly a write is synced to storage before it is considered complete.
+	 *
+	 * {@link SyncPolicy#NONE} relies on the rename alone, which protects against the app crashing
+	 * but not against the device losing power. {@link SyncPolicy#DATA} flushes the file contents with
+	 * {@link FileChannel#force(boolean)} before the rename, skipping metadata such as the modified
+	 * time. {@link SyncPolicy#FULL} flushes the file and its metadata with {@link FileDescriptor#sync()}
+	 * and then syncs the directory, so the rename itself is durable. Syncing directories requires
+	 * Lollipop, on earlier versions {@link SyncPolicy#FULL} only syncs the file.
+	 */
+	@IntDef({SyncPolicy.NONE, SyncPolicy.DATA, SyncPolicy.FULL})
+	@Retention(RetentionPolicy.SOURCE)
+	public @interface SyncPolicy {
+		int NONE = 0;
+		int DATA = 1;
+		int FULL = 2;
+	}
+
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+	/** Size of the buffer text is encoded into before being written **/
+	private static final int ENCODE_BUFFER_SIZE = 16 * MemoryUnit.KB;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Atomically replaces the contents of a {@link File} with the provided bytes.
+	 *
+	 * @param file	{@link File} to write
+	 * @param bytes	Contents to write
+	 * @param syncPolicy	{@link SyncPolicy} to apply
+	 * @throws IOException	If the file cannot be written, in which case its previous contents remain
+	 */
+	public static void write(@NonNull File file, @NonNull byte[] bytes, @SyncPolicy int syncPolicy) throws IOException {
+		File tempFile = writeTempFile(file, bytes, null, syncPolicy);
+		rename(tempFile, file);
+		if (syncPolicy == SyncPolicy.FULL) {
+			syncDirectory(file.getAbsoluteFile().getParentFile());
+		}
+	}
+
+	/**
+	 * Atomically replaces the contents of a {@link File} with the provided text, encoded as UTF-8.
+	 *
+	 * @param file	{@link File} to write
+	 * @param data	Text to write
+	 * @param syncPolicy	{@link SyncPolicy} to apply
+	 * @throws IOException	If the file cannot be written, in which case its previous contents remain
+	 */
+	public static void write(@NonNull File file, @NonNull CharSequence data, @SyncPolicy int syncPolicy)
+			throws IOException {
+		File tempFile = writeTempFile(file, null, data, syncPolicy);
+		rename(tempFile, file);
+		if (syncPolicy == SyncPolicy.FULL) {
+			syncDirectory(file.getAbsoluteFile().getParentFile());
+		}
+	}
+
+	/**
+	 * Starts a {@link Batch} of atomic writes sharing the provided {@link SyncPolicy}.
+	 *
+	 * @param syncPolicy	{@link SyncPolicy} applied to every file in the batch
+	 * @return	New {@link Batch}
+	 */
+	@NonNull
+	public static Batch beginBatch(@SyncPolicy int syncPolicy) {
+		return new Batch(syncPolicy);
+	}
+
+	/**
+	 * Writes the bytes or text to a new temporary file beside the target and syncs it, removing the
+	 * temporary file if anything fails.
+	 */
+	@NonNull
+	private static File writeTempFile(@NonNull File file, byte[] bytes, CharSequence data, @SyncPolicy int syncPolicy)
+			throws IOException {
+
+		File directory = file.getAbsoluteFile().getParentFile();
+		File tempFile = File.createTempFile("." + file.getName() + ".", TEMP_FILE_SUFFIX, directory);
+		FileOutputStream fos = null;
+		boolean written = false;
+		try {
+			fos = new FileOutputStream(tempFile);
+			if (bytes != null) {
+				fos.write(bytes);
+			} else {
+				encode(data, fos.getChannel());
+			}
+
+			if (syncPolicy == SyncPolicy.DATA) {
+				fos.getChannel().force(false);
+			} else if (syncPolicy == SyncPolicy.FULL) {
+				fos.getFD().sync();
+			}
+			fos.close();
+			fos = null;
+			written = true;
+			return tempFile;
+		} finally {
+			FileUtils.closeQuietly(fos);
+			if (!written && !tempFile.delete()) {
+				UtilLogger.e("AtomicFileWriter", "Unable to delete temporary file: " + tempFile.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Encodes text as UTF-8 through a pooled buffer, writing each full buffer to the channel.
+	 */
+	private static void encode(@NonNull CharSequence data, @NonNull FileChannel channel) throws IOException {
+		CharsetEncoder encoder = UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer chars = CharBuffer.wrap(data);
+		byte[] array = BufferPool.acquire(ENCODE_BUFFER_SIZE);
+		ByteBuffer buffer = ByteBuffer.wrap(array);
+
+		try {
+			boolean flushing = false;
+			while (true) {
+				CoderResult result = flushing ? encoder.flush(buffer) : encoder.encode(chars, buffer, true);
+				if (result.isError()) {
+					result.throwException();
+				}
+
+				if (result.isOverflow() || buffer.position() > 0) {
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+					buffer.clear();
+				}
+
+				if (result.isUnderflow()) {
+					if (flushing) {
+						return;
+					}
+					flushing = true;
+				}
+			}
+		} finally {
+			BufferPool.release(array);
+		}
+	}
+
+	private static void rename(@NonNull File tempFile, @NonNull File file) throws IOException {
+		if (!tempFile.renameTo(file)) {
+			if (!tempFile.delete()) {
+				UtilLogger.e("AtomicFileWriter", "Unable to delete temporary file: " + tempFile.getAbsolutePath());
+			}
+			throw new IOException("Unable to rename temporary file to " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Syncs a directory so that files renamed into it survive a loss of power. Directories cannot be
+	 * opened through the Java file APIs, so this requires {@link Os} from Lollipop.
+	 */
+	private static void syncDirectory(File directory) throws IOException {
+		if (directory == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+			return;
+		}
+		DirectorySyncer.sync(directory);
+	}
+
+	/**
+	 * Holds the {@link Os} calls, and the catch of {@link ErrnoException}, in a class of their own so
+	 * older devices never load them, as verifying a method which catches a missing exception type can
+	 * fail before Lollipop.
+	 */
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private static final class DirectorySyncer {
+
+		static void sync(@NonNull File directory) throws IOException {
+			try {
+				FileDescriptor descriptor = Os.open(directory.getAbsolutePath(), OsConstants.O_RDONLY, 0);
+				try {
+					Os.fsync(descriptor);
+				} finally {
+					Os.close(descriptor);
+				}
+			} catch (ErrnoException e) {
+				throw new IOException("Unable to sync directory " + directory.getAbsolutePath() + ": "
+					+ e.getLocalizedMessage());
+			}
+		}
+	}
+
+	/**
+	 * Group of atomic writes which are committed together. Each file is written and synced to a
+	 * temporary file as it is added, then {@link #commit()} renames every file into place and syncs
+	 * each distinct directory once, rather than once per file.
+	 *
+	 * A batch is not thread safe, and should be committed or aborted once finished with.
+	 */
+	public static class Batch {
+		private final int mSyncPolicy;
+		private final List<File> mTempFiles = new ArrayList<>();
+		private final List<File> mFiles = new ArrayList<>();
+		private boolean mFinished;
+
+		private Batch(@SyncPolicy int syncPolicy) {
+			mSyncPolicy = syncPolicy;
+		}
+
+		/**
+		 * Adds the bytes to be written to a {@link File} when the batch is committed.
+		 *
+		 * @param file	{@link File} to write
+		 * @param bytes	Contents to write
+		 * @return	This {@link Batch}
+		 * @throws IOException	If the temporary file cannot be written
+		 */
+		@NonNull
+		public Batch write(@NonNull File file, @NonNull byte[] bytes) throws IOException {
+			checkNotFinished();
+			add(writeTempFile(file, bytes, null, mSyncPolicy), file);
+			return this;
+		}
+
+		/**
+		 * Adds the text to be written to a {@link File}, encoded as UTF-8, when the batch is committed.
+		 *
+		 * @param file	{@link File} to write
+		 * @param data	Text to write
+		 * @return	This {@link Batch}
+		 * @throws IOException	If the temporary file cannot be written
+		 */
+		@NonNull
+		public Batch write(@NonNull File file, @NonNull CharSequence data) throws IOException {
+			checkNotFinished();
+			add(writeTempFile(file, null, data, mSyncPolicy), file);
+			return this;
+		}
+
+		/**
+		 * Renames every written file into place, then syncs their directories if required by the
+		 * {@link SyncPolicy}. Renaming continues past any failure, so the files before and after it
+		 * are still committed, and the first failure is then thrown.
+		 *
+		 * @return	Number of files committed
+		 * @throws IOException	If a file could not be renamed or a directory could not be synced
+		 */
+		public int commit() throws IOException {
+			checkNotFinished();
+			mFinished = true;
+
+			IOException failure = null;
+			int committed = 0;
+			Set<File> directories = new LinkedHashSet<>();
+			for (int i = 0; i < mFiles.size(); i++) {
+				File file = mFiles.get(i);
+				try {
+					rename(mTempFiles.get(i), file);
+					directories.add(file.getAbsoluteFile().getParentFile());
+					committed++;
+				} catch (IOException e) {
+					if (failure == null) {
+						failure = e;
+					}
+				}
+			}
+
+			if (mSyncPolicy == SyncPolicy.FULL) {
+				for (File directory : directories) {
+					try {
+						syncDirectory(directory);
+					} catch (IOException e) {
+						if (failure == null) {
+							failure = e;
+						}
+					}
+				}
+			}
+
+			if (failure != null) {
+				throw failure;
+			}
+			return committed;
+		}
+
+		/**
+		 * Discards every written file, leaving the targets untouched.
+		 */
+		public void abort() {
+			if (mFinished) {
+				return;
+			}
+			mFinished = true;
+			for (File tempFile : mTempFiles) {
+				if (!tempFile.delete()) {
+					UtilLogger.e("AtomicFileWriter", "Unable to delete temporary file: " + tempFile.getAbsolutePath());
+				}
+			}
+		}
+
+		private void add(@NonNull File tempFile, @NonNull File file) {
+			mTempFiles.add(tempFile);
+			mFiles.add(file);
+		}
+
+		private void checkNotFinished() {
+			if (mFinished) {
+				throw new IllegalStateException("Batch has already been committed or aborted");
+			}
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package com.bosh.utils;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe pool of scratch byte arrays shared by the libraries I/O utilities, so copying, hashing
+ * and encoding don't allocate a new buffer for every call. Buffers are grouped into power of two size
+ * classes from {@link #MIN_POOLED_SIZE} to {@link #MAX_POOLED_SIZE}, and a request is served from the
+ * smallest class that fits it. Larger requests are allocated directly and never pooled.
+ *
+ * Each thread keeps one buffer of each class up to {@link #THREAD_CACHED_SIZE} to itself, so the
+ * common case of a thread repeatedly borrowing the same size never contends with other threads.
+ * Other buffers are returned to a shared pool, which retains at most {@link #MAX_RETAINED_BYTES}.
+ *
+ * The number of bytes currently borrowed, the peak, and the total allocated by the pool are available
+ * to confirm buffers are being reused, see {@link #getOutstandingBytes()}.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class BufferPool {
+
+	/** Size in bytes of the smallest pooled buffer **/
+	public static final int MIN_POOLED_SIZE = MemoryUnit.KB;
+	/** Size in bytes of the largest pooled buffer, larger requests are allocated directly **/
+	public static final int MAX_POOLED_SIZE = MemoryUnit.MB;
+	/** Size in bytes of the largest buffer kept in each threads own cache **/
+	public static final int THREAD_CACHED_SIZE = 64 * MemoryUnit.KB;
+	/** Maximum number of bytes retained by the shared pool while not borrowed **/
+	public static final long MAX_RETAINED_BYTES = 4 * MemoryUnit.MB;
+
+	private static final int MIN_SHIFT = 10;
+	private static final int SIZE_CLASSES = 11;
+	private static final int THREAD_CACHED_CLASSES = 7;
+	/** Maximum number of buffers retained by the shared pool per size class **/
+	private static final int MAX_RETAINED_PER_CLASS = 8;
+
+	@SuppressWarnings("unchecked")
+	private static final ArrayDeque<byte[]>[] sPools = new ArrayDeque[SIZE_CLASSES];
+
+	static {
+		for (int i = 0; i < SIZE_CLASSES; i++) {
+			sPools[i] = new ArrayDeque<>(MAX_RETAINED_PER_CLASS);
+		}
+	}
+
+	private static final ThreadLocal<byte[][]> sThreadCache = new ThreadLocal<byte[][]>() {
+		@Override
+		protected byte[][] initialValue() {
+			return new byte[THREAD_CACHED_CLASSES][];
+		}
+	};
+
+	private static final AtomicLong sOutstandingBytes = new AtomicLong();
+	private static final AtomicLong sPeakOutstandingBytes = new AtomicLong();
+	private static final AtomicLong sRetainedBytes = new AtomicLong();
+	private static final AtomicLong sAllocatedBytes = new AtomicLong();
+
+	private BufferPool() {
+		// Not instantiable
+	}
+
+	/**
+	 * Borrows a buffer of at least the requested size, which should be returned through
+	 * {@link #release(byte[])} once finished with. The buffer may be larger than requested, and its
+	 * contents are undefined.
+	 *
+	 * @param minSize	Minimum size in bytes of the buffer
+	 * @return	Buffer of at least the requested size
+	 */
+	@NonNull
+	public static byte[] acquire(@IntRange(from=0) int minSize) {
+		int sizeClass = getSizeClass(minSize);
+		if (sizeClass < 0) {
+			sAllocatedBytes.addAndGet(minSize);
+			return new byte[minSize];
+		}
+
+		byte[] buffer = null;
+		if (sizeClass < THREAD_CACHED_CLASSES) {
+			byte[][] cache = sThreadCache.get();
+			buffer = cache[sizeClass];
+			cache[sizeClass] = null;
+		}
+
+		if (buffer == null) {
+			ArrayDeque<byte[]> pool = sPools[sizeClass];
+			synchronized (pool) {
+				buffer = pool.pollFirst();
+			}
+			if (buffer != null) {
+				sRetainedBytes.addAndGet(-buffer.length);
+			}
+		}
+
+		if (buffer == null) {
+			buffer = new byte[MIN_POOLED_SIZE << sizeClass];
+			sAllocatedBytes.addAndGet(buffer.length);
+		}
+
+		long outstanding = sOutstandingBytes.addAndGet(buffer.length);
+		long peak;
+		while (outstanding > (peak = sPeakOutstandingBytes.get())
+				&& !sPeakOutstandingBytes.compareAndSet(peak, outstanding)) {
+			// Retry until the peak reflects this or a later borrow
+		}
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer borrowed through {@link #acquire(int)} to the pool. The buffer must not be used
+	 * after it has been released. Buffers which weren't pooled are ignored.
+	 *
+	 * @param buffer	Buffer to return, may be null
+	 */
+	public static void release(@Nullable byte[] buffer) {
+		if (buffer == null) {
+			return;
+		}
+		int sizeClass = getSizeClass(buffer.length);
+		if (sizeClass < 0 || MIN_POOLED_SIZE << sizeClass != buffer.length) {
+			return;
+		}
+		sOutstandingBytes.addAndGet(-buffer.length);
+
+		if (sizeClass < THREAD_CACHED_CLASSES) {
+			byte[][] cache = sThreadCache.get();
+			if (cache[sizeClass] == null) {
+				cache[sizeClass] = buffer;
+				return;
+			}
+		}
+
+		if (sRetainedBytes.get() + buffer.length > MAX_RETAINED_BYTES) {
+			return;
+		}
+		ArrayDeque<byte[]> pool = sPools[sizeClass];
+		synchronized (pool) {
+			if (pool.size() >= MAX_RETAINED_PER_CLASS) {
+				return;
+			}
+			pool.offerFirst(buffer);
+		}
+		sRetainedBytes.addAndGet(buffer.length);
+	}
+
+	/**
+	 * Discards every buffer retained by the shared pool, e.g. when the system is low on memory. Buffers
+	 * cached by each thread are kept.
+	 */
+	public static void trim() {
+		for (ArrayDeque<byte[]> pool : sPools) {
+			synchronized (pool) {
+				byte[] buffer;
+				while ((buffer = pool.pollFirst()) != null) {
+					sRetainedBytes.addAndGet(-buffer.length);
+				}
+			}
+		}
+	}
+
+	/** Returns the number of pooled bytes currently borrowed and not yet released **/
+	public static long getOutstandingBytes() {
+		return sOutstandingBytes.get();
+	}
+
+	/** Returns the highest number of pooled bytes borrowed at once **/
+	public static long getPeakOutstandingBytes() {
+		return sPeakOutstandingBytes.get();
+	}
+
+	/** Returns the number of bytes held by the shared pool ready to be borrowed **/
+	public static long getRetainedBytes() {
+		return sRetainedBytes.get();
+	}
+
+	/**
+	 * Returns the total number of bytes allocated for borrowed buffers, including those too large to
+	 * pool. While buffers are being reused this stays flat as more are borrowed.
+	 */
+	public static long getAllocatedBytes() {
+		return sAllocatedBytes.get();
+	}
+
+	/**
+	 * Returns the index of the smallest size class fitting the provided size, or -1 if it is too
+	 * large to be pooled.
+	 */
+	private static int getSizeClass(int size) {
+		if (size <= MIN_POOLED_SIZE) {
+			return 0;
+		}
+		if (size > MAX_POOLED_SIZE) {
+			return -1;
+		}
+		// Round up to the next power of two, then measure it relative to the smallest class
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+}
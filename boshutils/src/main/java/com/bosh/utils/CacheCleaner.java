@@ -0,0 +1,286 @@
+package com.bosh.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Removes the files cleaned up by {@link FileUtils#cleanUpCache(Context)} gradually in the
+ * background, so it can be requested from a lifecycle callback such as onDestroy without stalling
+ * the main thread or competing with the app's own storage access.
+ *
+ * Files are deleted on a lowest priority thread in short slices, with a pause after each. Deletes
+ * which take far longer than usual mean foreground work is contending for the storage, in which case
+ * the cleaner backs off for longer before continuing. Cleanup can be limited to files older than a
+ * given age, files written since it was requested are always kept.
+ *
+ * A requested cleanup is saved, so if the process is killed before it finishes it resumes the next
+ * time {@link #getInstance(Context)} is called, which should be as the app starts.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class CacheCleaner {
+
+	private static final String PREFERENCES_NAME = "com.bosh.utils.cache_cleaner";
+	private static final String KEY_CUTOFF = "cutoff";
+
+	/** Maximum number of files deleted in a single slice **/
+	private static final int SLICE_MAX_FILES = 32;
+	/** Maximum time spent deleting in a single slice **/
+	private static final long SLICE_MAX_MS = 8;
+	/** Pause between slices, leaving the storage free for foreground work **/
+	private static final long SLICE_PAUSE_MS = 40;
+	/** Ratio of a slice's duration to its maximum above which the storage is considered contended **/
+	private static final int IO_CONTENTION_RATIO = 4;
+	/** Time to back off for once storage contention is detected **/
+	private static final long IO_BACKOFF_MS = 750;
+
+	private static CacheCleaner sInstance;
+
+	private final Context mContext;
+	private final SharedPreferences mPreferences;
+	private final Object mLock = new Object();
+
+	private Thread mThread;
+	private volatile boolean mStopped;
+	private volatile FileDeleter.Result mLastResult;
+
+	private CacheCleaner(@NonNull Context context) {
+		mContext = context.getApplicationContext();
+		mPreferences = mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+	}
+
+	/**
+	 * Returns the shared cleaner, resuming any cleanup interrupted by the process being killed.
+	 *
+	 * @param context	{@link Context}
+	 * @return	Shared {@link CacheCleaner}
+	 */
+	@NonNull
+	public static synchronized CacheCleaner getInstance(@NonNull Context context) {
+		if (sInstance == null) {
+			sInstance = new CacheCleaner(context);
+			if (sInstance.isPending()) {
+				sInstance.start();
+			}
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Schedules every temporary and compressed file existing now to be removed in the background.
+	 */
+	public void schedule() {
+		schedule(0);
+	}
+
+	/**
+	 * Schedules the temporary and compressed files older than the provided age to be removed in the
+	 * background. If a cleanup is already pending, the two are combined into whichever removes more.
+	 *
+	 * @param minAgeMillis	Age in milliseconds a file must have reached to be removed
+	 */
+	public void schedule(@IntRange(from=0) long minAgeMillis) {
+		long cutoff = System.currentTimeMillis() - Math.max(0, minAgeMillis);
+		synchronized (mLock) {
+			if (cutoff > mPreferences.getLong(KEY_CUTOFF, Long.MIN_VALUE)) {
+				mPreferences.edit().putLong(KEY_CUTOFF, cutoff).apply();
+			}
+			start();
+		}
+	}
+
+	/**
+	 * Stops the current cleanup and discards it, files already removed are not restored.
+	 */
+	public void cancel() {
+		synchronized (mLock) {
+			mPreferences.edit().remove(KEY_CUTOFF).apply();
+			mStopped = true;
+			mLock.notifyAll();
+			if (mThread != null) {
+				mThread.interrupt();
+				mThread = null;
+			}
+		}
+	}
+
+	/** Returns true while files are being removed **/
+	public boolean isRunning() {
+		synchronized (mLock) {
+			return mThread != null;
+		}
+	}
+
+	/** Returns true if a cleanup has been scheduled and not yet finished **/
+	public boolean isPending() {
+		return mPreferences.contains(KEY_CUTOFF);
+	}
+
+	/** Returns the {@link FileDeleter.Result} of the last completed cleanup, or null if none has run **/
+	@Nullable
+	public FileDeleter.Result getLastResult() {
+		return mLastResult;
+	}
+
+	private void start() {
+		synchronized (mLock) {
+			if (isRunning()) {
+				return;
+			}
+
+			mStopped = false;
+			mThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+					try {
+						clean();
+					} finally {
+						finish();
+					}
+				}
+			}, "CacheCleaner");
+			mThread.start();
+		}
+	}
+
+	/**
+	 * Removes old enough files until no cleanup is pending, re-running if a broader cleanup was
+	 * requested part way through. Runs on the cleaner thread.
+	 */
+	private void clean() {
+		while (!isStopped()) {
+			long cutoff = mPreferences.getLong(KEY_CUTOFF, Long.MIN_VALUE);
+			if (cutoff == Long.MIN_VALUE) {
+				return;
+			}
+
+			FileDeleter.Result result = new FileDeleter.Result();
+			for (File root : FileUtils.getCleanUpDirectories(mContext)) {
+				clean(root, cutoff, result);
+			}
+			if (isStopped()) {
+				return;
+			}
+
+			mLastResult = result;
+			if (UtilLogger.isDebugLogsEnabled()) {
+				UtilLogger.d("CacheCleaner", "clean() " + result);
+			}
+			synchronized (mLock) {
+				if (mPreferences.getLong(KEY_CUTOFF, Long.MIN_VALUE) == cutoff) {
+					mPreferences.edit().remove(KEY_CUTOFF).apply();
+					// Cleared with the cutoff, so a cleanup scheduled from now starts a new thread
+					finish();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Walks a directory tree deleting files last modified at or before the cutoff in time limited
+	 * slices, then removes any directories left empty. The root itself is kept.
+	 */
+	private void clean(@NonNull File root, long cutoff, @NonNull FileDeleter.Result result) {
+		Deque<File> stack = new ArrayDeque<>();
+		List<File> directories = new ArrayList<>();
+		List<File> deleted = new ArrayList<>(SLICE_MAX_FILES);
+		stack.push(root);
+
+		int sliceFiles = 0;
+		long sliceStart = SystemClock.elapsedRealtime();
+		while (!stack.isEmpty() && !isStopped()) {
+			File directory = stack.pop();
+			directories.add(directory);
+
+			File[] children = directory.listFiles();
+			if (children == null) {
+				continue;
+			}
+			for (File child : children) {
+				if (child.isDirectory()) {
+					stack.push(child);
+					continue;
+				}
+				if (child.lastModified() > cutoff) {
+					continue;
+				}
+
+				FileDeleter.deleteFile(child, result);
+				deleted.add(child);
+				if (++sliceFiles >= SLICE_MAX_FILES || SystemClock.elapsedRealtime() - sliceStart >= SLICE_MAX_MS) {
+					endSlice(deleted, SystemClock.elapsedRealtime() - sliceStart);
+					if (isStopped()) {
+						return;
+					}
+					sliceFiles = 0;
+					sliceStart = SystemClock.elapsedRealtime();
+				}
+			}
+		}
+		if (!deleted.isEmpty()) {
+			endSlice(deleted, SystemClock.elapsedRealtime() - sliceStart);
+		}
+
+		for (int i = directories.size() - 1; i > 0 && !isStopped(); i--) {
+			String[] remaining = directories.get(i).list();
+			if (remaining != null && remaining.length == 0) {
+				FileDeleter.deleteDirectory(directories.get(i), result);
+			}
+		}
+	}
+
+	/**
+	 * Ends a slice, forgetting its deleted files and pausing before the next. A slice which overran
+	 * well past its limit was slowed by contention for the storage, so the pause is lengthened.
+	 */
+	private void endSlice(@NonNull List<File> deleted, long elapsedMillis) {
+		if (!deleted.isEmpty()) {
+			StorageBudgetManager.onFilesDeleted(deleted.toArray(new File[deleted.size()]));
+			deleted.clear();
+		}
+		pause(elapsedMillis > SLICE_MAX_MS * IO_CONTENTION_RATIO ? IO_BACKOFF_MS : SLICE_PAUSE_MS);
+	}
+
+	/** Sleeps the cleaner thread, returning early if the cleanup is cancelled **/
+	private void pause(long millis) {
+		synchronized (mLock) {
+			if (isStopped()) {
+				return;
+			}
+			try {
+				mLock.wait(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Clears the current thread once it has no more work, unless it has already been replaced.
+	 */
+	private void finish() {
+		synchronized (mLock) {
+			if (mThread == Thread.currentThread()) {
+				mThread = null;
+			}
+		}
+	}
+
+	private boolean isStopped() {
+		return mStopped || Thread.currentThread().isInterrupted();
+	}
+}
@@ -0,0 +1,107 @@
+package com.bosh.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.bosh.utils.FileUtils.FileStorageLocations;
+import java.io.File;
+
+/**
+ * Caches the directory resolved for each {@link FileStorageLocations} value, used by
+ * {@link FileUtils#createFile(Context, String, String, int)} so creating a burst of files doesn't
+ * query the external storage state, resolve the cache directory and create the directory each time.
+ *
+ * The first time a directory is cached a receiver is registered for external storage being mounted
+ * or removed, which clears the cache as the resolved directories may change. Each cached directory
+ * is still checked to exist before it is returned, so a directory removed by other means is simply
+ * resolved again.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+final class DirectoryCache {
+
+	private static final File[] sDirectories = new File[FileStorageLocations.DCIM_CAMERA + 1];
+
+	private static BroadcastReceiver sStorageReceiver;
+
+	private DirectoryCache() {
+		// Not instantiable
+	}
+
+	/**
+	 * Returns the existing directory for the {@link FileStorageLocations} value, resolving and creating
+	 * it if it isn't cached.
+	 *
+	 * @return	Directory, or null if it is inaccessible or cannot be created
+	 */
+	@Nullable
+	static File get(@NonNull Context context, @FileStorageLocations int location) {
+		File directory;
+		synchronized (sDirectories) {
+			directory = sDirectories[location];
+		}
+		if (directory != null && directory.isDirectory()) {
+			return directory;
+		}
+
+		String directoryPath = FileUtils.getDirectory(context, location);
+		if (directoryPath == null) {
+			return null;
+		}
+
+		directory = new File(directoryPath);
+		if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+			UtilLogger.e("DirectoryCache", "get(" + location + ") Unable to create directory or all "
+				+ "required parent directories: " + directoryPath);
+			return null;
+		}
+
+		registerStorageReceiver(context);
+		synchronized (sDirectories) {
+			sDirectories[location] = directory;
+		}
+		return directory;
+	}
+
+	/** Removes every cached directory **/
+	static void clear() {
+		synchronized (sDirectories) {
+			for (int i = 0; i < sDirectories.length; i++) {
+				sDirectories[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Registers the receiver which clears the cache when external storage changes, if not already
+	 * registered.
+	 */
+	private static synchronized void registerStorageReceiver(@NonNull Context context) {
+		if (sStorageReceiver != null) {
+			return;
+		}
+
+		IntentFilter filter = new IntentFilter();
+		filter.addAction(Intent.ACTION_MEDIA_MOUNTED);
+		filter.addAction(Intent.ACTION_MEDIA_UNMOUNTED);
+		filter.addAction(Intent.ACTION_MEDIA_EJECT);
+		filter.addAction(Intent.ACTION_MEDIA_REMOVED);
+		filter.addAction(Intent.ACTION_MEDIA_BAD_REMOVAL);
+		filter.addAction(Intent.ACTION_MEDIA_SHARED);
+		// Media broadcasts carry the mount point as file data, and are only matched with the scheme
+		filter.addDataScheme("file");
+
+		sStorageReceiver = new BroadcastReceiver() {
+			@Override
+			public void onReceive(Context context, Intent intent) {
+				UtilLogger.d("DirectoryCache", "onReceive(" + intent.getAction() + ") Clearing cached directories");
+				clear();
+			}
+		};
+		context.getApplicationContext().registerReceiver(sStorageReceiver, filter);
+	}
+}
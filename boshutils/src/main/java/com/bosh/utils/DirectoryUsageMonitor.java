@@ -0,0 +1,383 @@
+package com.bosh.utils;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.bosh.utils.FileUtils.FileStorageLocations;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reports how much storage is used by directories, such as those returned for each of the
+ * {@link FileStorageLocations} or the compressed images directory, without rescanning them every
+ * time. The first request for a directory walks it in parallel on the libraries shared background
+ * pool, recording the bytes held directly by each directory within the tree.
+ *
+ * Each directory in the tree is then watched with a {@link FileObserver}. Events only mark the
+ * affected directory as changed, and the next request re-lists just the changed directories and
+ * adjusts the cached total. Newly created sub directories are walked and watched as they appear.
+ * Trees with more than {@link #MAX_OBSERVED_DIRECTORIES} directories are only partly watched, and
+ * changes to unwatched directories are picked up by {@link #refresh(File)}. A directory which
+ * doesn't exist yet, or has been deleted or moved away, is walked again by each request until it
+ * exists.
+ *
+ * Requests block while a directory is first walked, so they should not be made on the main thread.
+ * Call {@link #release()} once finished to stop watching the directories.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class DirectoryUsageMonitor {
+
+	/** Maximum number of directories watched across every monitored tree **/
+	public static final int MAX_OBSERVED_DIRECTORIES = 512;
+
+	private static final int OBSERVED_EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM
+		| FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+	private final Context mContext;
+	private final Map<String, TrackedTree> mTrees = new HashMap<>();
+	private int mObservedCount;
+
+	public DirectoryUsageMonitor(@NonNull Context context) {
+		mContext = context.getApplicationContext();
+	}
+
+	/**
+	 * Returns the total size in bytes of the files within a directory and all of its sub directories.
+	 *
+	 * @param directory	Directory to measure
+	 * @return	Size in bytes, or 0 if the directory doesn't exist
+	 */
+	public long getSize(@NonNull File directory) {
+		TrackedTree tree;
+		synchronized (mTrees) {
+			String path = directory.getAbsolutePath();
+			tree = mTrees.get(path);
+			if (tree == null) {
+				tree = new TrackedTree(path);
+				mTrees.put(path, tree);
+			}
+		}
+		return tree.getSize();
+	}
+
+	/**
+	 * Returns the storage used within the directory of each {@link FileStorageLocations} value. As
+	 * the temporary directory used by {@link FileStorageLocations#DO_NOT_STORE} sits within the cache
+	 * directory used by {@link FileStorageLocations#INTERNAL_CACHE}, the cache total includes it.
+	 *
+	 * @return	{@link Map} of {@link FileStorageLocations} value to size in bytes, locations which are
+	 * 			currently inaccessible are not included
+	 */
+	@NonNull
+	public Map<Integer, Long> getLocationUsage() {
+		Map<Integer, Long> usage = new HashMap<>();
+		int[] locations = {FileStorageLocations.DO_NOT_STORE, FileStorageLocations.INTERNAL_CACHE,
+			FileStorageLocations.DCIM_CAMERA};
+		for (int location : locations) {
+			String directory = FileUtils.getDirectory(mContext, location);
+			if (directory != null) {
+				usage.put(location, getSize(new File(directory)));
+			}
+		}
+		return usage;
+	}
+
+	/**
+	 * Returns the storage used by compressed images created through {@link ImageUtils}.
+	 *
+	 * @return	Size in bytes
+	 */
+	public long getCompressedImagesSize() {
+		String directory = ImageUtils.getCompressedDirectory(mContext);
+		return directory == null ? 0 : getSize(new File(directory));
+	}
+
+	/**
+	 * Discards the cached size of a directory, so that the next request walks it again.
+	 *
+	 * @param directory	Directory to refresh
+	 */
+	public void refresh(@NonNull File directory) {
+		TrackedTree tree;
+		synchronized (mTrees) {
+			tree = mTrees.remove(directory.getAbsolutePath());
+		}
+		if (tree != null) {
+			tree.release();
+		}
+	}
+
+	/**
+	 * Stops watching every directory and discards all cached sizes.
+	 */
+	public void release() {
+		List<TrackedTree> trees;
+		synchronized (mTrees) {
+			trees = new ArrayList<>(mTrees.values());
+			mTrees.clear();
+		}
+		for (TrackedTree tree : trees) {
+			tree.release();
+		}
+	}
+
+	/**
+	 * Reserves a slot for another {@link FileObserver}, returning false once the limit is reached.
+	 */
+	private synchronized boolean acquireObserver() {
+		if (mObservedCount >= MAX_OBSERVED_DIRECTORIES) {
+			return false;
+		}
+		mObservedCount++;
+		return true;
+	}
+
+	private synchronized void releaseObserver() {
+		mObservedCount--;
+	}
+
+	/**
+	 * Sums the bytes of the files held directly within a directory.
+	 *
+	 * @param subdirectories	Optional {@link List} to which the directories sub directories are added
+	 * @return	Size in bytes, or -1 if the directory could not be listed
+	 */
+	private static long listDirectory(@NonNull File directory, @Nullable List<File> subdirectories) {
+		File[] children = directory.listFiles();
+		if (children == null) {
+			return -1;
+		}
+		long bytes = 0;
+		for (File child : children) {
+			if (child.isDirectory()) {
+				if (subdirectories != null) {
+					subdirectories.add(child);
+				}
+			} else {
+				bytes += child.length();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Walks a directory tree iteratively, recording the bytes held directly by each directory.
+	 */
+	@NonNull
+	private static Map<String, Long> walk(@NonNull File root) {
+		Map<String, Long> directBytes = new HashMap<>();
+		Deque<File> stack = new ArrayDeque<>();
+		List<File> subdirectories = new ArrayList<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			File directory = stack.pop();
+			subdirectories.clear();
+			long bytes = listDirectory(directory, subdirectories);
+			if (bytes >= 0) {
+				directBytes.put(directory.getAbsolutePath(), bytes);
+				for (File subdirectory : subdirectories) {
+					stack.push(subdirectory);
+				}
+			}
+		}
+		return directBytes;
+	}
+
+	/**
+	 * Cached usage of a single directory tree.
+	 */
+	private class TrackedTree {
+		private final String mRootPath;
+		private final Map<String, Long> mDirectBytes = new HashMap<>();
+		private final Map<String, FileObserver> mObservers = new HashMap<>();
+		private final Set<String> mChanged = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		private final Set<String> mCreated = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		private boolean mWalked;
+		private boolean mReleased;
+		private long mTotal;
+
+		TrackedTree(@NonNull String rootPath) {
+			mRootPath = rootPath;
+		}
+
+		synchronized long getSize() {
+			if (mReleased) {
+				return 0;
+			}
+			if (mWalked) {
+				applyChanges();
+				// Re-listing a deleted or moved root untracks the whole tree, so walk it if recreated
+				mWalked = mDirectBytes.containsKey(mRootPath);
+			}
+			if (!mWalked) {
+				mWalked = walkInParallel();
+			}
+			return mTotal;
+		}
+
+		synchronized void release() {
+			mReleased = true;
+			for (FileObserver observer : mObservers.values()) {
+				observer.stopWatching();
+				releaseObserver();
+			}
+			mObservers.clear();
+			mDirectBytes.clear();
+			mTotal = 0;
+		}
+
+		/**
+		 * Walks the tree, splitting it at the root so each top level directory is walked on the
+		 * shared background pool.
+		 *
+		 * @return	True if the root was walked, false if it doesn't exist or could not be listed
+		 */
+		private boolean walkInParallel() {
+			File root = new File(mRootPath);
+			List<File> subdirectories = new ArrayList<>();
+			long rootBytes = listDirectory(root, subdirectories);
+			if (rootBytes < 0) {
+				return false;
+			}
+			track(mRootPath, rootBytes);
+
+			List<Future<Map<String, Long>>> futures = new ArrayList<>(subdirectories.size());
+			for (final File subdirectory : subdirectories) {
+				futures.add(UtilExecutors.background().submit(new Callable<Map<String, Long>>() {
+					@Override
+					public Map<String, Long> call() throws Exception {
+						return walk(subdirectory);
+					}
+				}));
+			}
+
+			for (Future<Map<String, Long>> future : futures) {
+				try {
+					for (Map.Entry<String, Long> entry : future.get().entrySet()) {
+						track(entry.getKey(), entry.getValue());
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				} catch (ExecutionException e) {
+					UtilLogger.e("DirectoryUsageMonitor", "walkInParallel(" + mRootPath + ") failed: " + e.getCause());
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Re-lists each changed directory and walks each newly created directory, adjusting the total.
+		 */
+		private void applyChanges() {
+			Iterator<String> created = mCreated.iterator();
+			while (created.hasNext()) {
+				String path = created.next();
+				created.remove();
+				if (!mDirectBytes.containsKey(path)) {
+					for (Map.Entry<String, Long> entry : walk(new File(path)).entrySet()) {
+						track(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+
+			Iterator<String> changed = mChanged.iterator();
+			while (changed.hasNext()) {
+				String path = changed.next();
+				changed.remove();
+				Long previous = mDirectBytes.get(path);
+				if (previous == null) {
+					continue;
+				}
+				long bytes = listDirectory(new File(path), null);
+				if (bytes < 0) {
+					untrack(path);
+				} else {
+					mDirectBytes.put(path, bytes);
+					mTotal += bytes - previous;
+				}
+			}
+		}
+
+		private void track(@NonNull String path, long bytes) {
+			Long previous = mDirectBytes.put(path, bytes);
+			mTotal += bytes - (previous == null ? 0 : previous);
+			if (!mObservers.containsKey(path) && acquireObserver()) {
+				FileObserver observer = new DirectoryObserver(path);
+				mObservers.put(path, observer);
+				observer.startWatching();
+			}
+		}
+
+		/**
+		 * Stops tracking a directory and every directory beneath it.
+		 */
+		private void untrack(@NonNull String path) {
+			String prefix = path + File.separator;
+			Iterator<Map.Entry<String, Long>> iterator = mDirectBytes.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, Long> entry = iterator.next();
+				String trackedPath = entry.getKey();
+				if (trackedPath.equals(path) || trackedPath.startsWith(prefix)) {
+					mTotal -= entry.getValue();
+					iterator.remove();
+					FileObserver observer = mObservers.remove(trackedPath);
+					if (observer != null) {
+						observer.stopWatching();
+						releaseObserver();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Records changes within a single watched directory, events arrive on the observer thread.
+		 */
+		private class DirectoryObserver extends FileObserver {
+			private final String mPath;
+
+			DirectoryObserver(@NonNull String path) {
+				super(path, OBSERVED_EVENTS);
+				mPath = path;
+			}
+
+			@Override
+			public void onEvent(int event, @Nullable String name) {
+				event &= FileObserver.ALL_EVENTS;
+				if (event == FileObserver.DELETE_SELF || event == FileObserver.MOVE_SELF) {
+					// Re-listing a directory which no longer exists stops tracking it
+					mChanged.add(mPath);
+					return;
+				}
+				if (name == null) {
+					return;
+				}
+
+				File child = new File(mPath, name);
+				if ((event == FileObserver.CREATE || event == FileObserver.MOVED_TO) && child.isDirectory()) {
+					mCreated.add(child.getAbsolutePath());
+				} else if (event == FileObserver.DELETE || event == FileObserver.MOVED_FROM) {
+					// A removed sub directory is untracked when re-listed, but its own events may never arrive
+					mChanged.add(child.getAbsolutePath());
+				}
+				mChanged.add(mPath);
+			}
+		}
+	}
+}
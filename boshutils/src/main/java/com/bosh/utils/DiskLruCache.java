@@ -0,0 +1,754 @@
+package com.bosh.utils;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Bounded cache of values stored as files in a single directory, keyed by string and evicted in
+ * least recently used order once the total size exceeds a byte budget. Each key is hashed into a
+ * file name, so any string can be used as a key.
+ *
+ * Every change is appended to a journal in the cache directory, which is replayed when the cache is
+ * opened to rebuild the in memory index without scanning the files, and is compacted once it holds
+ * many redundant entries. Values are written through an {@link Editor} into a temporary file which
+ * only replaces the current value when committed, so a value is never seen half written. Readers
+ * hold the value's file open through a {@link Snapshot}, so they can continue reading while the
+ * value is edited, replaced or evicted.
+ *
+ * All methods are thread safe. Eviction and journal compaction run on the libraries shared
+ * background pool, while reads, edits and journal writes happen on the calling thread and so should
+ * not be made on the main thread.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class DiskLruCache implements Closeable {
+
+	static final String JOURNAL_FILE = "journal";
+	static final String JOURNAL_FILE_TEMP = "journal.tmp";
+	static final String MAGIC = "com.bosh.utils.DiskLruCache";
+	static final String VERSION = "1";
+
+	private static final String CLEAN = "CLEAN";
+	private static final String DIRTY = "DIRTY";
+	private static final String REMOVE = "REMOVE";
+	private static final String READ = "READ";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/** Number of redundant journal entries which triggers compaction **/
+	private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File mDirectory;
+	private final File mJournalFile;
+	private final File mJournalFileTemp;
+	private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+	private long mMaxSize;
+	private long mSize;
+	private int mRedundantOpCount;
+	private Writer mJournalWriter;
+	private boolean mCleanupScheduled;
+
+	private final Runnable mCleanupTask = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (DiskLruCache.this) {
+				mCleanupScheduled = false;
+				if (mJournalWriter == null) {
+					return;
+				}
+				try {
+					trimToSize();
+					if (isJournalCompactionRequired()) {
+						rebuildJournal();
+					}
+				} catch (IOException e) {
+					UtilLogger.e("DiskLruCache", "cleanup(" + mDirectory.getAbsolutePath() + ") failed: "
+						+ e.getLocalizedMessage());
+				}
+			}
+		}
+	};
+
+	private DiskLruCache(@NonNull File directory, long maxSize) {
+		mDirectory = directory;
+		mJournalFile = new File(directory, JOURNAL_FILE);
+		mJournalFileTemp = new File(directory, JOURNAL_FILE_TEMP);
+		mMaxSize = maxSize;
+	}
+
+	/**
+	 * Opens the cache stored in the provided directory, creating it if it doesn't exist. The directory
+	 * should be used exclusively by this cache, as files it doesn't recognise may be deleted. If the
+	 * journal cannot be read the cache is cleared and started again.
+	 *
+	 * @param directory	Directory to store the cache in
+	 * @param maxSize	Maximum size in bytes of the cached values
+	 * @return	Opened {@link DiskLruCache}
+	 * @throws IOException	If the cache directory cannot be created or written to
+	 */
+	@NonNull
+	@WorkerThread
+	public static DiskLruCache open(@NonNull File directory, @IntRange(from=1) long maxSize) throws IOException {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+			throw new IOException("Unable to create cache directory: " + directory.getAbsolutePath());
+		}
+
+		DiskLruCache cache = new DiskLruCache(directory, maxSize);
+		if (cache.mJournalFile.exists()) {
+			try {
+				cache.readJournal();
+				cache.processJournal();
+				cache.mJournalWriter = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(cache.mJournalFile, true), UTF_8));
+				return cache;
+			} catch (IOException e) {
+				UtilLogger.e("DiskLruCache", "open(" + directory.getAbsolutePath() + ") Journal is corrupt, "
+					+ "clearing cache: " + e.getLocalizedMessage());
+				cache.delete();
+				if (!directory.mkdirs() && !directory.isDirectory()) {
+					throw new IOException("Unable to create cache directory: " + directory.getAbsolutePath());
+				}
+				cache = new DiskLruCache(directory, maxSize);
+			}
+		}
+
+		synchronized (cache) {
+			cache.rebuildJournal();
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns a {@link Snapshot} of the value stored for a key, which must be closed once read. The
+	 * entry becomes the most recently used.
+	 *
+	 * @param key	Key of the value
+	 * @return	{@link Snapshot} of the value, or null if nothing is cached for the key
+	 * @throws IOException	If the journal cannot be written
+	 */
+	@Nullable
+	@WorkerThread
+	public synchronized Snapshot get(@NonNull String key) throws IOException {
+		checkNotClosed();
+		Entry entry = mEntries.get(toFileName(key));
+		if (entry == null || !entry.mReadable) {
+			return null;
+		}
+
+		InputStream in;
+		try {
+			in = new FileInputStream(entry.getCleanFile());
+		} catch (FileNotFoundException e) {
+			// The file was removed outside of the cache
+			if (entry.mCurrentEditor != null) {
+				// The entry is kept for its editor, which records it as clean or removed once complete
+				mSize -= entry.mLength;
+				entry.mReadable = false;
+			} else {
+				removeEntry(entry);
+			}
+			return null;
+		}
+
+		mRedundantOpCount++;
+		mJournalWriter.write(READ + ' ' + entry.mName + '\n');
+		if (isJournalCompactionRequired()) {
+			scheduleCleanup();
+		}
+		return new Snapshot(in, entry.mLength);
+	}
+
+	/**
+	 * Returns the value stored for a key as a byte array.
+	 *
+	 * @param key	Key of the value
+	 * @return	Value, or null if nothing is cached for the key
+	 * @throws IOException	If the value cannot be read
+	 */
+	@Nullable
+	@WorkerThread
+	public byte[] getBytes(@NonNull String key) throws IOException {
+		Snapshot snapshot = get(key);
+		if (snapshot == null) {
+			return null;
+		}
+		try {
+			if (snapshot.getLength() > Integer.MAX_VALUE) {
+				throw new IOException("Value too large to read into a byte array: " + key);
+			}
+			byte[] bytes = new byte[(int) snapshot.getLength()];
+			int offset = 0;
+			int read;
+			while (offset < bytes.length
+					&& (read = snapshot.getInputStream().read(bytes, offset, bytes.length - offset)) != -1) {
+				offset += read;
+			}
+			if (offset < bytes.length) {
+				throw new EOFException("Value truncated: " + key);
+			}
+			return bytes;
+		} finally {
+			snapshot.close();
+		}
+	}
+
+	/**
+	 * Starts editing the value for a key. Only one edit can be in progress for a key at a time, while
+	 * the current value remains readable until the edit is committed.
+	 *
+	 * @param key	Key of the value
+	 * @return	{@link Editor} for the value, or null if another edit is in progress for the key
+	 * @throws IOException	If the journal cannot be written
+	 */
+	@Nullable
+	@WorkerThread
+	public synchronized Editor edit(@NonNull String key) throws IOException {
+		checkNotClosed();
+		String name = toFileName(key);
+		Entry entry = mEntries.get(name);
+		if (entry == null) {
+			entry = new Entry(name);
+			mEntries.put(name, entry);
+		} else if (entry.mCurrentEditor != null) {
+			return null;
+		}
+
+		Editor editor = new Editor(entry);
+		entry.mCurrentEditor = editor;
+
+		// Flush before the temporary file is created, so it is never left untracked
+		mJournalWriter.write(DIRTY + ' ' + name + '\n');
+		mJournalWriter.flush();
+		return editor;
+	}
+
+	/**
+	 * Stores a value for a key, replacing any existing value.
+	 *
+	 * @param key	Key of the value
+	 * @param bytes	Value to store
+	 * @return	True if stored, or false if another edit is in progress for the key
+	 * @throws IOException	If the value cannot be written
+	 */
+	@WorkerThread
+	public boolean put(@NonNull String key, @NonNull byte[] bytes) throws IOException {
+		Editor editor = edit(key);
+		if (editor == null) {
+			return false;
+		}
+
+		boolean committed = false;
+		try {
+			OutputStream out = editor.newOutputStream();
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+			editor.commit();
+			committed = true;
+		} finally {
+			if (!committed) {
+				editor.abortUnlessCommitted();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the value for a key. Readers already holding a {@link Snapshot} of it can continue to
+	 * read it.
+	 *
+	 * @param key	Key of the value
+	 * @return	True if removed, false if nothing was cached or an edit is in progress for the key
+	 * @throws IOException	If the journal cannot be written
+	 */
+	@WorkerThread
+	public synchronized boolean remove(@NonNull String key) throws IOException {
+		checkNotClosed();
+		Entry entry = mEntries.get(toFileName(key));
+		if (entry == null || entry.mCurrentEditor != null) {
+			return false;
+		}
+		removeEntry(entry);
+		return true;
+	}
+
+	/** Returns the total size in bytes of the cached values **/
+	public synchronized long size() {
+		return mSize;
+	}
+
+	/** Returns the maximum size in bytes of the cached values **/
+	public synchronized long getMaxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 * Changes the maximum size of the cached values, evicting values in the background if the cache
+	 * is now too large.
+	 *
+	 * @param maxSize	Maximum size in bytes of the cached values
+	 */
+	public synchronized void setMaxSize(@IntRange(from=1) long maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		mMaxSize = maxSize;
+		scheduleCleanup();
+	}
+
+	/** Returns the directory the cache is stored in **/
+	@NonNull
+	public File getDirectory() {
+		return mDirectory;
+	}
+
+	/** Returns true if the cache has been closed **/
+	public synchronized boolean isClosed() {
+		return mJournalWriter == null;
+	}
+
+	/**
+	 * Evicts values until the cache is within its maximum size and writes any pending journal entries.
+	 *
+	 * @throws IOException	If the journal cannot be written
+	 */
+	@WorkerThread
+	public synchronized void flush() throws IOException {
+		checkNotClosed();
+		trimToSize();
+		mJournalWriter.flush();
+	}
+
+	/**
+	 * Closes the cache, aborting any edits in progress. Stored values are kept for the next time the
+	 * cache is opened.
+	 *
+	 * @throws IOException	If the journal cannot be closed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (mJournalWriter == null) {
+			return;
+		}
+		for (Entry entry : new ArrayList<>(mEntries.values())) {
+			if (entry.mCurrentEditor != null) {
+				entry.mCurrentEditor.abort();
+			}
+		}
+		trimToSize();
+		mJournalWriter.close();
+		mJournalWriter = null;
+	}
+
+	/**
+	 * Closes the cache and deletes its directory, including every stored value.
+	 *
+	 * @throws IOException	If the journal cannot be closed
+	 */
+	public void delete() throws IOException {
+		close();
+		FileDeleter.Result result = FileDeleter.delete(mDirectory);
+		if (!result.isSuccessful()) {
+			UtilLogger.e("DiskLruCache", "delete(" + mDirectory.getAbsolutePath() + ") " + result);
+		}
+	}
+
+	/**
+	 * Hashes a key into the name used for its file and in the journal, so keys can contain any
+	 * character.
+	 */
+	@NonNull
+	private static String toFileName(@NonNull String key) {
+		return HashUtils.digestHex(key, HashUtils.Algorithm.SHA_1);
+	}
+
+	/**
+	 * Replays the journal into the index of entries.
+	 */
+	private void readJournal() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile), UTF_8));
+		try {
+			String magic = reader.readLine();
+			String version = reader.readLine();
+			String blank = reader.readLine();
+			if (!MAGIC.equals(magic) || !VERSION.equals(version) || !"".equals(blank)) {
+				throw new IOException("Unexpected journal header: [" + magic + ", " + version + ", " + blank + "]");
+			}
+
+			int lineCount = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				readJournalLine(line);
+				lineCount++;
+			}
+			mRedundantOpCount = lineCount - mEntries.size();
+		} finally {
+			FileUtils.closeQuietly(reader);
+		}
+	}
+
+	private void readJournalLine(@NonNull String line) throws IOException {
+		String[] parts = line.split(" ");
+		if (parts.length < 2) {
+			throw new IOException("Unexpected journal line: " + line);
+		}
+
+		String name = parts[1];
+		if (REMOVE.equals(parts[0]) && parts.length == 2) {
+			mEntries.remove(name);
+			return;
+		}
+
+		Entry entry = mEntries.get(name);
+		if (entry == null) {
+			entry = new Entry(name);
+			mEntries.put(name, entry);
+		}
+
+		if (CLEAN.equals(parts[0]) && parts.length == 3) {
+			try {
+				entry.mLength = Long.parseLong(parts[2]);
+			} catch (NumberFormatException e) {
+				throw new IOException("Unexpected journal line: " + line);
+			}
+			entry.mReadable = true;
+			entry.mCurrentEditor = null;
+		} else if (DIRTY.equals(parts[0]) && parts.length == 2) {
+			entry.mCurrentEditor = new Editor(entry);
+		} else if (!READ.equals(parts[0]) || parts.length != 2) {
+			// READ entries only needed to update the access order, which the lookup above has done
+			throw new IOException("Unexpected journal line: " + line);
+		}
+	}
+
+	/**
+	 * Calculates the size of the cache, and removes the files of any edit which was in progress when
+	 * the journal ended, as these were never committed. An edit may have replaced the value's file
+	 * before its commit was journaled, so the length of a value with an interrupted edit is read from
+	 * its file rather than trusted from the journal.
+	 */
+	private void processJournal() {
+		Iterator<Entry> iterator = mEntries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (entry.mCurrentEditor == null) {
+				mSize += entry.mLength;
+			} else {
+				entry.mCurrentEditor = null;
+				deleteIfExists(entry.getDirtyFile());
+				File clean = entry.getCleanFile();
+				if (!entry.mReadable || !clean.isFile()) {
+					iterator.remove();
+				} else {
+					entry.mLength = clean.length();
+					mSize += entry.mLength;
+				}
+			}
+		}
+		deleteIfExists(mJournalFileTemp);
+	}
+
+	/**
+	 * Writes a new journal containing only the current state of each entry, replacing the existing
+	 * journal atomically. The new journal's writer is kept open across the rename and only replaces
+	 * the current writer once the journal has been replaced, so a failure leaves the cache appending
+	 * to the existing journal.
+	 */
+	private void rebuildJournal() throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mJournalFileTemp), UTF_8));
+		boolean success = false;
+		try {
+			writer.write(MAGIC + '\n' + VERSION + '\n' + '\n');
+			for (Entry entry : mEntries.values()) {
+				if (entry.mCurrentEditor != null) {
+					writer.write(DIRTY + ' ' + entry.mName + '\n');
+				} else {
+					writer.write(CLEAN + ' ' + entry.mName + ' ' + entry.mLength + '\n');
+				}
+			}
+			writer.flush();
+
+			if (!mJournalFileTemp.renameTo(mJournalFile)) {
+				throw new IOException("Unable to replace journal: " + mJournalFile.getAbsolutePath());
+			}
+			success = true;
+		} finally {
+			if (!success) {
+				FileUtils.closeQuietly(writer);
+				deleteIfExists(mJournalFileTemp);
+			}
+		}
+
+		if (mJournalWriter != null) {
+			FileUtils.closeQuietly(mJournalWriter);
+		}
+		mJournalWriter = writer;
+		mRedundantOpCount = 0;
+	}
+
+	/**
+	 * Records the outcome of an edit, replacing the entry's value with the written file if successful.
+	 */
+	private synchronized void completeEdit(@NonNull Editor editor, boolean success) throws IOException {
+		Entry entry = editor.mEntry;
+		if (entry.mCurrentEditor != editor) {
+			throw new IllegalStateException("Edit has already completed");
+		}
+		entry.mCurrentEditor = null;
+
+		File dirty = entry.getDirtyFile();
+		if (success && !dirty.exists()) {
+			// Committing without writing anything stores an empty value
+			success = dirty.createNewFile() || dirty.exists();
+		}
+
+		if (success) {
+			File clean = entry.getCleanFile();
+			if (!dirty.renameTo(clean)) {
+				deleteIfExists(dirty);
+				success = false;
+			} else {
+				long length = clean.length();
+				mSize += length - (entry.mReadable ? entry.mLength : 0);
+				entry.mLength = length;
+				entry.mReadable = true;
+			}
+		} else {
+			deleteIfExists(dirty);
+		}
+
+		mRedundantOpCount++;
+		if (entry.mReadable) {
+			mJournalWriter.write(CLEAN + ' ' + entry.mName + ' ' + entry.mLength + '\n');
+		} else {
+			mEntries.remove(entry.mName);
+			mJournalWriter.write(REMOVE + ' ' + entry.mName + '\n');
+		}
+		mJournalWriter.flush();
+
+		if (mSize > mMaxSize || isJournalCompactionRequired()) {
+			scheduleCleanup();
+		}
+		if (!success && editor.mCommitting) {
+			throw new IOException("Unable to commit value: " + entry.getCleanFile().getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Removes an entry and its file, recording the removal in the journal.
+	 */
+	private void removeEntry(@NonNull Entry entry) throws IOException {
+		deleteIfExists(entry.getCleanFile());
+		if (entry.mReadable) {
+			mSize -= entry.mLength;
+		}
+		mEntries.remove(entry.mName);
+		mRedundantOpCount++;
+		mJournalWriter.write(REMOVE + ' ' + entry.mName + '\n');
+		if (isJournalCompactionRequired()) {
+			scheduleCleanup();
+		}
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache is within its maximum size. Entries
+	 * being edited are skipped, their value is replaced once committed.
+	 */
+	private void trimToSize() throws IOException {
+		if (mSize <= mMaxSize) {
+			return;
+		}
+		List<Entry> evictable = new ArrayList<>();
+		long size = mSize;
+		for (Entry entry : mEntries.values()) {
+			if (size <= mMaxSize) {
+				break;
+			}
+			if (entry.mCurrentEditor == null && entry.mReadable) {
+				evictable.add(entry);
+				size -= entry.mLength;
+			}
+		}
+		for (Entry entry : evictable) {
+			removeEntry(entry);
+		}
+		mJournalWriter.flush();
+	}
+
+	private boolean isJournalCompactionRequired() {
+		return mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size();
+	}
+
+	/**
+	 * Runs eviction and journal compaction on the shared background pool, if not already scheduled.
+	 */
+	private void scheduleCleanup() {
+		if (!mCleanupScheduled) {
+			mCleanupScheduled = true;
+			UtilExecutors.background().execute(mCleanupTask);
+		}
+	}
+
+	private void checkNotClosed() {
+		if (mJournalWriter == null) {
+			throw new IllegalStateException("DiskLruCache is closed");
+		}
+	}
+
+	private static void deleteIfExists(@NonNull File file) {
+		if (file.exists() && !file.delete()) {
+			UtilLogger.e("DiskLruCache", "Unable to delete file: " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Readable value of an entry at the time it was retrieved. The value's file is held open, so it
+	 * remains readable even if the entry is edited or evicted. Must be closed once read.
+	 */
+	public static class Snapshot implements Closeable {
+		private final InputStream mInputStream;
+		private final long mLength;
+
+		private Snapshot(@NonNull InputStream inputStream, long length) {
+			mInputStream = inputStream;
+			mLength = length;
+		}
+
+		/** Returns the stream of the value, which is closed along with the snapshot **/
+		@NonNull
+		public InputStream getInputStream() {
+			return mInputStream;
+		}
+
+		/** Returns the length in bytes of the value **/
+		public long getLength() {
+			return mLength;
+		}
+
+		@Override
+		public void close() {
+			FileUtils.closeQuietly(mInputStream);
+		}
+	}
+
+	/**
+	 * Edit of a single entry's value. The new value is written to a temporary file through
+	 * {@link #newOutputStream()}, and replaces the current value only once {@link #commit()} is called.
+	 * Every editor must be committed or aborted.
+	 */
+	public class Editor {
+		private final Entry mEntry;
+		private boolean mCommitting;
+		private boolean mDone;
+
+		private Editor(@NonNull Entry entry) {
+			mEntry = entry;
+		}
+
+		/**
+		 * Returns a new stream writing the value, replacing anything written by a previous stream from
+		 * this editor. The stream must be closed before the edit is committed.
+		 *
+		 * @return	{@link OutputStream} of the new value
+		 * @throws IOException	If the temporary file cannot be created
+		 */
+		@NonNull
+		public OutputStream newOutputStream() throws IOException {
+			synchronized (DiskLruCache.this) {
+				if (mEntry.mCurrentEditor != this) {
+					throw new IllegalStateException("Edit has already completed");
+				}
+				return new FileOutputStream(mEntry.getDirtyFile());
+			}
+		}
+
+		/**
+		 * Replaces the entry's value with the written value, making it visible to readers.
+		 *
+		 * @throws IOException	If the value cannot be committed, in which case the edit is aborted
+		 */
+		public void commit() throws IOException {
+			mCommitting = true;
+			mDone = true;
+			completeEdit(this, true);
+		}
+
+		/**
+		 * Discards the written value, leaving the entry's current value in place.
+		 *
+		 * @throws IOException	If the journal cannot be written
+		 */
+		public void abort() throws IOException {
+			mDone = true;
+			completeEdit(this, false);
+		}
+
+		/**
+		 * Aborts the edit if it has not been committed or aborted, e.g. from a finally block.
+		 */
+		public void abortUnlessCommitted() {
+			if (!mDone) {
+				try {
+					abort();
+				} catch (IOException e) {
+					UtilLogger.e("DiskLruCache", "abortUnlessCommitted() failed: " + e.getLocalizedMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Index entry for a single key.
+	 */
+	private class Entry {
+		private final String mName;
+		private long mLength;
+		/** True once a value has been committed **/
+		private boolean mReadable;
+		/** Edit in progress, or null **/
+		private Editor mCurrentEditor;
+
+		Entry(@NonNull String name) {
+			mName = name;
+		}
+
+		@NonNull
+		File getCleanFile() {
+			return new File(mDirectory, mName);
+		}
+
+		@NonNull
+		File getDirtyFile() {
+			return new File(mDirectory, mName + TEMP_SUFFIX);
+		}
+	}
+}
@@ -0,0 +1,523 @@
+package com.bosh.utils;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import com.bosh.utils.HashUtils.Algorithm;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Describes a {@link File} as a series of fixed size {@link Chunk}s for resumable transfers, and
+ * reassembles a file from its chunks as they arrive. A file is never read into memory as a whole.
+ *
+ * {@link #split(File, int, String)} hashes the chunks in parallel on the libraries shared background
+ * pool, each thread memory mapping the chunks of its own contiguous range of the file. Any chunk can
+ * then be streamed on its own through {@link #openChunk(File, Chunk)}.
+ *
+ * An {@link Assembler} writes each chunk at its offset with positional {@link FileChannel} writes, so
+ * chunks can be received in any order and from several threads at once, verifying each against its
+ * hash as it is written.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class FileChunker {
+
+	/** Size of each region mapped while hashing a chunk larger than it **/
+	private static final long MAPPED_REGION_SIZE = 32 * MemoryUnit.MB;
+	private static final int BUFFER_SIZE = 64 * MemoryUnit.KB;
+
+	/**
+	 * Splits a {@link File} into chunks of a fixed size, the last chunk holding the remainder, and
+	 * hashes each in parallel. This blocks until every chunk has been hashed, so must not be called
+	 * from the main thread or the shared background pool.
+	 *
+	 * @param file	{@link File} to split
+	 * @param chunkSize	Size in bytes of each chunk
+	 * @param algorithm	{@link Algorithm} used to hash each chunk
+	 * @return	{@link List} of {@link Chunk}s in file order, empty for an empty file
+	 * @throws IOException	If the file cannot be read
+	 */
+	@NonNull
+	@WorkerThread
+	public static List<Chunk> split(@NonNull File file, @IntRange(from=1) int chunkSize,
+			@Algorithm final String algorithm) throws IOException {
+
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+		}
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = randomAccessFile.getChannel();
+			final long length = channel.size();
+			final int chunkCount = (int) ((length + chunkSize - 1) / chunkSize);
+			final Chunk[] chunks = new Chunk[chunkCount];
+			if (chunkCount == 0) {
+				return new ArrayList<>(0);
+			}
+
+			// Each task hashes a contiguous run of chunks, keeping its reads sequential
+			int taskCount = Math.min(chunkCount, UtilExecutors.getPoolSize());
+			final int chunksPerTask = (chunkCount + taskCount - 1) / taskCount;
+			final long size = chunkSize;
+			List<Future<Void>> futures = new ArrayList<>(taskCount);
+			for (int start = 0; start < chunkCount; start += chunksPerTask) {
+				final int first = start;
+				futures.add(UtilExecutors.background().submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						int last = Math.min(chunkCount, first + chunksPerTask);
+						for (int i = first; i < last; i++) {
+							long offset = i * size;
+							int chunkLength = (int) Math.min(size, length - offset);
+							byte[] hash = hash(channel, offset, chunkLength, algorithm);
+							chunks[i] = new Chunk(i, offset, chunkLength, algorithm, HashUtils.toHex(hash));
+						}
+						return null;
+					}
+				}));
+			}
+			await(futures);
+
+			List<Chunk> result = new ArrayList<>(chunkCount);
+			Collections.addAll(result, chunks);
+			return result;
+		} finally {
+			FileUtils.closeQuietly(randomAccessFile);
+		}
+	}
+
+	/**
+	 * Opens a stream over a single chunk of a {@link File}, reading only that chunk's bytes.
+	 *
+	 * @param file	{@link File} the chunk was split from
+	 * @param chunk	{@link Chunk} to read
+	 * @return	{@link InputStream} which must be closed by the caller
+	 * @throws IOException	If the file cannot be opened
+	 */
+	@NonNull
+	public static InputStream openChunk(@NonNull File file, @NonNull Chunk chunk) throws IOException {
+		return new ChunkInputStream(new RandomAccessFile(file, "r"), chunk.getOffset(), chunk.getLength());
+	}
+
+	/**
+	 * Opens an {@link Assembler} which writes the chunks of a file into the target {@link File}. The
+	 * target is created if needed and sized to the total length of the chunks, any existing content
+	 * within that length is kept so an interrupted transfer can be resumed. Call
+	 * {@link Assembler#verifyExisting()} to find which chunks are already in place.
+	 *
+	 * @param target	{@link File} to assemble into
+	 * @param chunks	{@link Chunk}s of the file, as returned by {@link #split(File, int, String)}
+	 * @return	{@link Assembler} which must be closed by the caller
+	 * @throws IOException	If the target cannot be opened
+	 */
+	@NonNull
+	public static Assembler assemble(@NonNull File target, @NonNull List<Chunk> chunks) throws IOException {
+		return new Assembler(target, chunks);
+	}
+
+	/**
+	 * Hashes a range of the channel, memory mapping it when above the mapping threshold and otherwise
+	 * reading it through a pooled buffer with positional reads.
+	 */
+	@NonNull
+	private static byte[] hash(@NonNull FileChannel channel, long offset, int length, @Algorithm String algorithm)
+			throws IOException {
+
+		MessageDigest digest = HashUtils.getDigest(algorithm);
+		long end = offset + length;
+		if (length >= FileUtils.MAPPED_READ_THRESHOLD) {
+			for (long position = offset; position < end; position += MAPPED_REGION_SIZE) {
+				long regionSize = Math.min(MAPPED_REGION_SIZE, end - position);
+				digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize));
+			}
+		} else {
+			byte[] buffer = BufferPool.acquire(Math.min(length, BUFFER_SIZE));
+			try {
+				ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+				long position = offset;
+				while (position < end) {
+					wrapped.clear();
+					wrapped.limit((int) Math.min(buffer.length, end - position));
+					int read = channel.read(wrapped, position);
+					if (read == -1) {
+						throw new IOException("File truncated while hashing at " + position);
+					}
+					digest.update(buffer, 0, read);
+					position += read;
+				}
+			} finally {
+				BufferPool.release(buffer);
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Waits for every task, cancelling the rest and rethrowing the cause if any fails.
+	 */
+	private static void await(@NonNull List<Future<Void>> futures) throws IOException {
+		try {
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancel(futures);
+			throw new IOException("Interrupted while hashing chunks", e);
+		} catch (ExecutionException e) {
+			cancel(futures);
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Unable to hash chunks", e.getCause());
+		}
+	}
+
+	private static void cancel(@NonNull List<Future<Void>> futures) {
+		for (Future<Void> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Describes one chunk of a file by its position, length and hash. Chunks received from elsewhere,
+	 * e.g. a transfer manifest, can be recreated through the public constructor.
+	 */
+	public static class Chunk {
+		private final int mIndex;
+		private final long mOffset;
+		private final int mLength;
+		private final String mAlgorithm;
+		private final String mHash;
+
+		/**
+		 * @param index	Index of the chunk within the file
+		 * @param offset	Offset in bytes of the chunk within the file
+		 * @param length	Length in bytes of the chunk
+		 * @param algorithm	{@link Algorithm} the hash was calculated with, or null if unhashed
+		 * @param hash	Lower case hex hash of the chunk, or null if unhashed
+		 */
+		public Chunk(@IntRange(from=0) int index, @IntRange(from=0) long offset, @IntRange(from=0) int length,
+				@Nullable @Algorithm String algorithm, @Nullable String hash) {
+			mIndex = index;
+			mOffset = offset;
+			mLength = length;
+			mAlgorithm = algorithm;
+			mHash = hash;
+		}
+
+		/** Returns the index of the chunk within the file **/
+		public int getIndex() {
+			return mIndex;
+		}
+
+		/** Returns the offset in bytes of the chunk within the file **/
+		public long getOffset() {
+			return mOffset;
+		}
+
+		/** Returns the length in bytes of the chunk **/
+		public int getLength() {
+			return mLength;
+		}
+
+		/** Returns the {@link Algorithm} of the hash, or null if unhashed **/
+		@Nullable
+		public String getAlgorithm() {
+			return mAlgorithm;
+		}
+
+		/** Returns the lower case hex hash of the chunk, or null if unhashed **/
+		@Nullable
+		public String getHash() {
+			return mHash;
+		}
+
+		@Override
+		public String toString() {
+			return "Chunk{index=" + mIndex + ", offset=" + mOffset + ", length=" + mLength + ", hash=" + mHash + "}";
+		}
+	}
+
+	/**
+	 * Writes chunks into a target {@link File} at their offsets, in any order. Writes are positional so
+	 * chunks may be written from several threads at once, and a chunk with a hash is verified as it is
+	 * written. The chunks written are only recorded in memory, so an assembler resuming a transfer
+	 * should call {@link #verifyExisting()} to find the chunks the target already holds.
+	 */
+	public static class Assembler implements Closeable {
+		private final File mTarget;
+		private final List<Chunk> mChunks;
+		private final RandomAccessFile mRandomAccessFile;
+		private final FileChannel mChannel;
+		private final BitSet mWritten;
+
+		private Assembler(@NonNull File target, @NonNull List<Chunk> chunks) throws IOException {
+			mTarget = target;
+			mChunks = new ArrayList<>(chunks);
+			mWritten = new BitSet(chunks.size());
+
+			long length = 0;
+			for (Chunk chunk : chunks) {
+				length = Math.max(length, chunk.getOffset() + chunk.getLength());
+			}
+			mRandomAccessFile = new RandomAccessFile(target, "rw");
+			mChannel = mRandomAccessFile.getChannel();
+			try {
+				if (mChannel.size() != length) {
+					mRandomAccessFile.setLength(length);
+				}
+			} catch (IOException e) {
+				FileUtils.closeQuietly(mRandomAccessFile);
+				throw e;
+			}
+		}
+
+		/** Returns the {@link File} being assembled **/
+		@NonNull
+		public File getTarget() {
+			return mTarget;
+		}
+
+		/**
+		 * Writes a chunk from a stream, which is read for exactly the chunk's length but not closed. If
+		 * the chunk has a hash the written content is verified against it.
+		 *
+		 * @param chunk	{@link Chunk} being written
+		 * @param in	{@link InputStream} of the chunk's content
+		 * @throws IOException	If the stream ends early, the content doesn't match the hash or the
+		 * 						target cannot be written
+		 */
+		@WorkerThread
+		public void write(@NonNull Chunk chunk, @NonNull InputStream in) throws IOException {
+			MessageDigest digest = chunk.getHash() != null ? HashUtils.getDigest(chunk.getAlgorithm()) : null;
+			byte[] buffer = BufferPool.acquire(Math.min(chunk.getLength(), BUFFER_SIZE));
+			try {
+				long position = chunk.getOffset();
+				int remaining = chunk.getLength();
+				while (remaining > 0) {
+					int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+					if (read == -1) {
+						throw new IOException("Stream ended " + remaining + " bytes before the end of " + chunk);
+					}
+					if (digest != null) {
+						digest.update(buffer, 0, read);
+					}
+					writeFully(ByteBuffer.wrap(buffer, 0, read), position);
+					position += read;
+					remaining -= read;
+				}
+			} finally {
+				BufferPool.release(buffer);
+			}
+			verify(chunk, digest);
+		}
+
+		/**
+		 * Writes a chunk held in memory, verifying it against the chunk's hash if it has one.
+		 *
+		 * @param chunk	{@link Chunk} being written
+		 * @param data	Content of the chunk, of the chunk's length
+		 * @throws IOException	If the content doesn't match the hash or the target cannot be written
+		 */
+		@WorkerThread
+		public void write(@NonNull Chunk chunk, @NonNull byte[] data) throws IOException {
+			if (data.length != chunk.getLength()) {
+				throw new IOException("Expected " + chunk.getLength() + " bytes for " + chunk + " but got " + data.length);
+			}
+			MessageDigest digest = null;
+			if (chunk.getHash() != null) {
+				digest = HashUtils.getDigest(chunk.getAlgorithm());
+				digest.update(data);
+			}
+			writeFully(ByteBuffer.wrap(data), chunk.getOffset());
+			verify(chunk, digest);
+		}
+
+		/**
+		 * Hashes the target's content at each chunk not yet recorded as written, in parallel on the
+		 * shared background pool, and records those matching their hash as written. Chunks without a
+		 * hash cannot be verified, so are left to be written again. This blocks until every chunk has
+		 * been hashed, so must not be called from the main thread or the shared background pool.
+		 *
+		 * @return	Number of chunks found already in place
+		 * @throws IOException	If the target cannot be read
+		 */
+		@WorkerThread
+		public int verifyExisting() throws IOException {
+			final List<Chunk> candidates = new ArrayList<>();
+			synchronized (this) {
+				for (Chunk chunk : mChunks) {
+					if (chunk.getHash() != null && !mWritten.get(chunk.getIndex())) {
+						candidates.add(chunk);
+					}
+				}
+			}
+			if (candidates.isEmpty()) {
+				return 0;
+			}
+
+			// Each task hashes a contiguous run of chunks, keeping its reads sequential
+			int taskCount = Math.min(candidates.size(), UtilExecutors.getPoolSize());
+			final int chunksPerTask = (candidates.size() + taskCount - 1) / taskCount;
+			final BitSet verified = new BitSet(mChunks.size());
+			List<Future<Void>> futures = new ArrayList<>(taskCount);
+			for (int start = 0; start < candidates.size(); start += chunksPerTask) {
+				final int first = start;
+				futures.add(UtilExecutors.background().submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						int last = Math.min(candidates.size(), first + chunksPerTask);
+						for (int i = first; i < last; i++) {
+							Chunk chunk = candidates.get(i);
+							byte[] hash = hash(mChannel, chunk.getOffset(), chunk.getLength(), chunk.getAlgorithm());
+							if (HashUtils.toHex(hash).equals(chunk.getHash())) {
+								synchronized (verified) {
+									verified.set(chunk.getIndex());
+								}
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			await(futures);
+
+			synchronized (this) {
+				mWritten.or(verified);
+			}
+			return verified.cardinality();
+		}
+
+		/** Returns true if the chunk has been written or verified since the assembler was opened **/
+		public synchronized boolean isWritten(@NonNull Chunk chunk) {
+			return mWritten.get(chunk.getIndex());
+		}
+
+		/** Returns the chunks which have not yet been written, in file order **/
+		@NonNull
+		public synchronized List<Chunk> getMissingChunks() {
+			List<Chunk> missing = new ArrayList<>();
+			for (Chunk chunk : mChunks) {
+				if (!mWritten.get(chunk.getIndex())) {
+					missing.add(chunk);
+				}
+			}
+			return missing;
+		}
+
+		/** Returns true once every chunk has been written **/
+		public synchronized boolean isComplete() {
+			return mWritten.cardinality() >= mChunks.size();
+		}
+
+		/**
+		 * Flushes the written chunks to storage, so a resumed transfer can rely on them.
+		 *
+		 * @throws IOException	If the target cannot be synced
+		 */
+		@WorkerThread
+		public void sync() throws IOException {
+			mChannel.force(false);
+		}
+
+		@Override
+		public void close() {
+			FileUtils.closeQuietly(mRandomAccessFile);
+		}
+
+		private void writeFully(@NonNull ByteBuffer buffer, long position) throws IOException {
+			while (buffer.hasRemaining()) {
+				position += mChannel.write(buffer, position);
+			}
+		}
+
+		/**
+		 * Checks the digest of the written content against the chunk's hash and records it as written.
+		 */
+		private void verify(@NonNull Chunk chunk, @Nullable MessageDigest digest) throws IOException {
+			if (digest != null) {
+				String hash = HashUtils.toHex(digest.digest());
+				if (!hash.equals(chunk.getHash())) {
+					throw new IOException("Hash mismatch for " + chunk + ", content hashed to " + hash);
+				}
+			}
+			synchronized (this) {
+				mWritten.set(chunk.getIndex());
+			}
+		}
+	}
+
+	/**
+	 * Reads a range of a file with positional reads, so it is unaffected by other readers of the file.
+	 */
+	private static class ChunkInputStream extends InputStream {
+		private final RandomAccessFile mRandomAccessFile;
+		private final FileChannel mChannel;
+		private final long mEnd;
+		private long mPosition;
+
+		ChunkInputStream(@NonNull RandomAccessFile randomAccessFile, long offset, int length) {
+			mRandomAccessFile = randomAccessFile;
+			mChannel = randomAccessFile.getChannel();
+			mPosition = offset;
+			mEnd = offset + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (mPosition >= mEnd) {
+				return -1;
+			}
+			int read = mChannel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(length, mEnd - mPosition)), mPosition);
+			if (read > 0) {
+				mPosition += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long count) {
+			long skipped = Math.max(0, Math.min(count, mEnd - mPosition));
+			mPosition += skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, mEnd - mPosition);
+		}
+
+		@Override
+		public void close() {
+			FileUtils.closeQuietly(mRandomAccessFile);
+		}
+	}
+}
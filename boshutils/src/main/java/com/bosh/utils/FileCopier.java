@@ -0,0 +1,274 @@
+package com.bosh.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Copies data between {@link File}s, {@link Uri}s and streams. Whenever both ends of a copy are
+ * backed by regular files, including content {@link Uri}s opened as a {@link ParcelFileDescriptor},
+ * the data is moved with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * so it never has to be copied through the Java heap. Any other combination, such as a pipe backed
+ * provider or a plain {@link InputStream}, falls back to a large buffer borrowed from the {@link BufferPool}.
+ *
+ * Every copy can report its progress to a {@link ProgressListener} and be cancelled through a
+ * {@link CancellationSignal}, in which case an {@link OperationCanceledException} is thrown and any
+ * partially written destination {@link File} is removed.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class FileCopier {
+
+	/** Maximum number of bytes moved per transfer, progress and cancellation are checked between each **/
+	private static final long TRANSFER_CHUNK_SIZE = 8 * MemoryUnit.MB;
+	/** Size of the buffer used when the data cannot be transferred between channels **/
+	private static final int BUFFER_SIZE = 256 * MemoryUnit.KB;
+
+	/**
+	 * Callback notified as a copy progresses.
+	 */
+	public interface ProgressListener {
+
+		/**
+		 * Called on the copying thread each time another chunk of data has been written.
+		 *
+		 * @param bytesCopied	Total number of bytes copied so far
+		 * @param totalBytes	Total number of bytes to copy, or -1 if unknown
+		 */
+		void onProgress(long bytesCopied, long totalBytes);
+	}
+
+	/**
+	 * Copies a {@link File} to another {@link File}, replacing the destination if it already exists.
+	 *
+	 * @param source	{@link File} to copy
+	 * @param destination	{@link File} to copy to
+	 * @param listener	Optional {@link ProgressListener}
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Number of bytes copied
+	 * @throws IOException	If the copy fails
+	 */
+	public static long copy(@NonNull File source, @NonNull File destination, @Nullable ProgressListener listener,
+			@Nullable CancellationSignal signal) throws IOException {
+
+		FileInputStream in = new FileInputStream(source);
+		try {
+			return copy(in, source.length(), destination, listener, signal);
+		} finally {
+			FileUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Copies the content referenced by a {@link Uri} to a {@link File}, replacing the destination if
+	 * it already exists. The {@link Uri} is opened as a {@link ParcelFileDescriptor} so that file
+	 * backed providers can be copied without buffering.
+	 *
+	 * @param context	{@link Context}
+	 * @param source	{@link Uri} to copy
+	 * @param destination	{@link File} to copy to
+	 * @param listener	Optional {@link ProgressListener}
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Number of bytes copied
+	 * @throws IOException	If the copy fails
+	 */
+	public static long copy(@NonNull Context context, @NonNull Uri source, @NonNull File destination,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+
+		ParcelFileDescriptor descriptor = openFileDescriptor(context, source, "r");
+		try {
+			FileInputStream in = new FileInputStream(descriptor.getFileDescriptor());
+			return copy(in, descriptor.getStatSize(), destination, listener, signal);
+		} finally {
+			FileUtils.closeQuietly(descriptor);
+		}
+	}
+
+	/**
+	 * Copies a {@link File} to the content referenced by a {@link Uri}, which is opened as a
+	 * {@link ParcelFileDescriptor} and truncated to the copied length once written.
+	 *
+	 * @param context	{@link Context}
+	 * @param source	{@link File} to copy
+	 * @param destination	{@link Uri} to copy to
+	 * @param listener	Optional {@link ProgressListener}
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Number of bytes copied
+	 * @throws IOException	If the copy fails
+	 */
+	public static long copy(@NonNull Context context, @NonNull File source, @NonNull Uri destination,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+
+		FileInputStream in = new FileInputStream(source);
+		ParcelFileDescriptor descriptor = null;
+		try {
+			descriptor = openFileDescriptor(context, destination, "w");
+			FileOutputStream out = new FileOutputStream(descriptor.getFileDescriptor());
+			long copied = copy(in, source.length(), out, descriptor.getStatSize() >= 0, listener, signal);
+			if (descriptor.getStatSize() >= 0) {
+				// "w" does not truncate on every provider, so remove anything left from previous content
+				out.getChannel().truncate(copied);
+			}
+			return copied;
+		} finally {
+			FileUtils.closeQuietly(descriptor);
+			FileUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Copies an {@link InputStream} to a {@link File}, replacing the destination if it already
+	 * exists. If the stream is a {@link FileInputStream} over a regular file its channel is used,
+	 * otherwise the data is copied through a large reused buffer. The stream is not closed.
+	 *
+	 * @param in	{@link InputStream} to copy
+	 * @param destination	{@link File} to copy to
+	 * @param listener	Optional {@link ProgressListener}
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Number of bytes copied
+	 * @throws IOException	If the copy fails
+	 */
+	public static long copy(@NonNull InputStream in, @NonNull File destination, @Nullable ProgressListener listener,
+			@Nullable CancellationSignal signal) throws IOException {
+
+		long totalBytes = -1;
+		if (in instanceof FileInputStream) {
+			try {
+				FileChannel channel = ((FileInputStream) in).getChannel();
+				totalBytes = channel.size() - channel.position();
+			} catch (IOException e) {
+				// Not seekable, such as a pipe, so the data is copied through the buffer instead
+			}
+		}
+		return copy(in, totalBytes, destination, listener, signal);
+	}
+
+	/**
+	 * Copies an {@link InputStream} to an {@link OutputStream} through a large reused buffer. Neither
+	 * stream is closed.
+	 *
+	 * @param in	{@link InputStream} to copy
+	 * @param out	{@link OutputStream} to copy to
+	 * @param totalBytes	Number of bytes expected, or -1 if unknown. Only used for progress
+	 * @param listener	Optional {@link ProgressListener}
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Number of bytes copied
+	 * @throws IOException	If the copy fails
+	 */
+	public static long copy(@NonNull InputStream in, @NonNull OutputStream out, long totalBytes,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+
+		byte[] buffer = BufferPool.acquire(BUFFER_SIZE);
+		try {
+			long copied = 0;
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				throwIfCanceled(signal);
+				out.write(buffer, 0, read);
+				copied += read;
+				if (listener != null) {
+					listener.onProgress(copied, totalBytes);
+				}
+			}
+			return copied;
+		} finally {
+			BufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * Copies an {@link InputStream} into a {@link File}, removing the partially written destination
+	 * if the copy fails or is cancelled.
+	 */
+	private static long copy(@NonNull InputStream in, long totalBytes, @NonNull File destination,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+
+		FileOutputStream out = new FileOutputStream(destination);
+		boolean success = false;
+		try {
+			long copied = copy(in, totalBytes, out, true, listener, signal);
+			success = true;
+			return copied;
+		} finally {
+			FileUtils.closeQuietly(out);
+			if (!success && destination.exists() && !destination.delete()) {
+				UtilLogger.e("FileCopier", "copy() Unable to remove partial file: " + destination.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Copies between two streams, transferring between their channels when the source is a
+	 * {@link FileInputStream} over a regular file of known size and the destination is a regular file.
+	 * A pipe can report a size of zero, so an empty or unknown size always uses the buffer.
+	 */
+	private static long copy(@NonNull InputStream in, long totalBytes, @NonNull OutputStream out,
+			boolean outIsRegularFile, @Nullable ProgressListener listener, @Nullable CancellationSignal signal)
+			throws IOException {
+
+		if (totalBytes > 0 && outIsRegularFile && in instanceof FileInputStream && out instanceof FileOutputStream) {
+			return transfer(((FileInputStream) in).getChannel(), totalBytes,
+				((FileOutputStream) out).getChannel(), listener, signal);
+		}
+		return copy(in, out, totalBytes, listener, signal);
+	}
+
+	/**
+	 * Transfers the remainder of the source channel into the destination channel in large chunks,
+	 * letting the kernel move the data directly between the two files.
+	 */
+	private static long transfer(@NonNull FileChannel source, long totalBytes, @NonNull FileChannel destination,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+
+		long position = source.position();
+		long size = source.size();
+		long copied = 0;
+		while (position < size) {
+			throwIfCanceled(signal);
+			long transferred = source.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), destination);
+			if (transferred <= 0) {
+				// The source shrank while copying, stop at whatever has been written
+				break;
+			}
+			position += transferred;
+			copied += transferred;
+			if (listener != null) {
+				listener.onProgress(copied, totalBytes);
+			}
+		}
+		source.position(position);
+		return copied;
+	}
+
+	@NonNull
+	private static ParcelFileDescriptor openFileDescriptor(@NonNull Context context, @NonNull Uri uri,
+			@NonNull String mode) throws FileNotFoundException {
+
+		ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, mode);
+		if (descriptor == null) {
+			throw new FileNotFoundException("Unable to open file descriptor for " + uri);
+		}
+		return descriptor;
+	}
+
+	private static void throwIfCanceled(@Nullable CancellationSignal signal) {
+		if (signal != null && signal.isCanceled()) {
+			throw new OperationCanceledException();
+		}
+	}
+
+}
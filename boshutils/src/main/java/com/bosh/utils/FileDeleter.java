@@ -0,0 +1,226 @@
+package com.bosh.utils;
+
+import android.support.annotation.NonNull;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recursively deletes files and directories. Directory trees are walked iteratively with an explicit
+ * stack, so the depth of a tree is never limited by the thread's stack size, and deletion continues
+ * past any file which cannot be removed. When the root contains several directories each of them is
+ * deleted on the libraries shared background pool in parallel.
+ *
+ * Every delete returns a {@link Result} with the number of files and directories removed, the bytes
+ * freed, and the number of failures.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class FileDeleter {
+
+	/**
+	 * Deletes the provided {@link File}s, if a {@link File} is a directory all of its children are also
+	 * removed. This blocks until every tree has been processed and so should not be called from the
+	 * main thread, see {@link #deleteAsync(File...)}.
+	 *
+	 * @param roots	{@link File}s to delete, null or missing files are ignored
+	 * @return	Combined {@link Result} of the deletes
+	 */
+	@NonNull
+	public static Result delete(@NonNull File... roots) {
+		Result result = new Result();
+		for (File root : roots) {
+			if (root != null && root.exists()) {
+				delete(root, result);
+			}
+		}
+		StorageBudgetManager.onFilesDeleted(roots);
+		return result;
+	}
+
+	/**
+	 * Deletes the provided {@link File}s and all of their children on a background thread.
+	 *
+	 * @param roots	{@link File}s to delete, null or missing files are ignored
+	 * @return	{@link Future} completing with the combined {@link Result} of the deletes
+	 */
+	@NonNull
+	public static Future<Result> deleteAsync(@NonNull final File... roots) {
+		FutureTask<Result> task = new FutureTask<>(new Callable<Result>() {
+			@Override
+			public Result call() throws Exception {
+				return delete(roots);
+			}
+		});
+		// The delete waits on the shared pool, so it is coordinated from its own thread rather than the pool
+		new Thread(task, "FileDeleter").start();
+		return task;
+	}
+
+	private static void delete(@NonNull File root, @NonNull Result result) {
+		if (!root.isDirectory()) {
+			deleteFile(root, result);
+			return;
+		}
+
+		File[] children = root.listFiles();
+		if (children == null) {
+			result.mFailures.incrementAndGet();
+			return;
+		}
+
+		// Split the tree at the root so each top level directory is deleted in parallel
+		List<File> directories = new ArrayList<>();
+		for (File child : children) {
+			if (child.isDirectory()) {
+				directories.add(child);
+			} else {
+				deleteFile(child, result);
+			}
+		}
+
+		if (directories.size() > 1) {
+			deleteInParallel(directories, result);
+		} else if (directories.size() == 1) {
+			deleteTree(directories.get(0), result);
+		}
+
+		deleteDirectory(root, result);
+		if (UtilLogger.isDebugLogsEnabled()) {
+			UtilLogger.d("FileDeleter", "delete(" + root.getAbsolutePath() + ") " + result);
+		}
+	}
+
+	/**
+	 * Deletes each directory tree on the shared background pool, with the calling thread waiting for
+	 * them all to complete.
+	 */
+	private static void deleteInParallel(@NonNull List<File> directories, @NonNull final Result result) {
+		List<Future<?>> futures = new ArrayList<>(directories.size());
+		for (final File directory : directories) {
+			futures.add(UtilExecutors.background().submit(new Runnable() {
+				@Override
+				public void run() {
+					deleteTree(directory, result);
+				}
+			}));
+		}
+
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				result.mFailures.incrementAndGet();
+				UtilLogger.e("FileDeleter", "deleteInParallel() failed: " + e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Deletes a directory tree without recursion. Files are removed as the tree is walked, while the
+	 * directories are recorded in the order they were found and removed in reverse once empty.
+	 */
+	private static void deleteTree(@NonNull File root, @NonNull Result result) {
+		Deque<File> stack = new ArrayDeque<>();
+		List<File> directories = new ArrayList<>();
+		stack.push(root);
+
+		while (!stack.isEmpty()) {
+			File directory = stack.pop();
+			directories.add(directory);
+
+			File[] children = directory.listFiles();
+			if (children == null) {
+				continue;
+			}
+			for (File child : children) {
+				if (child.isDirectory()) {
+					stack.push(child);
+				} else {
+					deleteFile(child, result);
+				}
+			}
+		}
+
+		for (int i = directories.size() - 1; i >= 0; i--) {
+			deleteDirectory(directories.get(i), result);
+		}
+	}
+
+	static void deleteFile(@NonNull File file, @NonNull Result result) {
+		long length = file.length();
+		if (file.delete()) {
+			result.mFilesDeleted.incrementAndGet();
+			result.mBytesFreed.addAndGet(length);
+		} else {
+			result.mFailures.incrementAndGet();
+			UtilLogger.e("FileDeleter", "Unable to delete file: " + file.getAbsolutePath());
+		}
+	}
+
+	static void deleteDirectory(@NonNull File directory, @NonNull Result result) {
+		if (directory.delete()) {
+			result.mDirectoriesDeleted.incrementAndGet();
+		} else {
+			result.mFailures.incrementAndGet();
+			UtilLogger.e("FileDeleter", "Unable to delete directory: " + directory.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Statistics describing the outcome of a delete.
+	 */
+	public static class Result {
+		private final AtomicLong mFilesDeleted = new AtomicLong();
+		private final AtomicLong mDirectoriesDeleted = new AtomicLong();
+		private final AtomicLong mBytesFreed = new AtomicLong();
+		private final AtomicLong mFailures = new AtomicLong();
+
+		/** Returns the number of files deleted **/
+		public long getFilesDeleted() {
+			return mFilesDeleted.get();
+		}
+
+		/** Returns the number of directories deleted **/
+		public long getDirectoriesDeleted() {
+			return mDirectoriesDeleted.get();
+		}
+
+		/** Returns the total size in bytes of the deleted files **/
+		public long getBytesFreed() {
+			return mBytesFreed.get();
+		}
+
+		/** Returns the number of files and directories which could not be deleted **/
+		public long getFailures() {
+			return mFailures.get();
+		}
+
+		/** Returns true if everything was deleted **/
+		public boolean isSuccessful() {
+			return mFailures.get() == 0;
+		}
+
+		@Override
+		public String toString() {
+			return "Result{" +
+				"mFilesDeleted=" + mFilesDeleted +
+				", mDirectoriesDeleted=" + mDirectoriesDeleted +
+				", mBytesFreed=" + mBytesFreed +
+				", mFailures=" + mFailures +
+				'}';
+		}
+	}
+}
@@ -8,27 +8,40 @@ import android.graphics.Bitmap.CompressFormat;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.provider.BaseColumns;
 import android.provider.DocumentsContract;
 import android.provider.MediaStore;
 import android.provider.OpenableColumns;
 import android.support.annotation.IntDef;
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresPermission;
+import android.support.annotation.WorkerThread;
 import android.support.v4.content.FileProvider;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Handles common methods relating to files and system storage on the device. This class includes
@@ -47,13 +60,43 @@ import java.util.Locale;
 @SuppressWarnings({"unused", "WeakerAccess"})
 public class FileUtils {
 
+	/**
+	 * Size in bytes from which {@link #readFileBuffer(File)} memory maps a file rather than reading
+	 * it onto the heap.
+	 */
+	public static final long MAPPED_READ_THRESHOLD = 256 * MemoryUnit.KB;
+
+	/**
+	 * Maximum number of ids resolved by a single query in {@link #getFilePaths(Context, Uri, long...)},
+	 * keeping each query well within SQLite's limit on bound arguments.
+	 */
+	public static final int BATCH_QUERY_SIZE = 500;
+
+	/** Length of the names returned by {@link #getTimestampFileName()} **/
+	private static final int TIMESTAMP_LENGTH = 19;
+	/** Number of unique names available per millisecond from {@link #getUniqueFileName()} **/
+	private static final long SEQUENCE_PER_MILLISECOND = 1000;
+
+	/** Last name issued by {@link #getUniqueFileName()}, as milliseconds multiplied by the sequence size plus the sequence **/
+	private static final AtomicLong sLastSequence = new AtomicLong();
+	private static volatile FormattedSecond sFormattedSecond;
+
+	private static final ThreadLocal<SimpleDateFormat> sTimestampFormat = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			// Names should always use ASCII digits, whatever the default locale
+			return new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US);
+		}
+	};
+
 	/**
 	 * Defines the various locations supported by the File Provider setup on this app.
 	 * To add another storage location, update the xml/file_provider.xml file and add another value here.
 	 *
-	 * *Note* Although DO_NOT_STORE will set the file to delete on exit, the Android lifecycle doesn't
-	 * include VM termination so there is no guarantee the file will be removed. It's suggested that
-	 * you call {@link #cleanUpCache(Context)} once you are finished with the file.
+	 * *Note* Files created in DO_NOT_STORE are not deleted automatically, as the Android lifecycle
+	 * doesn't include VM termination. Lease temporary files through {@link TempFileManager} to have
+	 * them deleted once finished with, otherwise they are removed by {@link #cleanUpCache(Context)}
+	 * or by the {@link TempFileManager} sweep once old enough.
 	 */
 	@IntDef({FileStorageLocations.DO_NOT_STORE, FileStorageLocations.INTERNAL_CACHE, FileStorageLocations.DCIM_CAMERA})
 	@Retention(RetentionPolicy.SOURCE)
@@ -85,17 +128,94 @@ public class FileUtils {
 	 * value, or created compressed images with {@link ImageUtils#createCompressedImageFile(Context, CompressFormat)}
 	 * method.
 	 *
+	 * This method blocks until every file has been removed, see {@link #cleanUpCacheAsync(Context)}
+	 * to remove them on a background thread instead, or {@link #scheduleCleanUpCache(Context, long)}
+	 * to remove them gradually without competing with the app for storage, e.g. from onDestroy.
+	 *
 	 * @param context	{@link Context}
+	 * @return	{@link FileDeleter.Result} describing the files removed
 	 */
-	public static void cleanUpCache(@NonNull Context context) {
+	@NonNull
+	public static FileDeleter.Result cleanUpCache(@NonNull Context context) {
+		return FileDeleter.delete(getCleanUpDirectories(context));
+	}
+
+	/**
+	 * Removes the temporary and compressed file directories on a background thread, see
+	 * {@link #cleanUpCache(Context)}.
+	 *
+	 * @param context	{@link Context}
+	 * @return	{@link Future} completing with a {@link FileDeleter.Result} describing the files removed
+	 */
+	@NonNull
+	public static Future<FileDeleter.Result> cleanUpCacheAsync(@NonNull Context context) {
+		return FileDeleter.deleteAsync(getCleanUpDirectories(context));
+	}
+
+	/**
+	 * Schedules the temporary and compressed file directories to be emptied gradually by the
+	 * {@link CacheCleaner}, in short slices on a lowest priority thread. The cleanup resumes after
+	 * the process restarts if it is killed part way through.
+	 *
+	 * @param context	{@link Context}
+	 */
+	public static void scheduleCleanUpCache(@NonNull Context context) {
+		CacheCleaner.getInstance(context).schedule();
+	}
+
+	/**
+	 * Schedules the files in the temporary and compressed file directories older than the provided
+	 * age to be removed gradually by the {@link CacheCleaner}, see {@link #scheduleCleanUpCache(Context)}.
+	 *
+	 * @param context	{@link Context}
+	 * @param minAgeMillis	Age in milliseconds a file must have reached to be removed
+	 */
+	public static void scheduleCleanUpCache(@NonNull Context context, @IntRange(from=0) long minAgeMillis) {
+		CacheCleaner.getInstance(context).schedule(minAgeMillis);
+	}
+
+	/**
+	 * Opens a {@link DiskLruCache} in a named sub directory of the directory for the provided
+	 * {@link FileStorageLocations} value, creating it if it doesn't exist. Caches are usually stored
+	 * in {@link FileStorageLocations#INTERNAL_CACHE}, caches stored in
+	 * {@link FileStorageLocations#DO_NOT_STORE} are removed by {@link #cleanUpCache(Context)}.
+	 *
+	 * @param context	{@link Context}
+	 * @param name	Name of the cache, used as its directory name
+	 * @param fileStorageLocation	{@link FileStorageLocations} Directory to store the cache in
+	 * @param maxSize	Maximum size in bytes of the cached values
+	 * @return	Opened {@link DiskLruCache}
+	 * @throws IOException	If the directory is inaccessible or the cache cannot be opened
+	 */
+	@NonNull
+	@WorkerThread
+	public static DiskLruCache openCache(@NonNull Context context, @NonNull String name,
+			@FileStorageLocations int fileStorageLocation, @IntRange(from=1) long maxSize) throws IOException {
+		String directoryPath = getDirectory(context, fileStorageLocation);
+		if (directoryPath == null) {
+			throw new IOException("Unable to open cache " + name + " as directory is inaccessible");
+		}
+		return DiskLruCache.open(new File(directoryPath, name), maxSize);
+	}
+
+	/**
+	 * Returns the directories removed by {@link #cleanUpCache(Context)}. Compressed images are written
+	 * to the internal cache, the external ".compressed" directory is kept for files left by earlier
+	 * versions.
+	 */
+	@NonNull
+	static File[] getCleanUpDirectories(@NonNull Context context) {
+		List<File> directories = new ArrayList<>(3);
 		File cacheDir = context.getExternalCacheDir();
 		if (cacheDir != null && cacheDir.isDirectory()) {
-			File cleanUpTemp = new File(cacheDir, "/.temporary");
-			deleteDir(cleanUpTemp);
-
-			File cleanUpCompressed = new File(cacheDir, "/.compressed");
-			deleteDir(cleanUpCompressed);
+			directories.add(new File(cacheDir, ".temporary"));
+			directories.add(new File(cacheDir, ".compressed"));
+		}
+		String compressedDirectory = ImageUtils.getCompressedDirectory(context);
+		if (compressedDirectory != null) {
+			directories.add(new File(compressedDirectory));
 		}
+		return directories.toArray(new File[directories.size()]);
 	}
 
 	/**
@@ -117,12 +237,22 @@ public class FileUtils {
 	@RequiresPermission(permission.WRITE_EXTERNAL_STORAGE)
 	public static File createFile(@NonNull Context context, @NonNull String fileName,
 			@NonNull String extension, @FileStorageLocations int fileStorageLocation) {
-		String directoryPath = getDirectory(context, fileStorageLocation);
-		File file = createFile(context, directoryPath, fileName, extension);
-		if (file != null && fileStorageLocation == FileStorageLocations.DO_NOT_STORE) {
-			file.deleteOnExit();
+		File directory = DirectoryCache.get(context, fileStorageLocation);
+		if (directory == null) {
+			UtilLogger.e("FileUtils", "createFile(" + fileName + ", " + extension + ", " + fileStorageLocation + ")"
+				+ " Unable to create file as directory is inaccessible");
+			return null;
+		}
+
+		if (!extension.startsWith(".")) {
+			extension = "." + extension;
 		}
 
+		File file = new File(directory, fileName + extension);
+		if (UtilLogger.isDebugLogsEnabled()) {
+			UtilLogger.d("FileUtils", "createFile(" + fileName + ", " + extension + ", " + fileStorageLocation
+				+ ") " + " Successfully created file: " + file.getAbsolutePath());
+		}
 		return file;
 	}
 
@@ -159,8 +289,8 @@ public class FileUtils {
 
 	/**
 	 * Creates a {@link File} suitable for an Image, this convenience method will create a {@link File}
-	 * in the directory specified by the {@link FileStorageLocations} using the current timestamp
-	 * as a file name, prepended with "IMG_", and ".jpg" as the extension.
+	 * in the directory specified by the {@link FileStorageLocations} using a unique timestamp from
+	 * {@link #getUniqueFileName()} as a file name, prepended with "IMG_", and ".jpg" as the extension.
 	 *
 	 * This method requires the user to have granted the app the {@link permission#WRITE_EXTERNAL_STORAGE}
 	 * permission which will require this method call to be surrounded by a method name that begins
@@ -174,7 +304,7 @@ public class FileUtils {
 	@SuppressWarnings("MissingPermission")
 	@RequiresPermission(permission.WRITE_EXTERNAL_STORAGE)
 	public static File createImageFile(@NonNull Context context, @FileStorageLocations int fileStorageLocation) {
-		return createFile(context, "IMG_" + getTimestampFileName(), ".jpg", fileStorageLocation);
+		return createFile(context, "IMG_" + getUniqueFileName(), ".jpg", fileStorageLocation);
 	}
 
 	/**
@@ -189,13 +319,22 @@ public class FileUtils {
 	 */
 	@Nullable
 	public static String getFileDisplayName(@NonNull Context context, @NonNull Uri uri) {
+		UriPathCache.Entry cached = UriPathCache.get(uri);
+		if (cached != null && cached.getDisplayName() != null) {
+			return cached.getDisplayName();
+		}
+
 		String result = null;
-		Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
+		Cursor cursor = context.getContentResolver().query(uri, new String[] {OpenableColumns.DISPLAY_NAME},
+			null, null, null);
 		try {
 			if (cursor != null && cursor.moveToFirst()) {
 				int idx = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
 				if (idx != -1) {
-					result = cursor.getString(cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME));
+					result = cursor.getString(idx);
+					if (result != null) {
+						UriPathCache.putDisplayName(context, uri, result);
+					}
 				}
 			}
 		} finally {
@@ -213,6 +352,37 @@ public class FileUtils {
 		return result;
 	}
 
+	/**
+	 * Returns the display name, size and mime type of the file for a given {@link Uri}, see
+	 * {@link #getFileMetadata(Context, Collection)}.
+	 *
+	 * @param context	{@link Context}
+	 * @param uri	{@link Uri} of the file
+	 * @return	{@link FileMetadata} of the file
+	 */
+	@NonNull
+	@WorkerThread
+	public static FileMetadata getFileMetadata(@NonNull Context context, @NonNull Uri uri) {
+		return getFileMetadata(context, Collections.singletonList(uri)).get(uri);
+	}
+
+	/**
+	 * Returns the display name, size and mime type of the files for many {@link Uri}s, such as those
+	 * returned by a multiple selection picker. Only these columns are requested from each provider.
+	 * {@link MediaStore} items from the same table are resolved together in a single query, while
+	 * {@link Uri}s from other providers are queried concurrently on a background pool. This blocks
+	 * until every {@link Uri} has been resolved, and so should not be called from the main thread.
+	 *
+	 * @param context	{@link Context}
+	 * @param uris	{@link Uri}s of the files
+	 * @return	{@link Map} of each {@link Uri} to its {@link FileMetadata}, in the order provided
+	 */
+	@NonNull
+	@WorkerThread
+	public static Map<Uri, FileMetadata> getFileMetadata(@NonNull Context context, @NonNull Collection<Uri> uris) {
+		return UriMetadataResolver.resolve(context, uris);
+	}
+
 	/**
 	 * Returns the path of a {@link File} represented by a {@link Uri}. This will retrieve the
 	 * path for Storage Access Framework Documents, as well as retrieving the "_data" field from
@@ -221,16 +391,91 @@ public class FileUtils {
 	 * This method will return null if the Uri does not reference a real file, or the file cannot
 	 * be retrieved from the devices {@link android.content.ContentProvider}s.
 	 *
+	 * Resolved content Uris are kept in a bounded cache, which is invalidated whenever the providing
+	 * authority reports a change, so resolving the same Uri again doesn't query the provider. Uris
+	 * which couldn't be resolved aren't cached, as they may resolve once access is granted.
+	 *
 	 * @param context {@link Context}
 	 * @param uri {@link Uri} of the file to find
 	 * @return {@link String} Path of the real file
 	 */
 	public static String getFilePath(@NonNull Context context, @NonNull Uri uri) {
-		UtilLogger.d("FileUtils","getFilePath() - Authority: " + uri.getAuthority() +
-			", Fragment: " + uri.getFragment() + ", Port: " + uri.getPort() +
-			", Query: " + uri.getQuery() + ", Scheme: " + uri.getScheme() +
-			", Host: " + uri.getHost() + ", Segments: " + uri.getPathSegments().toString());
+		if (UtilLogger.isDebugLogsEnabled()) {
+			UtilLogger.d("FileUtils","getFilePath() - Authority: " + uri.getAuthority() +
+				", Fragment: " + uri.getFragment() + ", Port: " + uri.getPort() +
+				", Query: " + uri.getQuery() + ", Scheme: " + uri.getScheme() +
+				", Host: " + uri.getHost() + ", Segments: " + uri.getPathSegments().toString());
+		}
+
+		UriPathCache.Entry cached = UriPathCache.get(uri);
+		if (cached != null && cached.getPath() != null) {
+			return cached.getPath();
+		}
+
+		// A null path may only mean the provider is unavailable or access isn't granted yet, so it is
+		// resolved again next time rather than cached
+		String path = resolveFilePath(context, uri);
+		if (path != null) {
+			UriPathCache.putPath(context, uri, path);
+		}
+		return path;
+	}
+
+	/**
+	 * Resolves the file paths of many items within a single {@link MediaStore} table, such as
+	 * {@link MediaStore.Images.Media#EXTERNAL_CONTENT_URI}, using one "_id IN (...)" query per
+	 * {@link #BATCH_QUERY_SIZE} ids rather than a query per item. The resolved paths are also cached
+	 * for later calls to {@link #getFilePath(Context, Uri)} with the items content {@link Uri}.
+	 *
+	 * @param context	{@link Context}
+	 * @param contentUri	{@link Uri} of the table containing the items
+	 * @param ids	Ids of the items to resolve
+	 * @return	{@link Map} of item id to file path, items which could not be resolved are not included
+	 */
+	@NonNull
+	public static Map<Long, String> getFilePaths(@NonNull Context context, @NonNull Uri contentUri, @NonNull long... ids) {
+		Map<Long, String> paths = new HashMap<>(ids.length);
+		final String[] projection = {BaseColumns._ID, MediaStore.MediaColumns.DATA};
+
+		for (int start = 0; start < ids.length; start += BATCH_QUERY_SIZE) {
+			int count = Math.min(BATCH_QUERY_SIZE, ids.length - start);
+			StringBuilder selection = new StringBuilder(BaseColumns._ID).append(" IN (");
+			String[] selectionArgs = new String[count];
+			for (int i = 0; i < count; i++) {
+				selection.append(i == 0 ? "?" : ",?");
+				selectionArgs[i] = String.valueOf(ids[start + i]);
+			}
+			selection.append(')');
+
+			Cursor cursor = context.getContentResolver().query(contentUri, projection, selection.toString(),
+				selectionArgs, null);
+			if (cursor == null) {
+				continue;
+			}
+			try {
+				int idIdx = cursor.getColumnIndexOrThrow(BaseColumns._ID);
+				int dataIdx = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATA);
+				while (cursor.moveToNext()) {
+					long id = cursor.getLong(idIdx);
+					String path = cursor.getString(dataIdx);
+					if (path != null) {
+						paths.put(id, path);
+						UriPathCache.putPath(context, ContentUris.withAppendedId(contentUri, id), path);
+					}
+				}
+			} finally {
+				cursor.close();
+			}
+		}
+		return paths;
+	}
 
+	/**
+	 * Resolves the path of a {@link File} represented by a {@link Uri}, without using the cache.
+	 * See {@link #getFilePath(Context, Uri)}.
+	 */
+	@Nullable
+	private static String resolveFilePath(@NonNull Context context, @NonNull Uri uri) {
 		// DocumentProvider
 		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && DocumentsContract
 			.isDocumentUri(context, uri)) {
@@ -287,6 +532,17 @@ public class FileUtils {
 	 * @return	{@link String} Human readable size format
 	 */
 	public static String getReadableFileSize(@NonNull File file) {
+		return getReadableFileSize(file.length());
+	}
+
+	/**
+	 * Returns a size in bytes, such as a directory total from {@link DirectoryUsageMonitor}, in a
+	 * human readable format e.g. 10.3 MB
+	 *
+	 * @param size	Size in bytes
+	 * @return	{@link String} Human readable size format
+	 */
+	public static String getReadableFileSize(long size) {
 		final int BYTES_IN_KILOBYTES = 1024;
 		final DecimalFormat dec = new DecimalFormat("###.#");
 		final String KILOBYTES = " KB";
@@ -295,7 +551,6 @@ public class FileUtils {
 		float fileSize = 0;
 		String suffix = KILOBYTES;
 
-		long size = file.length();
 		if (size > BYTES_IN_KILOBYTES) {
 			fileSize = size / BYTES_IN_KILOBYTES;
 			if (fileSize > BYTES_IN_KILOBYTES) {
@@ -312,37 +567,64 @@ public class FileUtils {
 	}
 
 	/**
-	 * Returns a {@link String} of the current timestamp with millisecond precision, in the yyyyMMdd_HHmmss.SSS format
+	 * Returns a {@link String} of the current timestamp with millisecond precision, in the yyyyMMdd_HHmmss.SSS format.
+	 * Files created within the same millisecond receive the same name, see {@link #getUniqueFileName()}.
 	 */
 	public static String getTimestampFileName() {
-		return new SimpleDateFormat("yyyyMMdd_HHmmss.SSS",
-			Locale.getDefault()).format(new Date());
+		StringBuilder builder = new StringBuilder(TIMESTAMP_LENGTH);
+		appendTimestamp(builder, System.currentTimeMillis());
+		return builder.toString();
 	}
 
 	/**
-	 * Deletes a {@link File} instance, if the {@link File} was a directory, all children of the
-	 * directory will also be removed in a recursive manner.
-	 *
-	 * @param dir	{@link File} to be deleted
-	 * @return	True if the {@link File} and any children were deleted, else false
+	 * Returns a {@link String} of the current timestamp followed by a sequence number, in the
+	 * yyyyMMdd_HHmmss.SSS_NNN format. Every name returned within the process is unique and sorts in
+	 * the order it was created, even when several are created within the same millisecond or the
+	 * system clock moves backwards.
 	 */
-	private static boolean deleteDir(@Nullable File dir) {
-		if (dir != null && dir.isDirectory()) {
-			String[] children = dir.list();
-			for (String aChildren : children) {
-				boolean success = deleteDir(new File(dir, aChildren));
-				if (!success) {
-					return false;
-				}
-			}
-		}
+	public static String getUniqueFileName() {
+		long now = System.currentTimeMillis() * SEQUENCE_PER_MILLISECOND;
+		long last;
+		long next;
+		do {
+			last = sLastSequence.get();
+			// Once a millisecond runs out of sequence numbers the name moves into the next one
+			next = now > last ? now : last + 1;
+		} while (!sLastSequence.compareAndSet(last, next));
 
-		boolean deleted = dir != null && dir.delete();
-		if (dir != null) {
-			UtilLogger.d("FileUtils","deleteDir( " + dir.getAbsolutePath() + ") Successful : " + deleted);
+		StringBuilder builder = new StringBuilder(TIMESTAMP_LENGTH + 4);
+		appendTimestamp(builder, next / SEQUENCE_PER_MILLISECOND);
+		builder.append('_');
+		appendPadded(builder, next % SEQUENCE_PER_MILLISECOND);
+		return builder.toString();
+	}
+
+	/**
+	 * Appends a timestamp in the yyyyMMdd_HHmmss.SSS format. Formatting the date is only needed once
+	 * per second, the formatted second is shared between threads and the milliseconds are appended.
+	 */
+	private static void appendTimestamp(@NonNull StringBuilder builder, long millis) {
+		long second = millis / 1000;
+		FormattedSecond formatted = sFormattedSecond;
+		if (formatted == null || formatted.mSecond != second) {
+			SimpleDateFormat format = sTimestampFormat.get();
+			format.setTimeZone(TimeZone.getDefault());
+			formatted = new FormattedSecond(second, format.format(new Date(second * 1000)));
+			sFormattedSecond = formatted;
 		}
+		builder.append(formatted.mFormatted).append('.');
+		appendPadded(builder, millis % 1000);
+	}
 
-		return deleted;
+	/** Appends a value below 1000 as three digits **/
+	private static void appendPadded(@NonNull StringBuilder builder, long value) {
+		if (value < 100) {
+			builder.append('0');
+		}
+		if (value < 10) {
+			builder.append('0');
+		}
+		builder.append(value);
 	}
 
 	/**
@@ -433,6 +715,21 @@ public class FileUtils {
 		return null;
 	}
 
+	/**
+	 * Closes the provided {@link Closeable}, logging rather than throwing any {@link IOException}.
+	 *
+	 * @param closeable	{@link Closeable} to close, or null
+	 */
+	static void closeQuietly(@Nullable Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException ioe) {
+				UtilLogger.e("FileUtils", "Unable to close " + closeable + ": " + ioe.getLocalizedMessage());
+			}
+		}
+	}
+
 	/** Returns if the {@link Uri} provided is from the External Storage Provider **/
 	private static boolean isExternalStorageDocument(@NonNull Uri uri) {
 		return "com.android.externalstorage.documents".equals(uri.getAuthority());
@@ -454,95 +751,277 @@ public class FileUtils {
 	}
 
 	/**
-	 * Reads a {@link File} instance into a byte array
+	 * Reads a {@link File} instance into a byte array. The array is sized from the length of the file
+	 * up front and filled directly, so the contents are not copied through any intermediate buffer.
 	 *
-	 * @param file
-	 * @return
-	 * @throws IOException
+	 * @param file	{@link File} to read
+	 * @return	Contents of the file
+	 * @throws IOException	If the file cannot be read, or is too large to fit in a byte array
 	 */
 	public static byte[] readFile(final File file) throws IOException {
 		FileInputStream fis = new FileInputStream(file);
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		byte[] b = new byte[1024];
-		int bytesRead;
-		while ((bytesRead = fis.read(b)) != -1) {
-			bos.write(b, 0, bytesRead);
+		StorageBudgetManager.onFileAccessed(file);
+		try {
+			long length = fis.getChannel().size();
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("File too large to read into a byte array: " + file.getAbsolutePath());
+			}
+
+			byte[] bytes = new byte[(int) length];
+			int offset = 0;
+			int bytesRead;
+			while (offset < bytes.length && (bytesRead = fis.read(bytes, offset, bytes.length - offset)) != -1) {
+				offset += bytesRead;
+			}
+
+			if (offset < bytes.length) {
+				// The file was truncated while being read
+				return Arrays.copyOf(bytes, offset);
+			}
+
+			int next = fis.read();
+			if (next == -1) {
+				return bytes;
+			}
+
+			// The file grew while being read, append whatever has been written since
+			PooledByteArrayOutputStream bos = new PooledByteArrayOutputStream(bytes.length + MemoryUnit.KB);
+			try {
+				bos.write(bytes);
+				bos.write(next);
+				FileCopier.copy(fis, bos, -1, null, null);
+				return bos.toByteArray();
+			} finally {
+				bos.close();
+			}
+		} finally {
+			try {
+				fis.close();
+			} catch (IOException ioe) {
+				UtilLogger.e("FileUtils","readFile() cannot close File Input Stream: " + ioe.getLocalizedMessage());
+			}
 		}
-		return bos.toByteArray();
 	}
 
 	/**
-	 * Writes a byte array to a {@link File} stored at the provided file path
+	 * Reads a {@link File} instance into a read only {@link ByteBuffer}, using the
+	 * {@link #MAPPED_READ_THRESHOLD} to decide how the file is read. See {@link #readFileBuffer(File, long)}.
 	 *
-	 * @param bytes
-	 * @param filePath
-	 * @return
-	 * @throws IOException
+	 * @param file	{@link File} to read
+	 * @return	Read only {@link ByteBuffer} of the file contents
+	 * @throws IOException	If the file cannot be read
 	 */
-	public static File writeFile(final byte[] bytes, final String filePath) throws IOException {
-		FileOutputStream fos = null;
+	@NonNull
+	public static ByteBuffer readFileBuffer(@NonNull File file) throws IOException {
+		return readFileBuffer(file, MAPPED_READ_THRESHOLD);
+	}
+
+	/**
+	 * Reads a {@link File} instance into a read only {@link ByteBuffer}. Files at least as large as
+	 * the provided threshold are memory mapped, which avoids copying the contents onto the heap and
+	 * lets the system page the data in as it is accessed. Smaller files are read into an exactly sized
+	 * byte array through {@link #readFile(File)}, where the cost of setting up a mapping isn't worthwhile.
+	 *
+	 * The file is closed before returning in both cases, a mapped buffer remains valid until it is
+	 * garbage collected.
+	 *
+	 * @param file	{@link File} to read
+	 * @param mapThreshold	Size in bytes from which the file is memory mapped
+	 * @return	Read only {@link ByteBuffer} of the file contents
+	 * @throws IOException	If the file cannot be read
+	 */
+	@NonNull
+	public static ByteBuffer readFileBuffer(@NonNull File file, long mapThreshold) throws IOException {
+		if (file.length() < mapThreshold) {
+			return ByteBuffer.wrap(readFile(file)).asReadOnlyBuffer();
+		}
 
+		FileInputStream fis = new FileInputStream(file);
+		StorageBudgetManager.onFileAccessed(file);
 		try {
-			fos = new FileOutputStream(filePath);
-			fos.write(bytes);
-			return new File(filePath);
+			FileChannel channel = fis.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
 		} finally {
-			if (fos != null) {
-				try {
-					fos.close();
-				} catch (IOException ioe) {
-					UtilLogger.e("FileUtils","writeFile() cannot close File Output Stream: " + ioe.getLocalizedMessage());
-				}
+			try {
+				fis.close();
+			} catch (IOException ioe) {
+				UtilLogger.e("FileUtils","readFileBuffer() cannot close File Input Stream: " + ioe.getLocalizedMessage());
 			}
 		}
 	}
 
+	/**
+	 * Writes a byte array to a {@link File} stored at the provided file path. The file is replaced
+	 * atomically, so a crash part way through the write never leaves it truncated, but it is not synced
+	 * to storage, see {@link #writeFile(byte[], String, int)}.
+	 *
+	 * @param bytes	Contents to write
+	 * @param filePath	Path of the {@link File} to write
+	 * @return	{@link File} that was written
+	 * @throws IOException	If the file cannot be written
+	 */
+	public static File writeFile(final byte[] bytes, final String filePath) throws IOException {
+		return writeFile(bytes, filePath, AtomicFileWriter.SyncPolicy.NONE);
+	}
+
+	/**
+	 * Atomically writes a byte array to a {@link File} stored at the provided file path, syncing it to
+	 * storage according to the {@link AtomicFileWriter.SyncPolicy}.
+	 *
+	 * @param bytes	Contents to write
+	 * @param filePath	Path of the {@link File} to write
+	 * @param syncPolicy	{@link AtomicFileWriter.SyncPolicy} to apply
+	 * @return	{@link File} that was written
+	 * @throws IOException	If the file cannot be written, in which case its previous contents remain
+	 */
+	public static File writeFile(@NonNull byte[] bytes, @NonNull String filePath,
+			@AtomicFileWriter.SyncPolicy int syncPolicy) throws IOException {
+		File file = new File(filePath);
+		AtomicFileWriter.write(file, bytes, syncPolicy);
+		StorageBudgetManager.onFileWritten(file);
+		return file;
+	}
+
+	/**
+	 * Writes text to a {@link File} encoded as UTF-8, logging any failure. The file is replaced
+	 * atomically but not synced to storage, see {@link #writeToFile(File, String, int)}.
+	 *
+	 * @param toWrite	{@link File} to write
+	 * @param data	Text to write
+	 */
 	public static void writeToFile(File toWrite, String data) {
-		OutputStreamWriter outputStreamWriter = null;
-		FileOutputStream fileOutputStream = null;
 		try {
-			fileOutputStream = new FileOutputStream(toWrite);
-			outputStreamWriter = new OutputStreamWriter(fileOutputStream);
-			outputStreamWriter.write(data);
+			writeToFile(toWrite, data, AtomicFileWriter.SyncPolicy.NONE);
 		} catch (IOException e) {
 			UtilLogger.e("FileUtils","File write failed: " + e.toString());
-		} finally {
-			if (outputStreamWriter != null) {
-				try {
-					outputStreamWriter.close();
-				} catch (IOException ioe) {
-					UtilLogger.e("FileUtils","Unable to close output stream writer: " + ioe.getLocalizedMessage());
-				}
-			}
-			if (fileOutputStream != null) {
-				try {
-					fileOutputStream.close();
-				} catch (IOException ioe) {
-					UtilLogger.e("FileUtils","Unable to close file output stream: " + ioe.getLocalizedMessage());
-				}
-			}
 		}
 	}
 
-	public static void writeBytesToFile(InputStream is, File file) throws IOException {
-		FileOutputStream fos = null;
-		try {
-			byte[] data = new byte[2048];
-			int nbread = 0;
-			fos = new FileOutputStream(file);
-			while((nbread=is.read(data))>-1){
-				fos.write(data,0,nbread);
-			}
+	/**
+	 * Atomically writes text to a {@link File} encoded as UTF-8, syncing it to storage according to
+	 * the {@link AtomicFileWriter.SyncPolicy}.
+	 *
+	 * @param toWrite	{@link File} to write
+	 * @param data	Text to write
+	 * @param syncPolicy	{@link AtomicFileWriter.SyncPolicy} to apply
+	 * @throws IOException	If the file cannot be written, in which case its previous contents remain
+	 */
+	public static void writeToFile(@NonNull File toWrite, @NonNull String data,
+			@AtomicFileWriter.SyncPolicy int syncPolicy) throws IOException {
+		AtomicFileWriter.write(toWrite, data, syncPolicy);
+		StorageBudgetManager.onFileWritten(toWrite);
+	}
+
+	/**
+	 * Writes the remainder of an {@link InputStream} to a {@link File}, replacing the file if it already
+	 * exists. The stream is copied by {@link FileCopier}, so file backed streams are transferred directly
+	 * between channels and any other stream is copied through a large reused buffer. The stream is not
+	 * closed, and a partially written file is removed if the copy fails.
+	 *
+	 * @param is	{@link InputStream} to read from
+	 * @param file	{@link File} to write to
+	 * @throws IOException	If the stream cannot be read or the file cannot be written
+	 */
+	public static void writeBytesToFile(@NonNull InputStream is, @NonNull File file) throws IOException {
+		FileCopier.copy(is, file, null, null);
+		StorageBudgetManager.onFileWritten(file);
+	}
+
+	/**
+	 * Copies a {@link File} to the destination {@link File}, replacing the destination if it already
+	 * exists. The data is transferred directly between the two files without passing through the heap,
+	 * see {@link FileCopier} for progress reporting and cancellation.
+	 *
+	 * @param source	{@link File} to copy
+	 * @param destination	{@link File} to copy to
+	 * @return	Number of bytes copied
+	 * @throws IOException	If the copy fails
+	 */
+	public static long copyFile(@NonNull File source, @NonNull File destination) throws IOException {
+		long copied = FileCopier.copy(source, destination, null, null);
+		StorageBudgetManager.onFileAccessed(source);
+		StorageBudgetManager.onFileWritten(destination);
+		return copied;
+	}
+
+	/**
+	 * Copies the content referenced by a {@link Uri} to a {@link File}, replacing the destination if
+	 * it already exists. File backed content is transferred directly through its file descriptor, see
+	 * {@link FileCopier} for progress reporting and cancellation.
+	 *
+	 * @param context	{@link Context}
+	 * @param source	{@link Uri} to copy
+	 * @param destination	{@link File} to copy to
+	 * @return	Number of bytes copied
+	 * @throws IOException	If the copy fails
+	 */
+	public static long copyUriToFile(@NonNull Context context, @NonNull Uri source, @NonNull File destination)
+			throws IOException {
+		long copied = FileCopier.copy(context, source, destination, null, null);
+		StorageBudgetManager.onFileWritten(destination);
+		return copied;
+	}
+
+	/**
+	 * Timestamp formatted to the second, shared by {@link #appendTimestamp(StringBuilder, long)}.
+	 */
+	private static class FormattedSecond {
+		private final long mSecond;
+		private final String mFormatted;
+
+		FormattedSecond(long second, @NonNull String formatted) {
+			mSecond = second;
+			mFormatted = formatted;
+		}
+	}
+
+	/**
+	 * Data class describing the file referenced by a {@link Uri}, as retrieved from the
+	 * {@link FileUtils#getFileMetadata(Context, Collection)} method.
+	 */
+	public static class FileMetadata {
+		private final Uri mUri;
+		private final String mDisplayName;
+		private final long mSize;
+		private final String mMimeType;
+
+		FileMetadata(@NonNull Uri uri, @Nullable String displayName, long size, @Nullable String mimeType) {
+			mUri = uri;
+			mDisplayName = displayName;
+			mSize = size;
+			mMimeType = mimeType;
 		}
-		catch (Exception ex) {
-			UtilLogger.e("FileUtils", ex.getLocalizedMessage(), ex);
+
+		@NonNull
+		public Uri getUri() {
+			return mUri;
 		}
-		finally{
-			if (fos!=null){
-				fos.close();
-			}
+
+		/** Returns the display name, or the end of the {@link Uri} path if the provider has none **/
+		@Nullable
+		public String getDisplayName() {
+			return mDisplayName;
+		}
+
+		/** Returns the size in bytes, or -1 if unknown **/
+		public long getSize() {
+			return mSize;
 		}
-	}
 
+		/** Returns the mime type e.g. "image/jpeg", or null if unknown **/
+		@Nullable
+		public String getMimeType() {
+			return mMimeType;
+		}
 
+		@Override
+		public String toString() {
+			return "FileMetadata{" +
+				"mUri=" + mUri +
+				", mDisplayName='" + mDisplayName + '\'' +
+				", mSize=" + mSize +
+				", mMimeType='" + mMimeType + '\'' +
+				'}';
+		}
+	}
 }
@@ -0,0 +1,282 @@
+package com.bosh.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.StringDef;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Calculates MD5, SHA-1 and SHA-256 digests of {@link File}s, {@link Uri}s, streams and strings,
+ * suitable for cache keys and checking the integrity of uploads. Content is hashed as a stream, so
+ * large files never need to be held in memory. Files above {@link FileUtils#MAPPED_READ_THRESHOLD}
+ * are memory mapped a region at a time, smaller ones are read through a buffer borrowed from the
+ * {@link BufferPool}.
+ *
+ * {@link MessageDigest} instances are cached per thread and reset between uses rather than being
+ * created for every call, and hex strings are built from a single char array.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class HashUtils {
+
+	/**
+	 * Defines the digest algorithms supported by this class.
+	 */
+	@StringDef({Algorithm.MD5, Algorithm.SHA_1, Algorithm.SHA_256})
+	@Retention(RetentionPolicy.SOURCE)
+	public @interface Algorithm {
+		String MD5 = "MD5";
+		String SHA_1 = "SHA-1";
+		String SHA_256 = "SHA-256";
+	}
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/** Size of each region mapped while hashing a large file **/
+	private static final long MAPPED_REGION_SIZE = 32 * MemoryUnit.MB;
+	private static final int BUFFER_SIZE = 64 * MemoryUnit.KB;
+
+	private static final ThreadLocal<Map<String, MessageDigest>> sDigests = new ThreadLocal<Map<String, MessageDigest>>() {
+		@Override
+		protected Map<String, MessageDigest> initialValue() {
+			return new HashMap<>(4);
+		}
+	};
+
+	/**
+	 * Returns the digest of a {@link File}.
+	 *
+	 * @param file	{@link File} to hash
+	 * @param algorithm	{@link Algorithm} to use
+	 * @return	Digest of the file contents
+	 * @throws IOException	If the file cannot be read
+	 */
+	@NonNull
+	public static byte[] digest(@NonNull File file, @Algorithm String algorithm) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return digest(in, file.length(), algorithm);
+		} finally {
+			FileUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Returns the digest of a {@link File} as a lower case hex {@link String}.
+	 *
+	 * @param file	{@link File} to hash
+	 * @param algorithm	{@link Algorithm} to use
+	 * @return	Hex digest of the file contents
+	 * @throws IOException	If the file cannot be read
+	 */
+	@NonNull
+	public static String digestHex(@NonNull File file, @Algorithm String algorithm) throws IOException {
+		return toHex(digest(file, algorithm));
+	}
+
+	/**
+	 * Returns the digest of the content referenced by a {@link Uri}. The {@link Uri} is opened as a
+	 * {@link ParcelFileDescriptor} so file backed content can be memory mapped.
+	 *
+	 * @param context	{@link Context}
+	 * @param uri	{@link Uri} to hash
+	 * @param algorithm	{@link Algorithm} to use
+	 * @return	Digest of the content
+	 * @throws IOException	If the content cannot be read
+	 */
+	@NonNull
+	public static byte[] digest(@NonNull Context context, @NonNull Uri uri, @Algorithm String algorithm)
+			throws IOException {
+
+		ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+		if (descriptor == null) {
+			throw new FileNotFoundException("Unable to open file descriptor for " + uri);
+		}
+		try {
+			return digest(new FileInputStream(descriptor.getFileDescriptor()), descriptor.getStatSize(), algorithm);
+		} finally {
+			FileUtils.closeQuietly(descriptor);
+		}
+	}
+
+	/**
+	 * Returns the digest of the content referenced by a {@link Uri} as a lower case hex {@link String}.
+	 *
+	 * @param context	{@link Context}
+	 * @param uri	{@link Uri} to hash
+	 * @param algorithm	{@link Algorithm} to use
+	 * @return	Hex digest of the content
+	 * @throws IOException	If the content cannot be read
+	 */
+	@NonNull
+	public static String digestHex(@NonNull Context context, @NonNull Uri uri, @Algorithm String algorithm)
+			throws IOException {
+		return toHex(digest(context, uri, algorithm));
+	}
+
+	/**
+	 * Returns the digest of the remainder of an {@link InputStream}, which is not closed.
+	 *
+	 * @param in	{@link InputStream} to hash
+	 * @param algorithm	{@link Algorithm} to use
+	 * @return	Digest of the stream
+	 * @throws IOException	If the stream cannot be read
+	 */
+	@NonNull
+	public static byte[] digest(@NonNull InputStream in, @Algorithm String algorithm) throws IOException {
+		return digest(in, -1, algorithm);
+	}
+
+	/**
+	 * Returns the digest of a {@link String}, encoded with the platform default charset.
+	 *
+	 * @param string	{@link String} to hash
+	 * @param algorithm	{@link Algorithm} to use
+	 * @return	Lower case hex digest of the string
+	 */
+	@NonNull
+	public static String digestHex(@NonNull String string, @Algorithm String algorithm) {
+		MessageDigest digest = getDigest(algorithm);
+		digest.update(string.getBytes());
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Hashes several {@link File}s in parallel on the libraries bounded background pool, blocking until
+	 * all have been hashed. This should not be called from the main thread.
+	 *
+	 * @param files	{@link List} of {@link File}s to hash
+	 * @param algorithm	{@link Algorithm} to use
+	 * @return	{@link List} of lower case hex digests in the same order as the files, with null for
+	 * 			any file which could not be read
+	 */
+	@NonNull
+	public static List<String> digestHex(@NonNull List<File> files, @Algorithm final String algorithm) {
+		ExecutorService executor = UtilExecutors.background();
+		List<Future<String>> futures = new ArrayList<>(files.size());
+		for (final File file : files) {
+			futures.add(executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return digestHex(file, algorithm);
+				}
+			}));
+		}
+
+		List<String> digests = new ArrayList<>(files.size());
+		boolean interrupted = false;
+		for (int i = 0; i < futures.size(); i++) {
+			String digest = null;
+			try {
+				if (!interrupted) {
+					digest = futures.get(i).get();
+				}
+			} catch (InterruptedException e) {
+				// Abandon the remaining files, they are reported as unreadable
+				interrupted = true;
+				Thread.currentThread().interrupt();
+				for (Future<String> future : futures) {
+					future.cancel(true);
+				}
+			} catch (ExecutionException e) {
+				UtilLogger.e("HashUtils", "digestHex(" + files.get(i).getAbsolutePath() + ") cannot be hashed: "
+					+ e.getCause());
+			}
+			digests.add(digest);
+		}
+		return digests;
+	}
+
+	/**
+	 * Converts bytes into a lower case hex {@link String}, e.g. for displaying a digest.
+	 *
+	 * @param bytes	Bytes to convert
+	 * @return	Lower case hex {@link String}, twice the length of the bytes
+	 */
+	@NonNull
+	public static String toHex(@NonNull byte[] bytes) {
+		char[] hex = new char[bytes.length << 1];
+		for (int i = 0, j = 0; i < bytes.length; i++) {
+			hex[j++] = HEX_DIGITS[(bytes[i] >>> 4) & 0x0f];
+			hex[j++] = HEX_DIGITS[bytes[i] & 0x0f];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * Hashes the remainder of a stream, memory mapping it a region at a time when it is a
+	 * {@link FileInputStream} over a regular file above the mapping threshold.
+	 *
+	 * @param length	Length of the stream if known, else -1
+	 */
+	@NonNull
+	private static byte[] digest(@NonNull InputStream in, long length, @Algorithm String algorithm)
+			throws IOException {
+
+		MessageDigest digest = getDigest(algorithm);
+		if (length >= FileUtils.MAPPED_READ_THRESHOLD && in instanceof FileInputStream) {
+			FileChannel channel = ((FileInputStream) in).getChannel();
+			long position = channel.position();
+			long size = channel.size();
+			while (position < size) {
+				long regionSize = Math.min(MAPPED_REGION_SIZE, size - position);
+				digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize));
+				position += regionSize;
+			}
+			channel.position(position);
+		} else {
+			byte[] buffer = BufferPool.acquire(BUFFER_SIZE);
+			try {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+				}
+			} finally {
+				BufferPool.release(buffer);
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Returns this threads cached {@link MessageDigest} for the algorithm, reset ready for use.
+	 */
+	@NonNull
+	static MessageDigest getDigest(@Algorithm String algorithm) {
+		Map<String, MessageDigest> digests = sDigests.get();
+		MessageDigest digest = digests.get(algorithm);
+		if (digest == null) {
+			try {
+				digest = MessageDigest.getInstance(algorithm);
+			} catch (NoSuchAlgorithmException e) {
+				// MD5, SHA-1 and SHA-256 are guaranteed to be available on every Android device
+				throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm, e);
+			}
+			digests.put(algorithm, digest);
+		} else {
+			digest.reset();
+		}
+		return digest;
+	}
+}
@@ -2,6 +2,7 @@ package com.bosh.utils;
 
 import android.Manifest.permission;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -16,6 +17,7 @@ import android.support.media.ExifInterface;
 import android.media.ThumbnailUtils;
 import android.net.Uri;
 import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
 import android.os.Parcelable;
 import android.provider.MediaStore;
 import android.provider.MediaStore.Images.Media;
@@ -30,13 +32,16 @@ import android.support.v4.content.ContextCompat;
 import android.support.v4.graphics.drawable.DrawableCompat;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 
 /**
@@ -50,6 +55,19 @@ import java.util.Locale;
 @SuppressWarnings({"unused", "WeakerAccess"})
 public class ImageUtils {
 
+	/** Size of the scratch buffer borrowed from the {@link BufferPool} while decoding a bitmap **/
+	private static final int DECODE_TEMP_STORAGE_SIZE = 16 * MemoryUnit.KB;
+
+	/** Columns read into each {@link RecentImage} from the {@link MediaStore} **/
+	private static final String[] RECENT_IMAGE_PROJECTION = new String[]{
+		Media._ID,
+		MediaStore.Images.Media.DATA,
+		MediaStore.Images.Media.DATE_TAKEN,
+		MediaStore.Images.Media.MIME_TYPE,
+		MediaStore.Images.Media.SIZE,
+		Media.DISPLAY_NAME
+	};
+
 	/**
 	 * Method to tint a drawable to a specific colour, this ensures the original and tinted drawables
 	 * have been mutated so that the state is not shared with any other instance of that drawable.
@@ -115,6 +133,10 @@ public class ImageUtils {
 	 * by the {@link Uri}. This image is compressed based on the other parameters provided, while the
 	 * method handles {@link OutOfMemoryError}, Orientation, and maintaining aspect ratio.
 	 *
+	 * The image is read through a single file descriptor opened on the {@link Uri}, so no file path
+	 * needs to be resolved and any {@link android.content.ContentProvider} able to open the image for
+	 * reading is supported.
+	 *
 	 * The compressed image file is stored in the Applications internal cache directory, which can be
 	 * modified in {@link ImageUtils#createCompressedImageFile(Context, CompressFormat)} and can also
 	 * be cleaned up once used with the {@link FileUtils#cleanUpCache(Context)} method.
@@ -135,9 +157,29 @@ public class ImageUtils {
 	public static File compressImage(@NonNull Context context, @NonNull Uri imageUri, float maxWidth,
 			float maxHeight, @IntRange(from=1,to=100) int quality, @NonNull CompressFormat compressFormat) {
 
-		String filePath = FileUtils.getFilePath(context, imageUri);
-		if (filePath != null) {
-			return compressImage(context, filePath, maxWidth, maxHeight, quality, compressFormat);
+		ParcelFileDescriptor descriptor = null;
+		try {
+			// Open the Uri once, every pass over the image re-uses this descriptor rather than
+			// resolving a file path through the ContentResolver, unless the descriptor cannot seek
+			descriptor = context.getContentResolver().openFileDescriptor(imageUri, "r");
+			if (descriptor == null) {
+				return null;
+			}
+
+			FileInputStream in = new FileInputStream(descriptor.getFileDescriptor());
+			return compressImage(context, in, imageUri, imageUri.toString(), maxWidth, maxHeight, quality, compressFormat);
+		} catch (FileNotFoundException e) {
+			UtilLogger.e("ImageUtils", "compressImage(" + imageUri + ", " + maxWidth + ", " + maxHeight + ", " + quality + ", "
+				+ compressFormat.toString() + ") File Not Found Exception opening image descriptor");
+		} finally {
+			if (descriptor != null) {
+				try {
+					descriptor.close();
+				} catch (IOException e) {
+					UtilLogger.e("ImageUtils", "compressImage(" + imageUri + ", " + maxWidth + ", " + maxHeight + ", " + quality + ", "
+						+ compressFormat.toString() + ") IO Exception closing image descriptor! " + e.getLocalizedMessage());
+				}
+			}
 		}
 		return null;
 	}
@@ -167,15 +209,151 @@ public class ImageUtils {
 	public static File compressImage(@NonNull Context context, @NonNull String filePath, float maxWidth,
 			float maxHeight, @IntRange(from=1,to=100) int quality, @NonNull CompressFormat compressFormat) {
 
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(new File(filePath));
+			return compressImage(context, in, null, filePath, maxWidth, maxHeight, quality, compressFormat);
+		} catch (FileNotFoundException e) {
+			UtilLogger.e("ImageUtils", "compressImage(" + filePath + ", " + maxWidth + ", " + maxHeight + ", " + quality + ", "
+				+ compressFormat.toString() + ") File Not Found Exception opening the original image");
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					UtilLogger.e("ImageUtils", "compressImage(" + filePath + ", " + maxWidth + ", " + maxHeight + ", " + quality + ", "
+						+ compressFormat.toString() + ") IO Exception closing File Input Stream! " + e.getLocalizedMessage());
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compresses the image readable from the provided {@link FileInputStream} into a new file within
+	 * the compressed images directory. The bounds pass, EXIF read and full decode all share the
+	 * stream's underlying file descriptor, seeking back to the start of the image between each pass,
+	 * so the image is only ever opened once by the caller. If the descriptor cannot seek, such as one
+	 * backed by a pipe, each pass reopens the {@link Uri} instead.
+	 *
+	 * @param context	{@link Context}
+	 * @param in	{@link FileInputStream} positioned anywhere within the image
+	 * @param imageUri	{@link Uri} the stream was opened from, or null if it was opened from a file
+	 * @param source	{@link String} describing the original image, used for logging
+	 * @param maxWidth	Maximum width of the compressed image
+	 * @param maxHeight	Maximum height of the compressed image
+	 * @param quality	Hint to the compressor, 0-100
+	 * @param compressFormat	The format of the compressed image
+	 * @return	{@link File} containing the abstract pathname of the compressed image, or null
+	 */
+	@Nullable
+	private static File compressImage(@NonNull Context context, @NonNull FileInputStream in, @Nullable Uri imageUri,
+			@NonNull String source, float maxWidth, float maxHeight, int quality, @NonNull CompressFormat compressFormat) {
+
+		Bitmap scaledBitmap = decodeScaledBitmap(context, in, imageUri, source, maxWidth, maxHeight);
+		if (scaledBitmap == null) {
+			UtilLogger.e("ImageUtils", "compressImage(" + source + ", " + maxWidth + ", " + maxHeight + ", " + quality + ", "
+				+ compressFormat.toString() + ") Unable to compress image");
+			return null;
+		}
+
+		FileOutputStream out = null;
+		File file = createCompressedImageFile(context, compressFormat);
+		try {
+			if (file != null) {
+				out = new FileOutputStream(file.getAbsolutePath());
+				// Write the compressed bitmap at the compressed file destination
+				scaledBitmap.compress(compressFormat, quality, out);
+			}
+		} catch (FileNotFoundException e) {
+			UtilLogger.e("ImageUtils", "compressImage(" + source + ", " + maxWidth + ", " + maxHeight + ", " + quality + ", "
+				+ compressFormat.toString() + ") File Not Found Exception compressing the scaled bitmap");
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					UtilLogger.e("ImageUtils:", "compressImage(" + source + ", " + maxWidth + ", " + maxHeight + ", " + quality + ", "
+						+ compressFormat.toString() + ") IO Exception closing File Output Stream! " + e.getLocalizedMessage());
+				}
+			}
+		}
+
+		StorageBudgetManager.onFileWritten(file);
+		return file;
+	}
+
+	/**
+	 * Decodes a scaled and correctly orientated {@link Bitmap} from the image readable through the
+	 * provided {@link FileInputStream}. A seekable descriptor is rewound before each pass over the
+	 * image, otherwise each pass reopens the {@link Uri} through the {@link ContentResolver}, as some
+	 * providers return descriptors backed by a pipe.
+	 *
+	 * @param context	{@link Context}
+	 * @param in	{@link FileInputStream} of the image
+	 * @param imageUri	{@link Uri} the stream was opened from, or null if it was opened from a file
+	 * @param source	{@link String} describing the original image, used for logging
+	 * @param maxWidth	Maximum width of the scaled bitmap
+	 * @param maxHeight	Maximum height of the scaled bitmap
+	 * @return	Scaled {@link Bitmap}, or null if the image could not be decoded
+	 */
+	@Nullable
+	private static Bitmap decodeScaledBitmap(@NonNull Context context, @NonNull FileInputStream in,
+			@Nullable Uri imageUri, @NonNull String source, float maxWidth, float maxHeight) {
+
+		try {
+			in.getChannel().position(0);
+		} catch (IOException ioe) {
+			if (imageUri == null) {
+				UtilLogger.e("ImageUtils", "decodeScaledBitmap(" + source + ", " + maxWidth + ", " + maxHeight
+					+ ") IO Exception seeking image descriptor: " + ioe.getLocalizedMessage());
+				return null;
+			}
+			return decodeScaledBitmap(new UriImageSource(context.getContentResolver(), imageUri), source,
+				maxWidth, maxHeight);
+		}
+		return decodeScaledBitmap(new DescriptorImageSource(in), source, maxWidth, maxHeight);
+	}
+
+	/**
+	 * Decodes a scaled and correctly orientated {@link Bitmap} from an {@link ImageSource}. The image
+	 * bounds are read first to calculate a sample size, the EXIF orientation is then read, and finally
+	 * the sampled image is decoded, each pass reading the image from its start.
+	 *
+	 * @param image	{@link ImageSource} of the image
+	 * @param source	{@link String} describing the original image, used for logging
+	 * @param maxWidth	Maximum width of the scaled bitmap
+	 * @param maxHeight	Maximum height of the scaled bitmap
+	 * @return	Scaled {@link Bitmap}, or null if the image could not be decoded
+	 */
+	@Nullable
+	private static Bitmap decodeScaledBitmap(@NonNull ImageSource image, @NonNull String source,
+			float maxWidth, float maxHeight) {
+
 		Bitmap scaledBitmap = null;
+		Bitmap bmp = null;
 		BitmapFactory.Options options = new BitmapFactory.Options();
 
 		// Ensure inJustDecodeBounds is set to true as this prevents the bitmap pixels from being loaded
 		// into memory and just loads the bounds. However attempting to use the bitmap will return null
 		options.inJustDecodeBounds = true;
 
-		String path = new File(filePath).getAbsolutePath();
-		Bitmap bmp = BitmapFactory.decodeFile(path, options);
+		int orientation = 0;
+		try {
+			image.decode(options);
+
+			// Read the exif data of the image, this is used to ensure it is rotated to the correct orientation
+			try {
+				orientation = image.readOrientation();
+			} catch (IOException ioe) {
+				UtilLogger.d("ImageUtils", "decodeScaledBitmap(" + source + ", " + maxWidth + ", " + maxHeight
+					+ ") IO Exception reading exif data: " + ioe.getLocalizedMessage());
+			}
+		} catch (IOException ioe) {
+			UtilLogger.e("ImageUtils", "decodeScaledBitmap(" + source + ", " + maxWidth + ", " + maxHeight
+				+ ") IO Exception reading image: " + ioe.getLocalizedMessage());
+			return null;
+		}
 
 		int actualHeight = options.outHeight;
 		int actualWidth = options.outWidth;
@@ -213,20 +391,24 @@ public class ImageUtils {
 		// Mostly for older Android versions, these options allow android to claim the bitmap memory if it runs low on memory
 		options.inPurgeable = true;
 		options.inInputShareable = true;
-		options.inTempStorage = new byte[16 * 1024];
+		options.inTempStorage = BufferPool.acquire(DECODE_TEMP_STORAGE_SIZE);
 
 		try {
-			// Load the bitmap from its file path and create the scaled bitmap
-			bmp = BitmapFactory.decodeFile(filePath, options);
+			// Load the bitmap and create the scaled bitmap
+			bmp = image.decode(options);
 			scaledBitmap = Bitmap.createBitmap(actualWidth, actualHeight, Bitmap.Config.ARGB_8888);
+		} catch (IOException ioe) {
+			UtilLogger.e("ImageUtils", "decodeScaledBitmap(" + source + ", " + maxWidth + ", " + maxHeight
+				+ ") IO Exception reading image: " + ioe.getLocalizedMessage());
 		} catch (OutOfMemoryError exception) {
-			UtilLogger.e("ImageUtils", "compressImage(" + filePath + ", " + maxWidth + ", " + maxHeight + ", " + quality + ", "
-				+ compressFormat.toString() + ") Out of memory exception decoding bitmap file or creating scaled bitmap");
+			UtilLogger.e("ImageUtils", "decodeScaledBitmap(" + source + ", " + maxWidth + ", " + maxHeight
+				+ ") Out of memory exception decoding bitmap file or creating scaled bitmap");
+		} finally {
+			BufferPool.release(options.inTempStorage);
+			options.inTempStorage = null;
 		}
 
-		if (scaledBitmap == null) {
-			UtilLogger.e("ImageUtils", "compressImage(" + filePath + ", " + maxWidth + ", " + maxHeight + ", " + quality + ", "
-				+ compressFormat.toString() + ") Unable to compress image");
+		if (bmp == null || scaledBitmap == null) {
 			return null;
 		}
 
@@ -243,50 +425,20 @@ public class ImageUtils {
 		canvas.drawBitmap(bmp, middleX - bmp.getWidth() / 2, middleY - bmp.getHeight() / 2, new Paint(
 			Paint.FILTER_BITMAP_FLAG));
 
-		//Use the exif data of the image to ensure it is rotated to the correct orientation
-		ExifInterface exif;
-		try {
-			exif = new ExifInterface(filePath);
-
-			int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, 0);
+		if (orientation == 6 || orientation == 3 || orientation == 8) {
 			Matrix matrix = new Matrix();
 			if (orientation == 6) {
 				matrix.postRotate(90);
 			} else if (orientation == 3) {
 				matrix.postRotate(180);
-			} else if (orientation == 8) {
+			} else {
 				matrix.postRotate(270);
 			}
 			scaledBitmap = Bitmap.createBitmap(scaledBitmap, 0, 0, scaledBitmap.getWidth(),
 				scaledBitmap.getHeight(), matrix, true);
-		} catch (IOException ioe) {
-			UtilLogger.d("ImageUtils", "compressImage(" + filePath + ", " + maxWidth + ", " + maxHeight + ", " + quality + ", "
-				+ compressFormat.toString() + ") IO Exception rotating scaled bitmap: " + ioe.getLocalizedMessage());
 		}
 
-		FileOutputStream out = null;
-		File file = createCompressedImageFile(context, compressFormat);
-		try {
-			if (file != null) {
-				out = new FileOutputStream(file.getAbsolutePath());
-				// Write the compressed bitmap at the compressed file destination
-				scaledBitmap.compress(compressFormat, quality, out);
-			}
-		} catch (FileNotFoundException e) {
-			UtilLogger.e("ImageUtils", "compressImage(" + filePath + ", " + maxWidth + ", " + maxHeight + ", " + quality + ", "
-				+ compressFormat.toString() + ") File Not Found Exception compressing the scaled bitmap");
-		} finally {
-			if (out != null) {
-				try {
-					out.close();
-				} catch (IOException e) {
-					UtilLogger.e("ImageUtils:", "compressImage(" + filePath + ", " + maxWidth + ", " + maxHeight + ", " + quality + ", "
-						+ compressFormat.toString() + ") IO Exception closing File Output Stream! " + e.getLocalizedMessage());
-				}
-			}
-		}
-
-		return file;
+		return scaledBitmap;
 	}
 
 	/**
@@ -321,6 +473,141 @@ public class ImageUtils {
 		return contentResolver.insert(Media.EXTERNAL_CONTENT_URI, values);
 	}
 
+	/**
+	 * Compresses the image referenced by the provided {@link Uri} and publishes the result straight
+	 * into the systems External Content Media Store, without writing a temporary file. The Media Store
+	 * entry is created first and the scaled bitmap is encoded directly into the providers output
+	 * stream, after which the remaining meta data fields are populated with a single update. If the
+	 * image cannot be encoded the partially created entry is removed.
+	 *
+	 * This method requires the user to have granted the app the {@link permission#WRITE_EXTERNAL_STORAGE}
+	 * permission which will require this method call to be surrounded by a method name that begins
+	 * with "check" and ends with "permission".
+	 *
+	 * @param context	{@link Context}
+	 * @param imageUri	{@link Uri} reference to the original image
+	 * @param maxWidth	Maximum width of the compressed image
+	 * @param maxHeight	Maximum height of the compressed image
+	 * @param quality	Hint to the compressor, 0-100. 0 meaning compress for small size, 100 meaning
+	 * 					compress for max quality. Some formats, like PNG which is lossless, will
+	 * 					ignore the quality setting
+	 * @param compressFormat	The format of the compressed image
+	 * @param title	{@link String} Title of the Image, often the File name
+	 * @param displayName	{@link String} Display Name of the Image
+	 * @param description	{@link String} Description of the Image, or null
+	 * @return	{@link Uri} of the compressed image within the Media Store, or null
+	 */
+	@Nullable
+	@RequiresPermission(permission.WRITE_EXTERNAL_STORAGE)
+	public static Uri compressImageToGallery(@NonNull Context context, @NonNull Uri imageUri, float maxWidth,
+			float maxHeight, @IntRange(from=1,to=100) int quality, @NonNull CompressFormat compressFormat,
+			@NonNull String title, @NonNull String displayName, @Nullable String description) {
+
+		Bitmap scaledBitmap = null;
+		ParcelFileDescriptor descriptor = null;
+		try {
+			descriptor = context.getContentResolver().openFileDescriptor(imageUri, "r");
+			if (descriptor != null) {
+				scaledBitmap = decodeScaledBitmap(context, new FileInputStream(descriptor.getFileDescriptor()),
+					imageUri, imageUri.toString(), maxWidth, maxHeight);
+			}
+		} catch (FileNotFoundException e) {
+			UtilLogger.e("ImageUtils", "compressImageToGallery(" + imageUri + ", " + maxWidth + ", " + maxHeight + ", "
+				+ quality + ", " + compressFormat.toString() + ") File Not Found Exception opening image descriptor");
+		} finally {
+			if (descriptor != null) {
+				try {
+					descriptor.close();
+				} catch (IOException e) {
+					UtilLogger.e("ImageUtils", "compressImageToGallery(" + imageUri + ", " + maxWidth + ", " + maxHeight + ", "
+						+ quality + ", " + compressFormat.toString() + ") IO Exception closing image descriptor! " + e.getLocalizedMessage());
+				}
+			}
+		}
+
+		if (scaledBitmap == null) {
+			UtilLogger.e("ImageUtils", "compressImageToGallery(" + imageUri + ", " + maxWidth + ", " + maxHeight + ", "
+				+ quality + ", " + compressFormat.toString() + ") Unable to compress image");
+			return null;
+		}
+
+		return storeBitmapInDeviceGallery(context.getContentResolver(), scaledBitmap, quality, compressFormat,
+			title, displayName, description);
+	}
+
+	/**
+	 * Encodes a {@link Bitmap} directly into a newly created External Content Media Store entry. The
+	 * entry is inserted with the display name and mime type so the provider can allocate its backing
+	 * file, the bitmap is then compressed into the providers output stream, and finally the title,
+	 * description, dimensions and date fields are written with one {@link ContentValues} update.
+	 *
+	 * @param contentResolver	{@link ContentResolver} Used to insert the data into the Media Store
+	 * @param bitmap	{@link Bitmap} to encode into the Media Store
+	 * @param quality	Hint to the compressor, 0-100
+	 * @param compressFormat	The format of the encoded image
+	 * @param title	{@link String} Title of the Image, often the File name
+	 * @param displayName	{@link String} Display Name of the Image
+	 * @param description	{@link String} Description of the Image, or null
+	 * @return	{@link Uri} of the image within the Media Store if successfully stored, else null
+	 */
+	@Nullable
+	@RequiresPermission(permission.WRITE_EXTERNAL_STORAGE)
+	public static Uri storeBitmapInDeviceGallery(@NonNull ContentResolver contentResolver, @NonNull Bitmap bitmap,
+			@IntRange(from=1,to=100) int quality, @NonNull CompressFormat compressFormat, @NonNull String title,
+			@NonNull String displayName, @Nullable String description) {
+
+		ContentValues values = new ContentValues();
+		values.put(MediaStore.Images.Media.DISPLAY_NAME, displayName);
+		values.put(MediaStore.Images.Media.MIME_TYPE, getMimeType(compressFormat));
+
+		Uri uri = contentResolver.insert(Media.EXTERNAL_CONTENT_URI, values);
+		if (uri == null) {
+			UtilLogger.e("ImageUtils", "storeBitmapInDeviceGallery(" + displayName + ") Unable to insert Media Store entry");
+			return null;
+		}
+
+		boolean stored = false;
+		OutputStream out = null;
+		try {
+			out = contentResolver.openOutputStream(uri);
+			if (out != null) {
+				// Encode straight into the provider, there is no intermediate file to clean up
+				stored = bitmap.compress(compressFormat, quality, out);
+			}
+		} catch (FileNotFoundException e) {
+			UtilLogger.e("ImageUtils", "storeBitmapInDeviceGallery(" + displayName
+				+ ") File Not Found Exception opening Media Store output stream");
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					stored = false;
+					UtilLogger.e("ImageUtils", "storeBitmapInDeviceGallery(" + displayName
+						+ ") IO Exception closing Media Store output stream! " + e.getLocalizedMessage());
+				}
+			}
+		}
+
+		if (!stored) {
+			contentResolver.delete(uri, null, null);
+			return null;
+		}
+
+		long now = System.currentTimeMillis();
+		values.clear();
+		values.put(MediaStore.Images.Media.TITLE, title);
+		values.put(MediaStore.Images.Media.DESCRIPTION, description == null ? "" : description);
+		values.put(MediaStore.Images.Media.DATE_ADDED, now / 1000);
+		values.put(MediaStore.Images.Media.DATE_MODIFIED, now / 1000);
+		values.put(MediaStore.Images.Media.DATE_TAKEN, now);
+		values.put(MediaStore.Images.Media.WIDTH, bitmap.getWidth());
+		values.put(MediaStore.Images.Media.HEIGHT, bitmap.getHeight());
+		contentResolver.update(uri, values, null, null);
+
+		return uri;
+	}
+
 	/**
 	 * Returns an {@link ArrayList} of {@link RecentImage} objects which contain the users most recent
 	 * local images stored in the {@link android.provider.MediaStore.Images} {@link android.content.ContentProvider}.
@@ -343,15 +630,7 @@ public class ImageUtils {
 
 		// Retrieve the image uris in a cursor
 		Uri uri = android.provider.MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-		String[] projection = new String[]{
-			Media._ID,
-			MediaStore.Images.Media.DATA,
-			MediaStore.Images.Media.DATE_TAKEN,
-			MediaStore.Images.Media.MIME_TYPE,
-			MediaStore.Images.Media.SIZE,
-			Media.DISPLAY_NAME
-		};
-		cursor = context.getContentResolver().query(uri, projection, null, null, null);
+		cursor = context.getContentResolver().query(uri, RECENT_IMAGE_PROJECTION, null, null, null);
 
 		if (cursor != null) {
 			// Iterate backwards through the cursor to retrieve the most recent images
@@ -368,6 +647,129 @@ public class ImageUtils {
 		return recents;
 	}
 
+	/**
+	 * Returns an {@link ArrayList} of {@link Album} objects describing each bucket (folder) of images
+	 * stored in the {@link android.provider.MediaStore.Images} {@link android.content.ContentProvider},
+	 * ordered so that the album containing the most recent image is first.
+	 *
+	 * The images are grouped by {@link Media#BUCKET_ID} within the provider itself, so only a single
+	 * row per album is returned containing the album name, image count, newest date taken and the id
+	 * of the newest image to be used as a cover. Should the provider refuse the grouped query then the
+	 * albums are aggregated from a minimal projection of the image table instead.
+	 *
+	 * This method requires the user to have granted the app the {@link permission#READ_EXTERNAL_STORAGE}
+	 * permission which will require this method call to be surrounded by a method name that begins
+	 * with "check" and ends with "permission".
+	 *
+	 * @param context	{@link Context}
+	 * @return	{@link ArrayList <Album>} Array containing an entry for every album on the device
+	 */
+	@RequiresPermission(permission.READ_EXTERNAL_STORAGE)
+	public static ArrayList<Album> getAlbums(@NonNull Context context) {
+		ArrayList<Album> albums = new ArrayList<>();
+		ContentResolver contentResolver = context.getContentResolver();
+		Cursor cursor = null;
+
+		// The selection closes the implicit WHERE clause early so the provider groups the rows by bucket,
+		// the bare _id column is then taken from the row holding the newest date taken in each group
+		String[] projection = new String[]{
+			Media.BUCKET_ID,
+			Media.BUCKET_DISPLAY_NAME,
+			Media._ID,
+			"MAX(" + Media.DATE_TAKEN + ") AS " + Album.COLUMN_NEWEST_DATE,
+			"COUNT(*) AS " + Album.COLUMN_COUNT
+		};
+		String selection = "1) GROUP BY (" + Media.BUCKET_ID;
+		try {
+			cursor = contentResolver.query(Media.EXTERNAL_CONTENT_URI, projection, selection, null,
+				Album.COLUMN_NEWEST_DATE + " DESC");
+		} catch (RuntimeException e) {
+			UtilLogger.d("ImageUtils", "getAlbums() Grouped query rejected by provider: " + e.getLocalizedMessage());
+		}
+
+		if (cursor != null) {
+			try {
+				while (cursor.moveToNext()) {
+					albums.add(new Album(cursor));
+				}
+			} finally {
+				cursor.close();
+			}
+			return albums;
+		}
+
+		// Fallback, aggregate the albums from the lightest possible projection sorted newest first, so
+		// the first row seen for each bucket is its cover and newest image
+		projection = new String[]{
+			Media.BUCKET_ID,
+			Media.BUCKET_DISPLAY_NAME,
+			Media._ID,
+			Media.DATE_TAKEN
+		};
+		cursor = contentResolver.query(Media.EXTERNAL_CONTENT_URI, projection, null, null,
+			Media.DATE_TAKEN + " DESC");
+		if (cursor != null) {
+			try {
+				int bucketIdIdx = cursor.getColumnIndex(Media.BUCKET_ID);
+				LinkedHashMap<Long, Album> buckets = new LinkedHashMap<>();
+				while (cursor.moveToNext()) {
+					long bucketId = cursor.getLong(bucketIdIdx);
+					Album album = buckets.get(bucketId);
+					if (album == null) {
+						album = new Album(cursor);
+						buckets.put(bucketId, album);
+					}
+					album.setCount(album.getCount() + 1);
+				}
+				albums.addAll(buckets.values());
+			} finally {
+				cursor.close();
+			}
+		}
+
+		return albums;
+	}
+
+	/**
+	 * Returns a page of {@link RecentImage} objects for the images within a single album, as returned
+	 * by {@link ImageUtils#getAlbums(Context)}. Images are ordered most recent first, and only the rows
+	 * matching the albums {@link Media#BUCKET_ID} are queried from the provider.
+	 *
+	 * This method requires the user to have granted the app the {@link permission#READ_EXTERNAL_STORAGE}
+	 * permission which will require this method call to be surrounded by a method name that begins
+	 * with "check" and ends with "permission".
+	 *
+	 * @param context	{@link Context}
+	 * @param bucketId	Bucket ID of the album, see {@link Album#getBucketId()}
+	 * @param offset	Position of the first image to return within the album
+	 * @param pageSize	Maximum number of images to return
+	 * @return	{@link ArrayList <RecentImage>} Array containing the requested page of album images
+	 */
+	@RequiresPermission(permission.READ_EXTERNAL_STORAGE)
+	public static ArrayList<RecentImage> getAlbumImages(@NonNull Context context, long bucketId,
+			@IntRange(from=0) int offset, @IntRange(from=0) int pageSize) {
+
+		ArrayList<RecentImage> images = new ArrayList<>();
+		String selection = Media.BUCKET_ID + "=?";
+		String[] selectionArgs = new String[]{String.valueOf(bucketId)};
+		Cursor cursor = context.getContentResolver().query(Media.EXTERNAL_CONTENT_URI, RECENT_IMAGE_PROJECTION,
+			selection, selectionArgs, Media.DATE_TAKEN + " DESC");
+
+		if (cursor != null) {
+			try {
+				if (pageSize > 0 && cursor.moveToPosition(offset)) {
+					do {
+						images.add(new RecentImage(cursor));
+					} while (images.size() < pageSize && cursor.moveToNext());
+				}
+			} finally {
+				cursor.close();
+			}
+		}
+
+		return images;
+	}
+
 	/**
 	 * Calculates the proper value for inSampleSize based on the actual and required dimensions of the Bitmap.
 	 * If > 1 then the Bitmap decoder will downscale the original bitmap image, this value is the number
@@ -433,7 +835,7 @@ public class ImageUtils {
 				}
 			}
 
-			String filename = FileUtils.getTimestampFileName() + "_COMPRESSED" + fileExtension;
+			String filename = FileUtils.getUniqueFileName() + "_COMPRESSED" + fileExtension;
 			File file = new File(directory, filename);
 			UtilLogger.d("ImageUtils", "createCompressedImageFile(" + compressFormat.toString()
 				+ ") Successfully created file: " + file.getAbsolutePath());
@@ -453,7 +855,7 @@ public class ImageUtils {
 	 * @return	{@link String} File directory for compressed images
 	 */
 	@Nullable
-	private static String getCompressedDirectory(@NonNull Context context) {
+	static String getCompressedDirectory(@NonNull Context context) {
 		File cacheDir = context.getCacheDir();
 		if (cacheDir != null && cacheDir.isDirectory()) {
 			return cacheDir.getAbsolutePath() + "/.compressed";
@@ -461,6 +863,39 @@ public class ImageUtils {
 		return null;
 	}
 
+	/**
+	 * Returns the mime type written by the provided {@link CompressFormat}
+	 *
+	 * @param compressFormat	{@link CompressFormat} of the image
+	 * @return	{@link String} Mime type e.g. "image/jpeg"
+	 */
+	@NonNull
+	private static String getMimeType(@NonNull CompressFormat compressFormat) {
+		if (compressFormat.equals(CompressFormat.PNG)) {
+			return "image/png";
+		} else if (compressFormat.equals(CompressFormat.WEBP)) {
+			return "image/webp";
+		}
+		return "image/jpeg";
+	}
+
+	/**
+	 * Returns the common directory for cached thumbnails, this is used by the
+	 * {@link ImageUtils#getThumbnailFile(Context, long, File, int, int)} method and stores the
+	 * thumbnails in an app local cache directory.
+	 *
+	 * @param context	{@link Context}
+	 * @return	{@link String} File directory for thumbnails
+	 */
+	@Nullable
+	static String getThumbnailDirectory(@NonNull Context context) {
+		File cacheDir = context.getCacheDir();
+		if (cacheDir != null && cacheDir.isDirectory()) {
+			return cacheDir.getAbsolutePath() + "/.thumbnails";
+		}
+		return null;
+	}
+
 	@Nullable
 	public static Uri createImageUriFromExternalUri(Context context, Uri uri) {
 		InputStream is = null;
@@ -494,24 +929,89 @@ public class ImageUtils {
 	public static byte[] getThumbnailFromVideoFile(@NonNull File videoFile) {
 		Bitmap thumbnail = ThumbnailUtils.createVideoThumbnail(
 			videoFile.getAbsolutePath(), MediaStore.Images.Thumbnails.MINI_KIND);
-		ByteArrayOutputStream stream = new ByteArrayOutputStream();
-		thumbnail.compress(CompressFormat.JPEG, 100, stream);
-		return stream.toByteArray();
+		PooledByteArrayOutputStream stream = new PooledByteArrayOutputStream();
+		try {
+			thumbnail.compress(CompressFormat.JPEG, 100, stream);
+			return stream.toByteArray();
+		} finally {
+			stream.close();
+		}
 	}
 
+	@Nullable
 	public static byte[] getThumbnailFromImageFile(@NonNull File imageFile,
 			@IntRange(from=0) int width, @IntRange(from=0) int height) {
 
 		final BitmapFactory.Options options = new BitmapFactory.Options();
 		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			return null;
+		}
 		options.inSampleSize = calculateInSampleSize(options, width, height);
 		options.inJustDecodeBounds = false;
 
-		Bitmap thumbnail = ThumbnailUtils.extractThumbnail(BitmapFactory.decodeFile(
-			imageFile.getAbsolutePath(), options), width, height);
-		ByteArrayOutputStream stream = new ByteArrayOutputStream();
-		thumbnail.compress(CompressFormat.JPEG, 100, stream);
-		return stream.toByteArray();
+		Bitmap decoded = BitmapFactory.decodeFile(imageFile.getAbsolutePath(), options);
+		if (decoded == null) {
+			return null;
+		}
+
+		Bitmap thumbnail = ThumbnailUtils.extractThumbnail(decoded, width, height);
+		PooledByteArrayOutputStream stream = new PooledByteArrayOutputStream();
+		try {
+			thumbnail.compress(CompressFormat.JPEG, 100, stream);
+			return stream.toByteArray();
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Returns a cached thumbnail {@link File} for a {@link MediaStore} image, generating it through
+	 * {@link ImageUtils#getThumbnailFromImageFile(File, int, int)} if it does not exist yet or the
+	 * original image has been modified since it was created. Thumbnails are stored in an app local
+	 * cache directory and keyed by the image id and requested dimensions, so they can be generated
+	 * ahead of time by the {@link ThumbnailPregenerator}.
+	 *
+	 * @param context	{@link Context}
+	 * @param imageId	{@link Media#_ID} of the original image
+	 * @param imageFile	{@link File} of the original image
+	 * @param width	Width of the thumbnail
+	 * @param height	Height of the thumbnail
+	 * @return	{@link File} containing the thumbnail, or null if it could not be created
+	 */
+	@Nullable
+	public static File getThumbnailFile(@NonNull Context context, long imageId, @NonNull File imageFile,
+			@IntRange(from=1) int width, @IntRange(from=1) int height) {
+
+		String directoryPath = getThumbnailDirectory(context);
+		if (directoryPath == null) {
+			return null;
+		}
+
+		File directory = new File(directoryPath);
+		if (!directory.exists() && !directory.mkdirs()) {
+			UtilLogger.e("ImageUtils", "getThumbnailFile(" + imageId + ") Unable to create thumbnail directory");
+			return null;
+		}
+
+		File thumbnailFile = new File(directory, imageId + "_" + width + "x" + height + ".jpg");
+		if (thumbnailFile.exists() && thumbnailFile.lastModified() >= imageFile.lastModified()) {
+			return thumbnailFile;
+		}
+
+		byte[] thumbnail = getThumbnailFromImageFile(imageFile, width, height);
+		if (thumbnail == null) {
+			return null;
+		}
+
+		try {
+			return FileUtils.writeFile(thumbnail, thumbnailFile.getAbsolutePath());
+		} catch (IOException e) {
+			UtilLogger.e("ImageUtils", "getThumbnailFile(" + imageId + ") IO Exception writing thumbnail: "
+				+ e.getLocalizedMessage());
+		}
+		return null;
 	}
 
 	/**
@@ -671,4 +1171,236 @@ public class ImageUtils {
 				'}';
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Data class to wrap information about an album of images within the {@link MediaStore}, as
+	 * retrieved from the {@link ImageUtils#getAlbums(Context)} method.
+	 *
+	 * @author David Jones
+	 * @version 1.0
+	 */
+	public static class Album implements Parcelable {
+		static final String COLUMN_NEWEST_DATE = "newest_date";
+		static final String COLUMN_COUNT = "image_count";
+
+		private long mBucketId;
+		private String mName;
+		private int mCount;
+		private long mNewestDate = -1;
+		private long mCoverId = -1;
+
+		/**
+		 * Creates an Album object from the Media Store cursor, when available the class variables
+		 * are retrieved from the cursor data and set on the object.
+		 *
+		 * @param cursor	{@link Cursor} from the {@link MediaStore}
+		 */
+		public Album(@NonNull Cursor cursor) {
+			int bucketIdIdx = cursor.getColumnIndex(Media.BUCKET_ID);
+			int nameIdx = cursor.getColumnIndex(Media.BUCKET_DISPLAY_NAME);
+			int coverIdIdx = cursor.getColumnIndex(Media._ID);
+			int newestDateIdx = cursor.getColumnIndex(COLUMN_NEWEST_DATE);
+			if (newestDateIdx == -1) {
+				newestDateIdx = cursor.getColumnIndex(Media.DATE_TAKEN);
+			}
+			int countIdx = cursor.getColumnIndex(COLUMN_COUNT);
+
+			if (bucketIdIdx != -1) {
+				setBucketId(cursor.getLong(bucketIdIdx));
+			}
+			if (nameIdx != -1) {
+				setName(cursor.getString(nameIdx));
+			}
+			if (coverIdIdx != -1) {
+				setCoverId(cursor.getLong(coverIdIdx));
+			}
+			if (newestDateIdx != -1) {
+				setNewestDate(cursor.getLong(newestDateIdx));
+			}
+			if (countIdx != -1) {
+				setCount(cursor.getInt(countIdx));
+			}
+		}
+
+		/** Returns the Bucket ID of the Album **/
+		public long getBucketId() {
+			return mBucketId;
+		}
+
+		/** Sets the Bucket ID of the Album **/
+		public void setBucketId(long bucketId) {
+			mBucketId = bucketId;
+		}
+
+		/** Returns the Display Name of the Album **/
+		public String getName() {
+			return mName;
+		}
+
+		/** Sets the Display Name of the Album **/
+		public void setName(String name) {
+			mName = name;
+		}
+
+		/** Returns the number of Images within the Album **/
+		public int getCount() {
+			return mCount;
+		}
+
+		/** Sets the number of Images within the Album **/
+		public void setCount(int count) {
+			mCount = count;
+		}
+
+		/** Returns the Date Taken of the newest Image within the Album **/
+		public long getNewestDate() {
+			return mNewestDate;
+		}
+
+		/** Sets the Date Taken of the newest Image within the Album **/
+		public void setNewestDate(long newestDate) {
+			mNewestDate = newestDate;
+		}
+
+		/** Returns the ID of the Image used as the Album cover **/
+		public long getCoverId() {
+			return mCoverId;
+		}
+
+		/** Sets the ID of the Image used as the Album cover **/
+		public void setCoverId(long coverId) {
+			mCoverId = coverId;
+		}
+
+		/** Returns the Media Store {@link Uri} of the Image used as the Album cover **/
+		public Uri getCoverUri() {
+			return ContentUris.withAppendedId(Media.EXTERNAL_CONTENT_URI, mCoverId);
+		}
+
+		@Override
+		public int describeContents() {
+			return 0;
+		}
+
+		@Override
+		public void writeToParcel(Parcel dest, int flags) {
+			dest.writeLong(this.mBucketId);
+			dest.writeString(this.mName);
+			dest.writeInt(this.mCount);
+			dest.writeLong(this.mNewestDate);
+			dest.writeLong(this.mCoverId);
+		}
+
+		protected Album(Parcel in) {
+			this.mBucketId = in.readLong();
+			this.mName = in.readString();
+			this.mCount = in.readInt();
+			this.mNewestDate = in.readLong();
+			this.mCoverId = in.readLong();
+		}
+
+		public static final Creator<Album> CREATOR = new Creator<Album>() {
+			@Override
+			public Album createFromParcel(Parcel source) {
+				return new Album(source);
+			}
+
+			@Override
+			public Album[] newArray(int size) {
+				return new Album[size];
+			}
+		};
+
+		@Override
+		public String toString() {
+			return "Album{" +
+				"mBucketId=" + mBucketId +
+				", mName='" + mName + '\'' +
+				", mCount=" + mCount +
+				", mNewestDate=" + mNewestDate +
+				", mCoverId=" + mCoverId +
+				'}';
+		}
+	}
+
+	/**
+	 * Source of an image which can be read from its start once for each decoding pass.
+	 */
+	private interface ImageSource {
+
+		/** Decodes the image with the provided options, returning null if only the bounds were decoded **/
+		@Nullable
+		Bitmap decode(@NonNull BitmapFactory.Options options) throws IOException;
+
+		/** Returns the image's EXIF orientation, or 0 if it has none **/
+		int readOrientation() throws IOException;
+	}
+
+	/**
+	 * Reads an image through a seekable file descriptor, rewinding it before each pass.
+	 */
+	private static class DescriptorImageSource implements ImageSource {
+		private final FileInputStream mIn;
+
+		DescriptorImageSource(@NonNull FileInputStream in) {
+			mIn = in;
+		}
+
+		@Nullable
+		@Override
+		public Bitmap decode(@NonNull BitmapFactory.Options options) throws IOException {
+			mIn.getChannel().position(0);
+			return BitmapFactory.decodeFileDescriptor(mIn.getFD(), null, options);
+		}
+
+		@Override
+		public int readOrientation() throws IOException {
+			mIn.getChannel().position(0);
+			return new ExifInterface(mIn).getAttributeInt(ExifInterface.TAG_ORIENTATION, 0);
+		}
+	}
+
+	/**
+	 * Reads an image by opening a new stream from its {@link Uri} for each pass, for providers whose
+	 * descriptors cannot seek.
+	 */
+	private static class UriImageSource implements ImageSource {
+		private final ContentResolver mResolver;
+		private final Uri mUri;
+
+		UriImageSource(@NonNull ContentResolver resolver, @NonNull Uri uri) {
+			mResolver = resolver;
+			mUri = uri;
+		}
+
+		@Nullable
+		@Override
+		public Bitmap decode(@NonNull BitmapFactory.Options options) throws IOException {
+			InputStream in = open();
+			try {
+				return BitmapFactory.decodeStream(in, null, options);
+			} finally {
+				FileUtils.closeQuietly(in);
+			}
+		}
+
+		@Override
+		public int readOrientation() throws IOException {
+			InputStream in = open();
+			try {
+				return new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION, 0);
+			} finally {
+				FileUtils.closeQuietly(in);
+			}
+		}
+
+		@NonNull
+		private InputStream open() throws IOException {
+			InputStream in = mResolver.openInputStream(mUri);
+			if (in == null) {
+				throw new FileNotFoundException("Unable to open input stream for " + mUri);
+			}
+			return in;
+		}
+	}
+}
@@ -0,0 +1,355 @@
+package com.bosh.utils;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Random access to the lines of a large text file, such as a log or CSV export, without reading the
+ * whole file into memory. The file is memory mapped and scanned once to build an index holding the
+ * offset of each line in a single long array, after which any line can be decoded on its own by its
+ * line number, and the most recent lines read in reverse.
+ *
+ * Lines are separated by "\n", with a trailing "\r" removed. As a file grows, {@link #refresh()}
+ * scans only the appended bytes and extends the index. If the file is truncated, e.g. when a log is
+ * rotated, or replaced by another file renamed over it, as {@link FileUtils#writeToFile} does, the
+ * file is opened again and the index rebuilt. Lines cannot be read from a file truncated in place
+ * until it has been refreshed.
+ *
+ * All methods are thread safe, but indexing and reading touch the disk so should not be called
+ * from the main thread.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class IndexedLineReader implements Closeable {
+
+	/** Size of each region of the file mapped into memory **/
+	private static final long MAPPED_REGION_SIZE = 64 * MemoryUnit.MB;
+	/** Size of the buffer each region is scanned through **/
+	private static final int SCAN_BUFFER_SIZE = 64 * MemoryUnit.KB;
+	private static final int INITIAL_INDEX_CAPACITY = 1024;
+
+	private final File mFile;
+	private final Charset mCharset;
+	private RandomAccessFile mRandomAccessFile;
+	private FileChannel mChannel;
+	private final List<MappedByteBuffer> mRegions = new ArrayList<>();
+
+	/** Offset of the start of each line, followed by the offset after the last line break **/
+	private long[] mLineStarts = new long[INITIAL_INDEX_CAPACITY];
+	private int mLineStartCount;
+	/** Number of bytes of the file indexed so far **/
+	private long mIndexedLength;
+	/** Last modified time of the file when it was last indexed **/
+	private long mIndexedLastModified;
+
+	/**
+	 * Opens a UTF-8 encoded file and indexes its lines.
+	 *
+	 * @param file	{@link File} to read
+	 * @throws IOException	If the file cannot be read
+	 */
+	@WorkerThread
+	public IndexedLineReader(@NonNull File file) throws IOException {
+		this(file, Charset.forName("UTF-8"));
+	}
+
+	/**
+	 * Opens a file and indexes its lines.
+	 *
+	 * @param file	{@link File} to read
+	 * @param charset	{@link Charset} the file is encoded with, which must encode "\n" as a single
+	 *                  byte, such as UTF-8 or ISO-8859-1
+	 * @throws IOException	If the file cannot be read
+	 */
+	@WorkerThread
+	public IndexedLineReader(@NonNull File file, @NonNull Charset charset) throws IOException {
+		mFile = file;
+		mCharset = charset;
+		mRandomAccessFile = new RandomAccessFile(file, "r");
+		mChannel = mRandomAccessFile.getChannel();
+		mLineStarts[0] = 0;
+		mLineStartCount = 1;
+		mIndexedLastModified = file.lastModified();
+		try {
+			refresh();
+		} catch (IOException e) {
+			FileUtils.closeQuietly(mRandomAccessFile);
+			throw e;
+		}
+	}
+
+	/** Returns the {@link File} being read **/
+	@NonNull
+	public File getFile() {
+		return mFile;
+	}
+
+	/** Returns the number of lines indexed, including a final line without a line break **/
+	public synchronized int getLineCount() {
+		long lastStart = mLineStarts[mLineStartCount - 1];
+		return lastStart < mIndexedLength ? mLineStartCount : mLineStartCount - 1;
+	}
+
+	/**
+	 * Indexes any bytes appended to the file since it was last indexed. If the file has been truncated
+	 * or replaced it is opened again and indexed from the start.
+	 *
+	 * @return	Number of lines indexed
+	 * @throws IOException	If the file cannot be read
+	 */
+	@WorkerThread
+	public synchronized int refresh() throws IOException {
+		if (isReplaced()) {
+			reopen();
+		}
+		long size = mChannel.size();
+		if (size < mIndexedLength) {
+			clearIndex();
+		}
+		if (size > mIndexedLength) {
+			scan(mIndexedLength, size);
+			mIndexedLength = size;
+		}
+		mIndexedLastModified = mFile.lastModified();
+		return getLineCount();
+	}
+
+	/**
+	 * Returns the offset in bytes of the start of a line.
+	 *
+	 * @param index	Line number, starting from 0
+	 * @return	Offset in bytes within the file
+	 */
+	public synchronized long getLineOffset(@IntRange(from=0) int index) {
+		checkIndex(index);
+		return mLineStarts[index];
+	}
+
+	/**
+	 * Decodes a single line.
+	 *
+	 * @param index	Line number, starting from 0
+	 * @return	Line without its line break
+	 * @throws IOException	If the file cannot be read
+	 */
+	@NonNull
+	@WorkerThread
+	public synchronized String getLine(@IntRange(from=0) int index) throws IOException {
+		checkIndex(index);
+		checkNotTruncated();
+		return decodeLine(index);
+	}
+
+	/**
+	 * Decodes a range of lines, in file order.
+	 *
+	 * @param from	Line number of the first line, starting from 0
+	 * @param count	Maximum number of lines to decode
+	 * @return	{@link List} of lines, shorter than the count if the end of the file is reached
+	 * @throws IOException	If the file cannot be read
+	 */
+	@NonNull
+	@WorkerThread
+	public synchronized List<String> getLines(@IntRange(from=0) int from, @IntRange(from=0) int count)
+			throws IOException {
+		int end = (int) Math.min((long) from + count, getLineCount());
+		checkNotTruncated();
+		List<String> lines = new ArrayList<>(Math.max(0, end - from));
+		for (int i = from; i < end; i++) {
+			lines.add(decodeLine(i));
+		}
+		return lines;
+	}
+
+	/**
+	 * Decodes the last lines of the file, newest first.
+	 *
+	 * @param count	Maximum number of lines to decode
+	 * @return	{@link List} of lines starting from the last line
+	 * @throws IOException	If the file cannot be read
+	 */
+	@NonNull
+	@WorkerThread
+	public List<String> tail(@IntRange(from=0) int count) throws IOException {
+		return tail(0, count);
+	}
+
+	/**
+	 * Decodes lines in reverse order, for paging back through a file from its end.
+	 *
+	 * @param skip	Number of lines to skip from the end of the file
+	 * @param count	Maximum number of lines to decode
+	 * @return	{@link List} of lines, newest first
+	 * @throws IOException	If the file cannot be read
+	 */
+	@NonNull
+	@WorkerThread
+	public synchronized List<String> tail(@IntRange(from=0) int skip, @IntRange(from=0) int count)
+			throws IOException {
+		int last = getLineCount() - 1 - skip;
+		int first = Math.max(0, last - count + 1);
+		checkNotTruncated();
+		List<String> lines = new ArrayList<>(Math.max(0, last - first + 1));
+		for (int i = last; i >= first; i--) {
+			lines.add(decodeLine(i));
+		}
+		return lines;
+	}
+
+	/**
+	 * Closes the file, the mapped regions are released once garbage collected.
+	 */
+	@Override
+	public synchronized void close() {
+		mRegions.clear();
+		FileUtils.closeQuietly(mRandomAccessFile);
+	}
+
+	/**
+	 * Returns true if the path no longer refers to the open file, or the file has been rewritten
+	 * without growing. A file renamed over the path has a different length to the open file, unless
+	 * both are the same length, in which case its modified time differs. A deleted file is kept open
+	 * until another takes its place.
+	 */
+	private boolean isReplaced() throws IOException {
+		long pathLength = mFile.length();
+		if (pathLength == 0 && !mFile.exists()) {
+			return false;
+		}
+		return pathLength != mChannel.size()
+			|| (pathLength == mIndexedLength && mFile.lastModified() != mIndexedLastModified);
+	}
+
+	/**
+	 * Opens the file at the path again, discarding the index of the previous file.
+	 */
+	private void reopen() throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "r");
+		FileUtils.closeQuietly(mRandomAccessFile);
+		mRandomAccessFile = randomAccessFile;
+		mChannel = randomAccessFile.getChannel();
+		clearIndex();
+	}
+
+	private void clearIndex() {
+		mRegions.clear();
+		mLineStartCount = 1;
+		mIndexedLength = 0;
+	}
+
+	/**
+	 * Throws if the open file is now shorter than the indexed length, as reading a mapped region past
+	 * the end of a truncated file crashes the process rather than throwing.
+	 */
+	private void checkNotTruncated() throws IOException {
+		if (mChannel.size() < mIndexedLength) {
+			throw new IOException("File truncated since it was indexed, refresh() before reading: "
+				+ mFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Scans the bytes between the provided offsets for line breaks, recording the start of each line
+	 * which follows one.
+	 */
+	private void scan(long start, long end) throws IOException {
+		byte[] buffer = BufferPool.acquire(SCAN_BUFFER_SIZE);
+		try {
+			long position = start;
+			while (position < end) {
+				ByteBuffer region = getRegion(position, end);
+				int length = (int) Math.min(buffer.length, Math.min(region.remaining(), end - position));
+				region.get(buffer, 0, length);
+				for (int i = 0; i < length; i++) {
+					if (buffer[i] == '\n') {
+						addLineStart(position + i + 1);
+					}
+				}
+				position += length;
+			}
+		} finally {
+			BufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * Decodes a line, copying its bytes out of the mapped regions it spans.
+	 */
+	@NonNull
+	private String decodeLine(int index) throws IOException {
+		long start = mLineStarts[index];
+		long end = index + 1 < mLineStartCount ? mLineStarts[index + 1] - 1 : mIndexedLength;
+		long length = end - start;
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Line too long to decode: " + index);
+		}
+
+		byte[] bytes = BufferPool.acquire((int) length);
+		try {
+			int copied = 0;
+			while (copied < length) {
+				ByteBuffer region = getRegion(start + copied, end);
+				int count = (int) Math.min(region.remaining(), length - copied);
+				region.get(bytes, copied, count);
+				copied += count;
+			}
+			if (copied > 0 && bytes[copied - 1] == '\r') {
+				copied--;
+			}
+			return new String(bytes, 0, copied, mCharset);
+		} finally {
+			BufferPool.release(bytes);
+		}
+	}
+
+	/**
+	 * Returns a view of the mapped region containing the offset, positioned at the offset. Regions
+	 * are mapped on first use, and mapped again if the file has grown past their end.
+	 */
+	@NonNull
+	private ByteBuffer getRegion(long offset, long requiredEnd) throws IOException {
+		int index = (int) (offset / MAPPED_REGION_SIZE);
+		long regionStart = index * MAPPED_REGION_SIZE;
+		long regionEnd = Math.min(regionStart + MAPPED_REGION_SIZE, Math.max(requiredEnd, mIndexedLength));
+
+		while (mRegions.size() <= index) {
+			mRegions.add(null);
+		}
+		MappedByteBuffer region = mRegions.get(index);
+		if (region == null || regionStart + region.capacity() < regionEnd) {
+			region = mChannel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionEnd - regionStart);
+			mRegions.set(index, region);
+		}
+
+		ByteBuffer view = region.duplicate();
+		view.position((int) (offset - regionStart));
+		return view;
+	}
+
+	private void addLineStart(long offset) {
+		if (mLineStartCount == mLineStarts.length) {
+			mLineStarts = Arrays.copyOf(mLineStarts, mLineStarts.length + (mLineStarts.length >> 1));
+		}
+		mLineStarts[mLineStartCount++] = offset;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= getLineCount()) {
+			throw new IndexOutOfBoundsException("Line " + index + " of " + getLineCount());
+		}
+	}
+}
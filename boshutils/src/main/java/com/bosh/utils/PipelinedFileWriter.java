@@ -0,0 +1,363 @@
+package com.bosh.utils;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes an {@link InputStream}, such as a network response, to a {@link File} with reading and
+ * writing overlapped. The thread calling {@link #write()} reads from the stream into a small set of
+ * buffers borrowed from the {@link BufferPool}, while a dedicated I/O thread drains the filled
+ * buffers into the file's {@link FileChannel}. When the final length is known up front the file's
+ * blocks are reserved from Lollipop, so the file system doesn't have to allocate them on every write
+ * and a lack of space fails the write before the stream is read. Older devices, and file systems
+ * which can't reserve blocks, only have the file's length set, which leaves it sparse.
+ *
+ * Throughput metrics are available while and after writing, and {@link #start()} runs the whole
+ * pipeline in the background returning a {@link Future} which completes once the file is written.
+ * Each instance can only write once.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class PipelinedFileWriter {
+
+	private static final int DEFAULT_BUFFER_SIZE = 64 * MemoryUnit.KB;
+	private static final int DEFAULT_BUFFER_COUNT = 2;
+
+	/** Chunk queued to the I/O thread to signal the end of the stream **/
+	private static final Chunk END_OF_STREAM = new Chunk(new byte[0]);
+
+	private final InputStream mInput;
+	private final File mFile;
+	private final long mExpectedLength;
+	private final int mBufferSize;
+	private final int mBufferCount;
+	private final BlockingQueue<Chunk> mFreeChunks;
+	private final BlockingQueue<Chunk> mFilledChunks;
+
+	private final AtomicLong mBytesRead = new AtomicLong();
+	private final AtomicLong mBytesWritten = new AtomicLong();
+	private final AtomicLong mReadMillis = new AtomicLong();
+	private final AtomicLong mWriteMillis = new AtomicLong();
+	private volatile long mStartTime;
+	private volatile long mEndTime;
+	private volatile IOException mWriteError;
+	private boolean mStarted;
+
+	/**
+	 * Creates a writer for the provided stream and file, using two 64 KB buffers.
+	 *
+	 * @param input	{@link InputStream} to read, this is closed once the file has been written
+	 * @param file	{@link File} to write to, any existing content is replaced
+	 * @param expectedLength	Length of the stream in bytes if known, e.g. from a Content-Length header, else -1
+	 */
+	public PipelinedFileWriter(@NonNull InputStream input, @NonNull File file, long expectedLength) {
+		this(input, file, expectedLength, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+	}
+
+	/**
+	 * Creates a writer for the provided stream and file.
+	 *
+	 * @param input	{@link InputStream} to read, this is closed once the file has been written
+	 * @param file	{@link File} to write to, any existing content is replaced
+	 * @param expectedLength	Length of the stream in bytes if known, e.g. from a Content-Length header, else -1
+	 * @param bufferSize	Size in bytes of each buffer
+	 * @param bufferCount	Number of buffers shared between the reading and writing threads
+	 */
+	public PipelinedFileWriter(@NonNull InputStream input, @NonNull File file, long expectedLength,
+			@IntRange(from=1) int bufferSize, @IntRange(from=2) int bufferCount) {
+		mInput = input;
+		mFile = file;
+		mExpectedLength = expectedLength;
+		mBufferSize = bufferSize;
+		mBufferCount = bufferCount;
+		mFreeChunks = new ArrayBlockingQueue<>(bufferCount + 1);
+		mFilledChunks = new ArrayBlockingQueue<>(bufferCount + 1);
+	}
+
+	/**
+	 * Writes the stream to the file in the background, the stream is read on a new thread and the
+	 * file written on the writers I/O thread.
+	 *
+	 * @return	{@link Future} completing with the written {@link File}
+	 */
+	@NonNull
+	public Future<File> start() {
+		FutureTask<File> task = new FutureTask<>(new Callable<File>() {
+			@Override
+			public File call() throws Exception {
+				return write();
+			}
+		});
+		new Thread(task, "PipelinedFileWriter-Reader").start();
+		return task;
+	}
+
+	/**
+	 * Writes the stream to the file, reading on the calling thread while the writers I/O thread
+	 * writes to the file. Blocks until the file has been completely written. If the write fails the
+	 * partially written file is removed.
+	 *
+	 * @return	The written {@link File}
+	 * @throws IOException	If the stream cannot be read or the file cannot be written
+	 */
+	@NonNull
+	public File write() throws IOException {
+		synchronized (this) {
+			if (mStarted) {
+				throw new IllegalStateException("PipelinedFileWriter can only write once");
+			}
+			mStarted = true;
+		}
+
+		mStartTime = SystemClock.elapsedRealtime();
+		List<Chunk> chunks = new ArrayList<>(mBufferCount);
+		for (int i = 0; i < mBufferCount; i++) {
+			Chunk chunk = new Chunk(BufferPool.acquire(mBufferSize));
+			chunks.add(chunk);
+			mFreeChunks.add(chunk);
+		}
+
+		RandomAccessFile file = null;
+		FutureTask<Void> writer = null;
+		boolean success = false;
+		try {
+			file = new RandomAccessFile(mFile, "rw");
+			final FileChannel channel = file.getChannel();
+			if (mExpectedLength > 0) {
+				if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+					Preallocator.allocate(file, mExpectedLength);
+				}
+				file.setLength(mExpectedLength);
+			}
+
+			writer = new FutureTask<>(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					drain(channel);
+					return null;
+				}
+			});
+			new Thread(writer, "PipelinedFileWriter-Writer").start();
+
+			try {
+				fill();
+			} finally {
+				// Always release the I/O thread, even if reading failed part way
+				mFilledChunks.add(END_OF_STREAM);
+				awaitWriter(writer);
+			}
+
+			// Trim any preallocated space the stream didn't use
+			if (channel.size() != mBytesWritten.get()) {
+				file.setLength(mBytesWritten.get());
+			}
+			channel.force(false);
+			success = true;
+			return mFile;
+		} finally {
+			mEndTime = SystemClock.elapsedRealtime();
+			FileUtils.closeQuietly(file);
+			FileUtils.closeQuietly(mInput);
+			// Buffers can only be returned once the I/O thread is no longer using them
+			if (writer == null || writer.isDone()) {
+				for (Chunk chunk : chunks) {
+					BufferPool.release(chunk.mData);
+				}
+			}
+			if (!success && mFile.exists() && !mFile.delete()) {
+				UtilLogger.e("PipelinedFileWriter", "write() Unable to remove partial file: " + mFile.getAbsolutePath());
+			}
+		}
+	}
+
+	/** Returns the number of bytes read from the stream so far **/
+	public long getBytesRead() {
+		return mBytesRead.get();
+	}
+
+	/** Returns the number of bytes written to the file so far **/
+	public long getBytesWritten() {
+		return mBytesWritten.get();
+	}
+
+	/** Returns the time in milliseconds since writing started, up to when it finished **/
+	public long getElapsedMillis() {
+		if (mStartTime == 0) {
+			return 0;
+		}
+		long end = mEndTime == 0 ? SystemClock.elapsedRealtime() : mEndTime;
+		return end - mStartTime;
+	}
+
+	/** Returns the overall throughput in bytes per second, from the stream into the file **/
+	public long getThroughput() {
+		return bytesPerSecond(mBytesWritten.get(), getElapsedMillis());
+	}
+
+	/** Returns the throughput in bytes per second of the time spent reading from the stream **/
+	public long getReadThroughput() {
+		return bytesPerSecond(mBytesRead.get(), mReadMillis.get());
+	}
+
+	/** Returns the throughput in bytes per second of the time spent writing to the file **/
+	public long getWriteThroughput() {
+		return bytesPerSecond(mBytesWritten.get(), mWriteMillis.get());
+	}
+
+	/**
+	 * Reads the stream into free chunks, queuing each filled chunk for the I/O thread. Runs on the
+	 * reading thread.
+	 */
+	private void fill() throws IOException {
+		while (true) {
+			Chunk chunk = take(mFreeChunks);
+			throwIfWriteFailed();
+
+			long start = SystemClock.elapsedRealtime();
+			chunk.mLength = 0;
+			int read = 0;
+			// Fill the chunk as far as possible so the I/O thread writes in large blocks
+			while (chunk.mLength < chunk.mData.length
+					&& (read = mInput.read(chunk.mData, chunk.mLength, chunk.mData.length - chunk.mLength)) != -1) {
+				chunk.mLength += read;
+			}
+			mReadMillis.addAndGet(SystemClock.elapsedRealtime() - start);
+			mBytesRead.addAndGet(chunk.mLength);
+
+			if (chunk.mLength > 0) {
+				mFilledChunks.add(chunk);
+			} else {
+				mFreeChunks.add(chunk);
+			}
+			if (read == -1) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Writes filled chunks to the file channel until the end of the stream is reached, returning each
+	 * chunk to be refilled once written. Runs on the I/O thread.
+	 */
+	private void drain(@NonNull FileChannel channel) throws IOException {
+		try {
+			long position = 0;
+			while (true) {
+				Chunk chunk = take(mFilledChunks);
+				if (chunk == END_OF_STREAM) {
+					return;
+				}
+
+				long start = SystemClock.elapsedRealtime();
+				ByteBuffer buffer = ByteBuffer.wrap(chunk.mData, 0, chunk.mLength);
+				while (buffer.hasRemaining()) {
+					position += channel.write(buffer, position);
+				}
+				mWriteMillis.addAndGet(SystemClock.elapsedRealtime() - start);
+				mBytesWritten.addAndGet(chunk.mLength);
+				mFreeChunks.add(chunk);
+			}
+		} catch (IOException e) {
+			mWriteError = e;
+			// Unblock the reader so it notices the failure
+			mFreeChunks.add(new Chunk(new byte[0]));
+			throw e;
+		}
+	}
+
+	private void awaitWriter(@NonNull FutureTask<Void> writer) throws IOException {
+		try {
+			writer.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for file to be written");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Unable to write file", cause);
+		}
+	}
+
+	private void throwIfWriteFailed() throws IOException {
+		IOException error = mWriteError;
+		if (error != null) {
+			throw new IOException("Unable to write file", error);
+		}
+	}
+
+	@NonNull
+	private static Chunk take(@NonNull BlockingQueue<Chunk> queue) throws IOException {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted writing file");
+		}
+	}
+
+	private static long bytesPerSecond(long bytes, long millis) {
+		return millis <= 0 ? 0 : bytes * 1000 / millis;
+	}
+
+	/**
+	 * Holds the {@link Os} calls, and the catch of {@link ErrnoException}, in a class of their own so
+	 * older devices never load them.
+	 */
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	private static final class Preallocator {
+
+		/**
+		 * Reserves the file's blocks up to the length, failing if there isn't enough space. File systems
+		 * which don't support reserving blocks are left to allocate them as they are written.
+		 */
+		static void allocate(@NonNull RandomAccessFile file, long length) throws IOException {
+			try {
+				Os.posix_fallocate(file.getFD(), 0, length);
+			} catch (ErrnoException e) {
+				if (e.errno == OsConstants.ENOSPC) {
+					throw new IOException("Not enough space to write " + length + " bytes: " + e.getLocalizedMessage());
+				}
+				if (UtilLogger.isDebugLogsEnabled()) {
+					UtilLogger.d("PipelinedFileWriter", "allocate() Unable to reserve blocks: " + e.getLocalizedMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reusable buffer passed between the reading and writing threads.
+	 */
+	private static class Chunk {
+		final byte[] mData;
+		int mLength;
+
+		Chunk(@NonNull byte[] data) {
+			mData = data;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package com.bosh.utils;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable in memory {@link OutputStream}, like {@link java.io.ByteArrayOutputStream}, whose backing
+ * buffer is borrowed from the {@link BufferPool}. When the buffer fills a larger one is borrowed and
+ * the smaller returned, and {@link #close()} returns the final buffer, so encoding a bitmap or
+ * collecting a small file reuses the same memory across calls.
+ *
+ * The stream must be closed once finished with, and cannot be written to afterwards. It is not
+ * thread safe.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class PooledByteArrayOutputStream extends OutputStream {
+
+	private static final int DEFAULT_INITIAL_SIZE = 16 * MemoryUnit.KB;
+
+	private byte[] mBuffer;
+	private int mCount;
+
+	/**
+	 * Creates a stream with a 16 KB initial buffer.
+	 */
+	public PooledByteArrayOutputStream() {
+		this(DEFAULT_INITIAL_SIZE);
+	}
+
+	/**
+	 * Creates a stream with an initial buffer of at least the provided size, e.g. the expected length
+	 * of the content.
+	 *
+	 * @param initialSize	Initial size in bytes of the buffer
+	 */
+	public PooledByteArrayOutputStream(@IntRange(from=0) int initialSize) {
+		mBuffer = BufferPool.acquire(initialSize);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureCapacity(mCount + 1);
+		mBuffer[mCount++] = (byte) b;
+	}
+
+	@Override
+	public void write(@NonNull byte[] bytes, int offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset + length > bytes.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		ensureCapacity(mCount + length);
+		System.arraycopy(bytes, offset, mBuffer, mCount, length);
+		mCount += length;
+	}
+
+	/**
+	 * Writes the content of this stream to another {@link OutputStream}.
+	 *
+	 * @param out	{@link OutputStream} to write to
+	 * @throws IOException	If the stream cannot be written to
+	 */
+	public void writeTo(@NonNull OutputStream out) throws IOException {
+		checkOpen();
+		out.write(mBuffer, 0, mCount);
+	}
+
+	/** Returns the number of bytes written to the stream **/
+	public int size() {
+		return mCount;
+	}
+
+	/** Discards the content written so far, keeping the current buffer **/
+	public void reset() {
+		mCount = 0;
+	}
+
+	/**
+	 * Returns a copy of the content written to the stream, sized exactly to its length.
+	 *
+	 * @return	Content of the stream
+	 */
+	@NonNull
+	public byte[] toByteArray() {
+		checkOpen();
+		return Arrays.copyOf(mBuffer, mCount);
+	}
+
+	/**
+	 * Returns the buffer to the {@link BufferPool}, the content is no longer available afterwards.
+	 */
+	@Override
+	public void close() {
+		if (mBuffer != null) {
+			BufferPool.release(mBuffer);
+			mBuffer = null;
+		}
+	}
+
+	/**
+	 * Grows the buffer to hold at least the provided number of bytes, at least doubling it each time
+	 * so writing a large stream only copies its content a few times.
+	 */
+	private void ensureCapacity(int capacity) throws IOException {
+		checkOpen();
+		if (capacity < 0) {
+			throw new IOException("Content too large for a byte array");
+		}
+		if (capacity <= mBuffer.length) {
+			return;
+		}
+
+		int size = mBuffer.length << 1;
+		if (size < capacity || size < 0) {
+			size = capacity;
+		}
+		byte[] buffer = BufferPool.acquire(size);
+		System.arraycopy(mBuffer, 0, buffer, 0, mCount);
+		BufferPool.release(mBuffer);
+		mBuffer = buffer;
+	}
+
+	private void checkOpen() {
+		if (mBuffer == null) {
+			throw new IllegalStateException("PooledByteArrayOutputStream has been closed");
+		}
+	}
+}
@@ -1,11 +1,35 @@
 package com.bosh.utils;
 
+import android.content.Context;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.IntDef;
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import android.util.Base64;
+import android.util.Base64InputStream;
+import android.util.Base64OutputStream;
+import com.bosh.utils.FileCopier.ProgressListener;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
@@ -19,6 +43,21 @@ import javax.crypto.spec.SecretKeySpec;
  * AES 256 encryption algorithm. This class must be initialised with a password and a salt before
  * being able to encrypt and decrypt the data.
  *
+ * The key and IV are stretched from the password once, on first use, and held until {@link #destroy()}
+ * is called, so each call only pays for initialising the cipher. Instances are thread safe and should
+ * be reused rather than created per value.
+ *
+ * Large data should be streamed through {@link #encrypt(InputStream, OutputStream, int, ProgressListener, CancellationSignal)}
+ * and its counterparts rather than {@link #encryptEncodeFile(File)}, which holds the whole file and its
+ * ciphertext in memory. Streamed data passes through a pair of pooled buffers, so memory use stays
+ * the same whatever its size, and can be written as raw bytes or as Base64 matching
+ * {@link #encryptEncodeFile(File)}.
+ *
+ * Large {@link File}s can instead be sealed into a segmented container with
+ * {@link #encryptSegmented(File, File, int, ProgressListener, CancellationSignal)}, which authenticates
+ * each segment independently and encrypts them in parallel. Segments are bound to their position in
+ * the container, so one altered, moved or removed segment fails the whole decryption.
+ *
  * @author David Jones
  * @version 1.0
  */
@@ -36,8 +75,30 @@ public class SecurityUtils {
 	private static final String SECRET_KEY_ALGORITHM = "AES";
 	private static final String CIPHER_TRANSFORMATION = "AES/CBC/PKCS5Padding";
 
+	/** Size of the buffers data is streamed through **/
+	private static final int BUFFER_SIZE = 128 * MemoryUnit.KB;
+
+	/** Default segment size of a segmented container **/
+	public static final int DEFAULT_SEGMENT_SIZE = 256 * MemoryUnit.KB;
+
+	/**
+	 * Encoding of streamed ciphertext.
+	 */
+	@IntDef({Encoding.RAW, Encoding.BASE64})
+	@Retention(RetentionPolicy.SOURCE)
+	public @interface Encoding {
+		/** Ciphertext as raw bytes **/
+		int RAW = 0;
+		/** Ciphertext as unwrapped Base64, the same as {@link #encryptEncodeFile(File)} returns **/
+		int BASE64 = 1;
+	}
+
 	private final char[] mKeyCharArray;
 	private final byte[] mSalt;
+	private final Object mLock = new Object();
+
+	private volatile KeyMaterial mKeyMaterial;
+	private volatile boolean mDestroyed;
 
 	public SecurityUtils(@NonNull String password, @NonNull byte[] salt) {
 		mKeyCharArray = password.toCharArray();
@@ -71,8 +132,8 @@ public class SecurityUtils {
 	@Nullable
 	public String encryptEncodeFile(@NonNull File file) {
 		try {
-			byte[] fileBytes = FileUtils.readFile(file);
-			byte[] encryptedData = encrypt(fileBytes);
+			ByteBuffer fileBuffer = FileUtils.readFileBuffer(file);
+			byte[] encryptedData = encrypt(fileBuffer);
 			return Base64.encodeToString(encryptedData, Base64.NO_WRAP);
 		} catch (Exception e) {
 			UtilLogger.e("SecurityUtils", "encryptFile(" + file.getAbsolutePath()
@@ -93,30 +154,475 @@ public class SecurityUtils {
 		return null;
 	}
 
-	private Cipher getCipher(int optMode) throws Exception {
-		SecretKeyFactory factory = SecretKeyFactory.getInstance(KEY_FACTORY_ALGORITHM);
-		PBEKeySpec pbeKeySpec = new PBEKeySpec(mKeyCharArray, mSalt, mIterationCount, mKeyLength);
+	/**
+	 * Encrypts an {@link InputStream} into an {@link OutputStream}, which is flushed but neither is
+	 * closed. This blocks until all of the input is read, so must not be called from the main thread.
+	 *
+	 * @param in	{@link InputStream} of plaintext
+	 * @param out	{@link OutputStream} to write the ciphertext to
+	 * @param encoding	{@link Encoding} to write the ciphertext in
+	 * @param listener	Optional {@link ProgressListener}, reporting the bytes of the input read
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Number of bytes of plaintext encrypted
+	 * @throws IOException	If the input cannot be read, the output written or the data encrypted
+	 */
+	@WorkerThread
+	public long encrypt(@NonNull InputStream in, @NonNull OutputStream out, @Encoding int encoding,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+		return stream(Cipher.ENCRYPT_MODE, in, -1, out, encoding, listener, signal);
+	}
 
-		Key secretKey = factory.generateSecret(pbeKeySpec);
-		byte[] key = new byte[mKeyByteLength];
-		byte[] iv = new byte[mIVByteLength];
-		System.arraycopy(secretKey.getEncoded(), 0, key, 0, mKeyByteLength);
-		System.arraycopy(secretKey.getEncoded(), mKeyByteLength, iv, 0, mIVByteLength);
+	/**
+	 * Decrypts an {@link InputStream} into an {@link OutputStream}, which is flushed but neither is
+	 * closed. This blocks until all of the input is read, so must not be called from the main thread.
+	 *
+	 * @param in	{@link InputStream} of ciphertext
+	 * @param out	{@link OutputStream} to write the plaintext to
+	 * @param encoding	{@link Encoding} the ciphertext is in
+	 * @param listener	Optional {@link ProgressListener}, reporting the bytes of the input read
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Number of bytes of plaintext decrypted
+	 * @throws IOException	If the input cannot be read, the output written or the data decrypted
+	 */
+	@WorkerThread
+	public long decrypt(@NonNull InputStream in, @NonNull OutputStream out, @Encoding int encoding,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+		return stream(Cipher.DECRYPT_MODE, in, -1, out, encoding, listener, signal);
+	}
 
-		SecretKeySpec secret = new SecretKeySpec(key, SECRET_KEY_ALGORITHM);
-		AlgorithmParameterSpec ivSpec = new IvParameterSpec(iv);
+	/**
+	 * Encrypts a {@link File} into another, replacing the destination if it already exists. A partially
+	 * written destination is removed if encryption fails or is cancelled.
+	 *
+	 * @param source	{@link File} of plaintext
+	 * @param destination	{@link File} to write the ciphertext to
+	 * @param encoding	{@link Encoding} to write the ciphertext in
+	 * @param listener	Optional {@link ProgressListener}, reporting the bytes of the source read
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Number of bytes of plaintext encrypted
+	 * @throws IOException	If the source cannot be read, the destination written or the data encrypted
+	 */
+	@WorkerThread
+	public long encrypt(@NonNull File source, @NonNull File destination, @Encoding int encoding,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+		return streamFile(Cipher.ENCRYPT_MODE, source, destination, encoding, listener, signal);
+	}
+
+	/**
+	 * Decrypts a {@link File} into another, replacing the destination if it already exists. A partially
+	 * written destination is removed if decryption fails or is cancelled.
+	 *
+	 * @param source	{@link File} of ciphertext
+	 * @param destination	{@link File} to write the plaintext to
+	 * @param encoding	{@link Encoding} the ciphertext is in
+	 * @param listener	Optional {@link ProgressListener}, reporting the bytes of the source read
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Number of bytes of plaintext decrypted
+	 * @throws IOException	If the source cannot be read, the destination written or the data decrypted
+	 */
+	@WorkerThread
+	public long decrypt(@NonNull File source, @NonNull File destination, @Encoding int encoding,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+		return streamFile(Cipher.DECRYPT_MODE, source, destination, encoding, listener, signal);
+	}
+
+	/**
+	 * Encrypts the content referenced by one {@link Uri} into another, replacing the destination's
+	 * content.
+	 *
+	 * @param context	{@link Context}
+	 * @param source	{@link Uri} of plaintext
+	 * @param destination	{@link Uri} to write the ciphertext to
+	 * @param encoding	{@link Encoding} to write the ciphertext in
+	 * @param listener	Optional {@link ProgressListener}, reporting the bytes of the source read
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Number of bytes of plaintext encrypted
+	 * @throws IOException	If the source cannot be read, the destination written or the data encrypted
+	 */
+	@WorkerThread
+	public long encrypt(@NonNull Context context, @NonNull Uri source, @NonNull Uri destination,
+			@Encoding int encoding, @Nullable ProgressListener listener, @Nullable CancellationSignal signal)
+			throws IOException {
+		return streamUri(Cipher.ENCRYPT_MODE, context, source, destination, encoding, listener, signal);
+	}
+
+	/**
+	 * Decrypts the content referenced by one {@link Uri} into another, replacing the destination's
+	 * content.
+	 *
+	 * @param context	{@link Context}
+	 * @param source	{@link Uri} of ciphertext
+	 * @param destination	{@link Uri} to write the plaintext to
+	 * @param encoding	{@link Encoding} the ciphertext is in
+	 * @param listener	Optional {@link ProgressListener}, reporting the bytes of the source read
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Number of bytes of plaintext decrypted
+	 * @throws IOException	If the source cannot be read, the destination written or the data decrypted
+	 */
+	@WorkerThread
+	public long decrypt(@NonNull Context context, @NonNull Uri source, @NonNull Uri destination,
+			@Encoding int encoding, @Nullable ProgressListener listener, @Nullable CancellationSignal signal)
+			throws IOException {
+		return streamUri(Cipher.DECRYPT_MODE, context, source, destination, encoding, listener, signal);
+	}
+
+	/**
+	 * Encrypts a {@link File} into a segmented container of {@link #DEFAULT_SEGMENT_SIZE} segments.
+	 *
+	 * @see #encryptSegmented(File, File, int, ProgressListener, CancellationSignal)
+	 */
+	@WorkerThread
+	public long encryptSegmented(@NonNull File source, @NonNull File destination, @Nullable ProgressListener listener,
+			@Nullable CancellationSignal signal) throws IOException {
+		return encryptSegmented(source, destination, DEFAULT_SEGMENT_SIZE, listener, signal);
+	}
+
+	/**
+	 * Encrypts a {@link File} into a segmented container, replacing the destination if it already
+	 * exists. The segments are encrypted in parallel on the libraries shared background pool, so this
+	 * blocks until every segment is written and must not be called from the main thread or that pool.
+	 * A partially written destination is removed if encryption fails or is cancelled.
+	 *
+	 * @param source	{@link File} of plaintext
+	 * @param destination	{@link File} to write the container to
+	 * @param segmentSize	Size in bytes of each segment's plaintext, larger segments add less overhead
+	 * 						but spread small files across fewer threads
+	 * @param listener	Optional {@link ProgressListener}, reporting the bytes of the source encrypted
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Number of bytes of plaintext encrypted
+	 * @throws IOException	If the source cannot be read, the destination written or the data encrypted
+	 */
+	@WorkerThread
+	public long encryptSegmented(@NonNull File source, @NonNull File destination,
+			@IntRange(from=SegmentedCipher.MIN_SEGMENT_SIZE, to=SegmentedCipher.MAX_SEGMENT_SIZE) int segmentSize,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+
+		byte[] key = copyKey();
+		try {
+			return SegmentedCipher.encrypt(key, source, destination, segmentSize, listener, signal);
+		} finally {
+			Arrays.fill(key, (byte) 0);
+		}
+	}
+
+	/**
+	 * Decrypts a segmented container into a {@link File}, replacing the destination if it already
+	 * exists. The segments are decrypted in parallel on the libraries shared background pool, so this
+	 * blocks until every segment is written and must not be called from the main thread or that pool.
+	 * The destination is removed if any segment has been altered, moved or removed, or if decryption
+	 * fails or is cancelled.
+	 *
+	 * @param source	{@link File} of the container
+	 * @param destination	{@link File} to write the plaintext to
+	 * @param listener	Optional {@link ProgressListener}, reporting the bytes of plaintext decrypted
+	 * @param signal	Optional {@link CancellationSignal}
+	 * @return	Number of bytes of plaintext decrypted
+	 * @throws IOException	If the source is not a valid container, fails authentication or cannot be
+	 * 						read, or the destination cannot be written
+	 */
+	@WorkerThread
+	public long decryptSegmented(@NonNull File source, @NonNull File destination, @Nullable ProgressListener listener,
+			@Nullable CancellationSignal signal) throws IOException {
+
+		byte[] key = copyKey();
+		try {
+			return SegmentedCipher.decrypt(key, source, destination, listener, signal);
+		} finally {
+			Arrays.fill(key, (byte) 0);
+		}
+	}
+
+	/**
+	 * Wipes the password and the derived key and IV from memory. The instance can no longer encrypt or
+	 * decrypt afterwards, and should be discarded.
+	 */
+	public void destroy() {
+		synchronized (mLock) {
+			mDestroyed = true;
+			Arrays.fill(mKeyCharArray, '\0');
+			if (mKeyMaterial != null) {
+				mKeyMaterial.destroy();
+				mKeyMaterial = null;
+			}
+		}
+	}
+
+	/** Returns true once {@link #destroy()} has been called **/
+	public boolean isDestroyed() {
+		return mDestroyed;
+	}
+
+	private Cipher getCipher(int optMode) throws GeneralSecurityException {
 		Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
-		cipher.init(optMode, secret, ivSpec);
+		getKeyMaterial().init(cipher, optMode);
 		return cipher;
 	}
 
+	/**
+	 * Returns a copy of the derived key, which the caller must wipe once finished with.
+	 */
+	@NonNull
+	private byte[] copyKey() throws IOException {
+		try {
+			return getKeyMaterial().copyKey();
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Unable to derive key: " + e.getLocalizedMessage(), e);
+		}
+	}
+
+	/**
+	 * Returns the key material, deriving it from the password on first use.
+	 */
+	@NonNull
+	private KeyMaterial getKeyMaterial() throws GeneralSecurityException {
+		KeyMaterial keyMaterial = mKeyMaterial;
+		if (keyMaterial != null) {
+			return keyMaterial;
+		}
+		synchronized (mLock) {
+			if (mDestroyed) {
+				throw new IllegalStateException("SecurityUtils has been destroyed");
+			}
+			if (mKeyMaterial == null) {
+				mKeyMaterial = deriveKeyMaterial();
+			}
+			return mKeyMaterial;
+		}
+	}
+
+	/**
+	 * Stretches the password into the key followed by the IV, wiping the intermediate copies.
+	 */
+	@NonNull
+	private KeyMaterial deriveKeyMaterial() throws GeneralSecurityException {
+		SecretKeyFactory factory = SecretKeyFactory.getInstance(KEY_FACTORY_ALGORITHM);
+		PBEKeySpec pbeKeySpec = new PBEKeySpec(mKeyCharArray, mSalt, mIterationCount, mKeyLength);
+		byte[] encoded = null;
+		try {
+			Key secretKey = factory.generateSecret(pbeKeySpec);
+			encoded = secretKey.getEncoded();
+			return new KeyMaterial(Arrays.copyOfRange(encoded, 0, mKeyByteLength),
+				Arrays.copyOfRange(encoded, mKeyByteLength, mKeyByteLength + mIVByteLength));
+		} finally {
+			pbeKeySpec.clearPassword();
+			if (encoded != null) {
+				Arrays.fill(encoded, (byte) 0);
+			}
+		}
+	}
+
 	private byte[] encrypt(byte[] data) throws Exception {
 		Cipher cipher = getCipher(Cipher.ENCRYPT_MODE);
 		return cipher.doFinal(data);
 	}
 
+	private byte[] encrypt(ByteBuffer data) throws Exception {
+		Cipher cipher = getCipher(Cipher.ENCRYPT_MODE);
+		ByteBuffer output = ByteBuffer.allocate(cipher.getOutputSize(data.remaining()));
+		cipher.doFinal(data, output);
+		return output.position() == output.capacity() ? output.array() : Arrays.copyOf(output.array(), output.position());
+	}
+
 	private byte[] decrypt(byte[] encryptedData) throws Exception {
 		Cipher cipher = getCipher(Cipher.DECRYPT_MODE);
 		return cipher.doFinal(encryptedData);
 	}
+
+	/**
+	 * Streams a {@link File} through the cipher into another, removing the partially written
+	 * destination if it fails or is cancelled.
+	 */
+	private long streamFile(int optMode, @NonNull File source, @NonNull File destination, @Encoding int encoding,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+
+		FileInputStream in = new FileInputStream(source);
+		FileOutputStream out = null;
+		boolean success = false;
+		try {
+			out = new FileOutputStream(destination);
+			long processed = stream(optMode, in, source.length(), out, encoding, listener, signal);
+			success = true;
+			return processed;
+		} finally {
+			FileUtils.closeQuietly(out);
+			FileUtils.closeQuietly(in);
+			if (!success && destination.exists() && !destination.delete()) {
+				UtilLogger.e("SecurityUtils", "streamFile() Unable to remove partial file: " + destination.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Streams the content of one {@link Uri} through the cipher into another. The destination is
+	 * opened as a {@link ParcelFileDescriptor} and truncated to the written length afterwards.
+	 */
+	private long streamUri(int optMode, @NonNull Context context, @NonNull Uri source, @NonNull Uri destination,
+			@Encoding int encoding, @Nullable ProgressListener listener, @Nullable CancellationSignal signal)
+			throws IOException {
+
+		InputStream in = context.getContentResolver().openInputStream(source);
+		if (in == null) {
+			throw new FileNotFoundException("Unable to open input stream for " + source);
+		}
+		ParcelFileDescriptor descriptor = null;
+		try {
+			descriptor = context.getContentResolver().openFileDescriptor(destination, "w");
+			if (descriptor == null) {
+				throw new FileNotFoundException("Unable to open file descriptor for " + destination);
+			}
+			FileOutputStream out = new FileOutputStream(descriptor.getFileDescriptor());
+			FileChannel channel = out.getChannel();
+			long processed = stream(optMode, in, -1, out, encoding, listener, signal);
+			if (descriptor.getStatSize() >= 0) {
+				// "w" does not truncate on every provider, so remove anything left from previous content
+				channel.truncate(channel.position());
+			}
+			return processed;
+		} finally {
+			FileUtils.closeQuietly(descriptor);
+			FileUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Streams the input through the cipher into the output, Base64 encoding the ciphertext written or
+	 * decoding the ciphertext read as required. Plaintext is wiped from the buffers before they are
+	 * returned to the {@link BufferPool}.
+	 */
+	private long stream(int optMode, @NonNull InputStream in, long totalBytes, @NonNull OutputStream out,
+			@Encoding int encoding, @Nullable ProgressListener listener, @Nullable CancellationSignal signal)
+			throws IOException {
+
+		CountingInputStream source = new CountingInputStream(in);
+		InputStream input = source;
+		OutputStream output = out;
+		if (encoding == Encoding.BASE64) {
+			if (optMode == Cipher.ENCRYPT_MODE) {
+				output = new Base64OutputStream(out, Base64.NO_WRAP | Base64.NO_CLOSE);
+			} else {
+				input = new Base64InputStream(source, Base64.NO_WRAP);
+			}
+		}
+
+		byte[] inBuffer = BufferPool.acquire(BUFFER_SIZE);
+		byte[] outBuffer = BufferPool.acquire(BUFFER_SIZE);
+		try {
+			Cipher cipher = getCipher(optMode);
+			// Leaves room in the output for the block the cipher may be holding back
+			int readLength = BUFFER_SIZE - cipher.getBlockSize();
+			long processed = 0;
+			int read;
+			while ((read = input.read(inBuffer, 0, readLength)) != -1) {
+				throwIfCanceled(signal);
+				int written = cipher.update(inBuffer, 0, read, outBuffer, 0);
+				output.write(outBuffer, 0, written);
+				processed += optMode == Cipher.ENCRYPT_MODE ? read : written;
+				if (listener != null) {
+					listener.onProgress(source.getCount(), totalBytes);
+				}
+			}
+			int written = cipher.doFinal(outBuffer, 0);
+			output.write(outBuffer, 0, written);
+			processed += optMode == Cipher.ENCRYPT_MODE ? 0 : written;
+
+			if (output != out) {
+				// Writes out the final Base64 quantum, the wrapped stream is left open
+				output.close();
+			}
+			out.flush();
+			return processed;
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Unable to " + (optMode == Cipher.ENCRYPT_MODE ? "encrypt" : "decrypt")
+				+ " stream: " + e.getLocalizedMessage(), e);
+		} finally {
+			Arrays.fill(optMode == Cipher.ENCRYPT_MODE ? inBuffer : outBuffer, (byte) 0);
+			BufferPool.release(inBuffer);
+			BufferPool.release(outBuffer);
+		}
+	}
+
+	private static void throwIfCanceled(@Nullable CancellationSignal signal) {
+		if (signal != null && signal.isCanceled()) {
+			throw new OperationCanceledException();
+		}
+	}
+
+	/**
+	 * Holds the derived key and IV so they can be wiped once finished with. The specs handed to each
+	 * cipher are short lived copies, as the platform's key specs cannot be wiped themselves.
+	 */
+	private static final class KeyMaterial {
+		private final byte[] mKey;
+		private final byte[] mIv;
+		private boolean mDestroyed;
+
+		KeyMaterial(@NonNull byte[] key, @NonNull byte[] iv) {
+			mKey = key;
+			mIv = iv;
+		}
+
+		synchronized void init(@NonNull Cipher cipher, int optMode) throws GeneralSecurityException {
+			if (mDestroyed) {
+				throw new IllegalStateException("SecurityUtils has been destroyed");
+			}
+			SecretKeySpec secret = new SecretKeySpec(mKey, SECRET_KEY_ALGORITHM);
+			AlgorithmParameterSpec ivSpec = new IvParameterSpec(mIv);
+			cipher.init(optMode, secret, ivSpec);
+		}
+
+		@NonNull
+		synchronized byte[] copyKey() {
+			if (mDestroyed) {
+				throw new IllegalStateException("SecurityUtils has been destroyed");
+			}
+			return mKey.clone();
+		}
+
+		synchronized void destroy() {
+			mDestroyed = true;
+			Arrays.fill(mKey, (byte) 0);
+			Arrays.fill(mIv, (byte) 0);
+		}
+	}
+
+	/**
+	 * Counts the bytes read from a stream, so progress can be reported against the source's size when
+	 * the data read by the cipher has been decoded from it.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+		private long mCount;
+
+		CountingInputStream(@NonNull InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read != -1) {
+				mCount++;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read > 0) {
+				mCount += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long count) throws IOException {
+			long skipped = super.skip(count);
+			mCount += skipped;
+			return skipped;
+		}
+
+		long getCount() {
+			return mCount;
+		}
+	}
 }
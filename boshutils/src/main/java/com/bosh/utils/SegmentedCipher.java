@@ -0,0 +1,461 @@
+package com.bosh.utils;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import com.bosh.utils.FileCopier.ProgressListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts a {@link File} into a container of independently authenticated, fixed size segments, so
+ * both encryption and decryption can be spread across the libraries shared background pool. Each
+ * task handles a contiguous run of segments with positional reads and writes, so the file is never
+ * held in memory as a whole.
+ *
+ * A container is laid out as a header followed by the segments, each of which is its ciphertext
+ * followed by a 16 byte tag. Every segment is full sized apart from the last, which holds the
+ * remainder and may be empty.
+ * <pre>
+ * header:  "BSEG" (4) | version (1) | mode (1) | segment size (4) | salt (16)
+ * segment: ciphertext (segment size, or less for the last) | tag (16)
+ * </pre>
+ *
+ * The keys of each container are derived from the caller's key and its header, which holds a random
+ * salt, so a segment's nonce only needs to be unique within its container. The nonce is the segment's
+ * index followed by a flag marking the last segment, and the header is authenticated with every
+ * segment, so altering the header or reordering, dropping or appending segments fails decryption.
+ *
+ * Segments are sealed with AES-GCM from KitKat, where {@link GCMParameterSpec} is available, and with
+ * AES-CTR followed by a truncated HMAC-SHA256 before it. Either mode can be decrypted wherever it is
+ * supported, as the header records which was used.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+final class SegmentedCipher {
+
+	/** Smallest segment size a container may use **/
+	static final int MIN_SEGMENT_SIZE = 4 * MemoryUnit.KB;
+	/** Largest segment size a container may use, bounding the buffers a header can ask for **/
+	static final int MAX_SEGMENT_SIZE = 16 * MemoryUnit.MB;
+
+	private static final byte[] MAGIC = {'B', 'S', 'E', 'G'};
+	private static final byte VERSION = 1;
+	private static final byte MODE_GCM = 1;
+	private static final byte MODE_CTR_HMAC = 2;
+
+	private static final int SALT_SIZE = 16;
+	private static final int HEADER_SIZE = MAGIC.length + 2 + 4 + SALT_SIZE;
+	private static final int TAG_SIZE = 16;
+	private static final int GCM_NONCE_SIZE = 12;
+	private static final int CTR_IV_SIZE = 16;
+
+	private static final String GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+	private static final String CTR_TRANSFORMATION = "AES/CTR/NoPadding";
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final String KEY_ALGORITHM = "AES";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/** Interval at which progress is reported and cancellation checked while waiting for the tasks **/
+	private static final long PROGRESS_INTERVAL_MS = 100;
+
+	/** True if containers are sealed with, and may be opened with, AES-GCM **/
+	@VisibleForTesting
+	static boolean sGcmSupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+	private final byte[] mHeader;
+	private final byte mMode;
+	private final int mSegmentSize;
+	private final byte[] mCipherKey;
+	private final byte[] mMacKey;
+
+	private SegmentedCipher(@NonNull byte[] key, @NonNull byte[] header) throws GeneralSecurityException {
+		mHeader = header;
+		mMode = header[MAGIC.length + 1];
+		mSegmentSize = ByteBuffer.wrap(header, MAGIC.length + 2, 4).getInt();
+		mCipherKey = deriveKey(key, "cipher", header);
+		mMacKey = mMode == MODE_CTR_HMAC ? deriveKey(key, "mac", header) : null;
+	}
+
+	/**
+	 * Encrypts a {@link File} into a container, replacing the destination if it already exists. A
+	 * partially written destination is removed if encryption fails or is cancelled.
+	 *
+	 * @return	Number of bytes of plaintext encrypted
+	 */
+	static long encrypt(@NonNull byte[] key, @NonNull File source, @NonNull File destination, int segmentSize,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+
+		if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+			throw new IllegalArgumentException("Segment size out of range: " + segmentSize);
+		}
+
+		byte[] salt = new byte[SALT_SIZE];
+		new SecureRandom().nextBytes(salt);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.put(MAGIC).put(VERSION).put(sGcmSupported ? MODE_GCM : MODE_CTR_HMAC)
+			.putInt(segmentSize).put(salt);
+
+		RandomAccessFile in = new RandomAccessFile(source, "r");
+		RandomAccessFile out = null;
+		SegmentedCipher segmentedCipher = null;
+		boolean success = false;
+		try {
+			segmentedCipher = new SegmentedCipher(key, header.array());
+			out = new RandomAccessFile(destination, "rw");
+			long length = in.length();
+			int segmentCount = (int) Math.max(1, (length + segmentSize - 1) / segmentSize);
+			out.setLength(HEADER_SIZE + length + (long) segmentCount * TAG_SIZE);
+			writeFully(out.getChannel(), ByteBuffer.wrap(header.array()), 0);
+
+			segmentedCipher.run(true, in.getChannel(), out.getChannel(), length, segmentCount, listener, signal);
+			success = true;
+			return length;
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Unable to encrypt " + source.getAbsolutePath() + ": " + e.getLocalizedMessage(), e);
+		} finally {
+			if (segmentedCipher != null) {
+				segmentedCipher.destroy();
+			}
+			FileUtils.closeQuietly(out);
+			FileUtils.closeQuietly(in);
+			if (!success && destination.exists() && !destination.delete()) {
+				UtilLogger.e("SegmentedCipher", "encrypt() Unable to remove partial file: " + destination.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Decrypts a container into a {@link File}, replacing the destination if it already exists. The
+	 * destination is removed if any segment fails authentication, decryption fails or is cancelled.
+	 *
+	 * @return	Number of bytes of plaintext decrypted
+	 */
+	static long decrypt(@NonNull byte[] key, @NonNull File source, @NonNull File destination,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+
+		RandomAccessFile in = new RandomAccessFile(source, "r");
+		RandomAccessFile out = null;
+		SegmentedCipher segmentedCipher = null;
+		boolean success = false;
+		try {
+			byte[] header = new byte[HEADER_SIZE];
+			if (in.length() < HEADER_SIZE + TAG_SIZE) {
+				throw new IOException("Not a segmented container, too short: " + source.getAbsolutePath());
+			}
+			in.readFully(header);
+			checkHeader(header);
+			segmentedCipher = new SegmentedCipher(key, header);
+
+			long body = in.length() - HEADER_SIZE;
+			long stride = (long) segmentedCipher.mSegmentSize + TAG_SIZE;
+			int segmentCount = (int) ((body + stride - 1) / stride);
+			if (body - (segmentCount - 1) * stride < TAG_SIZE) {
+				throw new IOException("Segmented container truncated: " + source.getAbsolutePath());
+			}
+			long length = body - (long) segmentCount * TAG_SIZE;
+
+			out = new RandomAccessFile(destination, "rw");
+			out.setLength(length);
+			segmentedCipher.run(false, in.getChannel(), out.getChannel(), length, segmentCount, listener, signal);
+			success = true;
+			return length;
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Unable to decrypt " + source.getAbsolutePath() + ": " + e.getLocalizedMessage(), e);
+		} finally {
+			if (segmentedCipher != null) {
+				segmentedCipher.destroy();
+			}
+			FileUtils.closeQuietly(out);
+			FileUtils.closeQuietly(in);
+			if (!success && destination.exists() && !destination.delete()) {
+				UtilLogger.e("SegmentedCipher", "decrypt() Unable to remove partial file: " + destination.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Checks the header belongs to a container this version can decrypt on this device.
+	 */
+	private static void checkHeader(@NonNull byte[] header) throws IOException {
+		if (!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC)) {
+			throw new IOException("Not a segmented container");
+		}
+		if (header[MAGIC.length] != VERSION) {
+			throw new IOException("Unsupported segmented container version: " + header[MAGIC.length]);
+		}
+		byte mode = header[MAGIC.length + 1];
+		if (mode != MODE_GCM && mode != MODE_CTR_HMAC) {
+			throw new IOException("Unsupported segmented container mode: " + mode);
+		}
+		if (mode == MODE_GCM && !sGcmSupported) {
+			throw new IOException("Segmented container sealed with AES-GCM, which requires KitKat");
+		}
+		int segmentSize = ByteBuffer.wrap(header, MAGIC.length + 2, 4).getInt();
+		if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+			throw new IOException("Segment size out of range: " + segmentSize);
+		}
+	}
+
+	/**
+	 * Derives a 256 bit key for one purpose within a container by keying HMAC-SHA256 with the caller's
+	 * key over the purpose and the container's header.
+	 */
+	@NonNull
+	private static byte[] deriveKey(@NonNull byte[] key, @NonNull String purpose, @NonNull byte[] header)
+			throws GeneralSecurityException {
+
+		Mac mac = Mac.getInstance(MAC_ALGORITHM);
+		mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+		mac.update(purpose.getBytes(CHARSET));
+		return mac.doFinal(header);
+	}
+
+	/**
+	 * Processes every segment, splitting them into contiguous runs across the shared background pool
+	 * while this thread reports progress and watches for cancellation.
+	 */
+	private void run(final boolean encrypt, @NonNull final FileChannel in, @NonNull final FileChannel out,
+			final long length, final int segmentCount, @Nullable ProgressListener listener,
+			@Nullable final CancellationSignal signal) throws IOException {
+
+		final AtomicLong processed = new AtomicLong();
+		int taskCount = Math.min(segmentCount, UtilExecutors.getPoolSize());
+		final int segmentsPerTask = (segmentCount + taskCount - 1) / taskCount;
+		List<Future<Void>> futures = new ArrayList<>(taskCount);
+		boolean success = false;
+		try {
+			for (int start = 0; start < segmentCount; start += segmentsPerTask) {
+				final int first = start;
+				futures.add(UtilExecutors.background().submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						processSegments(encrypt, in, out, length, segmentCount, first,
+							Math.min(segmentCount, first + segmentsPerTask), processed, signal);
+						return null;
+					}
+				}));
+			}
+			await(futures, processed, length, listener, signal);
+			success = true;
+		} finally {
+			if (!success) {
+				for (Future<Void> future : futures) {
+					future.cancel(true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Processes a contiguous run of segments through a pair of pooled buffers, with its own cipher and
+	 * MAC. Plaintext is wiped from the buffers before they are returned to the {@link BufferPool}.
+	 */
+	private void processSegments(boolean encrypt, @NonNull FileChannel in, @NonNull FileChannel out, long length,
+			int segmentCount, int first, int last, @NonNull AtomicLong processed,
+			@Nullable CancellationSignal signal) throws IOException, GeneralSecurityException {
+
+		Cipher cipher = Cipher.getInstance(mMode == MODE_GCM ? GCM_TRANSFORMATION : CTR_TRANSFORMATION);
+		Mac mac = null;
+		if (mMode == MODE_CTR_HMAC) {
+			mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(new SecretKeySpec(mMacKey, MAC_ALGORITHM));
+		}
+		byte[] plaintext = BufferPool.acquire(mSegmentSize);
+		byte[] ciphertext = BufferPool.acquire(mSegmentSize + TAG_SIZE);
+		try {
+			for (int i = first; i < last; i++) {
+				throwIfCanceled(signal);
+				long plainOffset = (long) i * mSegmentSize;
+				int plainLength = (int) Math.min(mSegmentSize, length - plainOffset);
+				long cipherOffset = HEADER_SIZE + (long) i * (mSegmentSize + TAG_SIZE);
+				boolean lastSegment = i == segmentCount - 1;
+
+				if (encrypt) {
+					readFully(in, ByteBuffer.wrap(plaintext, 0, plainLength), plainOffset);
+					seal(cipher, mac, i, lastSegment, plaintext, plainLength, ciphertext);
+					writeFully(out, ByteBuffer.wrap(ciphertext, 0, plainLength + TAG_SIZE), cipherOffset);
+				} else {
+					readFully(in, ByteBuffer.wrap(ciphertext, 0, plainLength + TAG_SIZE), cipherOffset);
+					open(cipher, mac, i, lastSegment, ciphertext, plainLength, plaintext);
+					writeFully(out, ByteBuffer.wrap(plaintext, 0, plainLength), plainOffset);
+				}
+				processed.addAndGet(plainLength);
+			}
+		} finally {
+			Arrays.fill(plaintext, (byte) 0);
+			BufferPool.release(plaintext);
+			BufferPool.release(ciphertext);
+		}
+	}
+
+	/**
+	 * Encrypts one segment into the ciphertext buffer, followed by its tag.
+	 */
+	private void seal(@NonNull Cipher cipher, @Nullable Mac mac, int index, boolean lastSegment,
+			@NonNull byte[] plaintext, int length, @NonNull byte[] ciphertext) throws GeneralSecurityException {
+
+		SecretKeySpec key = new SecretKeySpec(mCipherKey, KEY_ALGORITHM);
+		if (mac == null) {
+			initGcm(cipher, Cipher.ENCRYPT_MODE, key, index, lastSegment, mHeader);
+			cipher.doFinal(plaintext, 0, length, ciphertext, 0);
+		} else {
+			byte[] iv = nonce(CTR_IV_SIZE, index, lastSegment);
+			cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+			cipher.doFinal(plaintext, 0, length, ciphertext, 0);
+			System.arraycopy(tag(mac, iv, ciphertext, length), 0, ciphertext, length, TAG_SIZE);
+		}
+	}
+
+	/**
+	 * Authenticates one segment and decrypts it into the plaintext buffer.
+	 */
+	private void open(@NonNull Cipher cipher, @Nullable Mac mac, int index, boolean lastSegment,
+			@NonNull byte[] ciphertext, int length, @NonNull byte[] plaintext) throws GeneralSecurityException, IOException {
+
+		SecretKeySpec key = new SecretKeySpec(mCipherKey, KEY_ALGORITHM);
+		if (mac == null) {
+			initGcm(cipher, Cipher.DECRYPT_MODE, key, index, lastSegment, mHeader);
+			try {
+				cipher.doFinal(ciphertext, 0, length + TAG_SIZE, plaintext, 0);
+			} catch (BadPaddingException e) {
+				// Thrown as its AEADBadTagException subclass, which is only available from KitKat
+				throw new IOException("Segment " + index + " failed authentication", e);
+			}
+		} else {
+			byte[] iv = nonce(CTR_IV_SIZE, index, lastSegment);
+			byte[] tag = tag(mac, iv, ciphertext, length);
+			if (!MessageDigest.isEqual(tag, Arrays.copyOfRange(ciphertext, length, length + TAG_SIZE))) {
+				throw new IOException("Segment " + index + " failed authentication");
+			}
+			cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+			cipher.doFinal(ciphertext, 0, length, plaintext, 0);
+		}
+	}
+
+	/**
+	 * Initialises a GCM cipher for one segment, authenticating the header along with it.
+	 */
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private static void initGcm(@NonNull Cipher cipher, int optMode, @NonNull SecretKeySpec key, int index,
+			boolean lastSegment, @NonNull byte[] header) throws GeneralSecurityException {
+		cipher.init(optMode, key, new GCMParameterSpec(TAG_SIZE * 8, nonce(GCM_NONCE_SIZE, index, lastSegment)));
+		cipher.updateAAD(header);
+	}
+
+	/**
+	 * Returns the truncated HMAC of a CTR segment, covering the header, its nonce and its ciphertext.
+	 */
+	@NonNull
+	private byte[] tag(@NonNull Mac mac, @NonNull byte[] iv, @NonNull byte[] ciphertext, int length) {
+		mac.update(mHeader);
+		mac.update(iv);
+		mac.update(ciphertext, 0, length);
+		return Arrays.copyOf(mac.doFinal(), TAG_SIZE);
+	}
+
+	/**
+	 * Returns a segment's nonce, its index and last segment flag followed by zeros. For CTR the
+	 * trailing zeros are the block counter, which a segment can never overflow.
+	 */
+	@NonNull
+	private static byte[] nonce(int size, int index, boolean lastSegment) {
+		return ByteBuffer.allocate(size).putInt(index).put((byte) (lastSegment ? 1 : 0)).array();
+	}
+
+	private void destroy() {
+		Arrays.fill(mCipherKey, (byte) 0);
+		if (mMacKey != null) {
+			Arrays.fill(mMacKey, (byte) 0);
+		}
+	}
+
+	/**
+	 * Waits for every task, reporting progress on this thread as they run, and rethrows the cause if
+	 * any fails.
+	 */
+	private static void await(@NonNull List<Future<Void>> futures, @NonNull AtomicLong processed, long totalBytes,
+			@Nullable ProgressListener listener, @Nullable CancellationSignal signal) throws IOException {
+		try {
+			for (Future<Void> future : futures) {
+				while (true) {
+					try {
+						future.get(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+						break;
+					} catch (TimeoutException e) {
+						throwIfCanceled(signal);
+						if (listener != null) {
+							listener.onProgress(processed.get(), totalBytes);
+						}
+					}
+				}
+			}
+			if (listener != null) {
+				listener.onProgress(processed.get(), totalBytes);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while processing segments", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Unable to process segments: " + cause.getLocalizedMessage(), cause);
+		}
+	}
+
+	private static void readFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read == -1) {
+				throw new IOException("File truncated while reading at " + position);
+			}
+			position += read;
+		}
+	}
+
+	private static void writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private static void throwIfCanceled(@Nullable CancellationSignal signal) {
+		if (signal != null && signal.isCanceled()) {
+			throw new OperationCanceledException();
+		}
+	}
+}
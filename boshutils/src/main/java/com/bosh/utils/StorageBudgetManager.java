@@ -0,0 +1,539 @@
+package com.bosh.utils;
+
+import android.content.Context;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import com.bosh.utils.FileUtils.FileStorageLocations;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tracks the bytes the library writes into each of its own storage locations, and keeps each within
+ * a quota by evicting its least recently accessed files. Usage is recorded as files are written
+ * through {@link FileUtils} and {@link ImageUtils}, and as they are removed through
+ * {@link FileDeleter}, so a snapshot of the usage never needs to walk the directories.
+ *
+ * The ledger of tracked files is persisted to the app's files directory in the background after it
+ * changes, and reloaded when the manager is created. Entries for files which no longer exist, such as
+ * after the system clears the cache, are dropped as it is loaded. Writes are only tracked once
+ * {@link #getInstance(Context)} has been called, so it should be called as the app starts.
+ *
+ * Files in the {@link FileStorageLocations#DCIM_CAMERA} directory belong to the user and are never
+ * tracked or evicted.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StorageBudgetManager {
+
+	/**
+	 * Defines the locations tracked by the manager, matching the {@link FileStorageLocations} values
+	 * where they share a directory.
+	 */
+	@IntDef({TrackedLocation.DO_NOT_STORE, TrackedLocation.INTERNAL_CACHE, TrackedLocation.COMPRESSED_IMAGES})
+	@Retention(RetentionPolicy.SOURCE)
+	public @interface TrackedLocation {
+		int DO_NOT_STORE = FileStorageLocations.DO_NOT_STORE;
+		int INTERNAL_CACHE = FileStorageLocations.INTERNAL_CACHE;
+		int COMPRESSED_IMAGES = 3;
+	}
+
+	/** Quota of a location which may grow without limit **/
+	public static final long NO_QUOTA = -1;
+
+	/** Tracked locations, in the order a path is matched against their directories **/
+	private static final int[] LOCATIONS = {TrackedLocation.DO_NOT_STORE, TrackedLocation.COMPRESSED_IMAGES,
+		TrackedLocation.INTERNAL_CACHE};
+
+	private static final String LEDGER_FILE_NAME = ".bosh_storage_ledger";
+	private static final String LEDGER_MAGIC = "com.bosh.utils.StorageBudgetManager";
+	private static final String LEDGER_VERSION = "1";
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static volatile StorageBudgetManager sInstance;
+
+	private final Context mContext;
+	private final File mLedgerFile;
+	private final Ledger[] mLedgers = new Ledger[LOCATIONS.length];
+	private final AtomicBoolean mSaveScheduled = new AtomicBoolean();
+	private final AtomicBoolean mTrimScheduled = new AtomicBoolean();
+
+	private StorageBudgetManager(@NonNull Context context) {
+		mContext = context.getApplicationContext();
+		mLedgerFile = new File(mContext.getFilesDir(), LEDGER_FILE_NAME);
+		for (int i = 0; i < LOCATIONS.length; i++) {
+			mLedgers[i] = new Ledger(LOCATIONS[i]);
+		}
+	}
+
+	/**
+	 * Returns the shared manager, creating it and loading its ledger on a background thread if needed.
+	 *
+	 * @param context	{@link Context}
+	 * @return	Shared {@link StorageBudgetManager}
+	 */
+	@NonNull
+	public static StorageBudgetManager getInstance(@NonNull Context context) {
+		StorageBudgetManager instance = sInstance;
+		if (instance == null) {
+			synchronized (StorageBudgetManager.class) {
+				instance = sInstance;
+				if (instance == null) {
+					instance = new StorageBudgetManager(context);
+					instance.loadAsync();
+					sInstance = instance;
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Sets the maximum number of bytes tracked in a location. When a write takes the location over its
+	 * quota, its least recently accessed files are deleted in the background until it is back within.
+	 * Files in {@link TrackedLocation#DO_NOT_STORE} should be leased through {@link TempFileManager}
+	 * if they must not be evicted while in use, as leased files are skipped and otherwise only the
+	 * most recently accessed file is protected.
+	 *
+	 * @param location	{@link TrackedLocation} to limit
+	 * @param maxBytes	Quota in bytes, or {@link #NO_QUOTA}
+	 */
+	public void setQuota(@TrackedLocation int location, long maxBytes) {
+		Ledger ledger = getLedger(location);
+		synchronized (this) {
+			ledger.mQuota = maxBytes < 0 ? NO_QUOTA : maxBytes;
+		}
+		scheduleTrimIfOverQuota();
+	}
+
+	/** Returns the quota in bytes of a location, or {@link #NO_QUOTA} **/
+	public synchronized long getQuota(@TrackedLocation int location) {
+		return getLedger(location).mQuota;
+	}
+
+	/** Returns the number of bytes tracked in a location **/
+	public synchronized long getUsage(@TrackedLocation int location) {
+		return getLedger(location).mBytes;
+	}
+
+	/** Returns the number of files tracked in a location **/
+	public synchronized int getFileCount(@TrackedLocation int location) {
+		return getLedger(location).mEntries.size();
+	}
+
+	/**
+	 * Returns a snapshot of the bytes tracked in every location, taken from the ledger without
+	 * touching the disk.
+	 *
+	 * @return	{@link Map} of {@link TrackedLocation} value to size in bytes
+	 */
+	@NonNull
+	public synchronized Map<Integer, Long> getUsage() {
+		Map<Integer, Long> usage = new LinkedHashMap<>(LOCATIONS.length);
+		for (Ledger ledger : mLedgers) {
+			usage.put(ledger.mLocation, ledger.mBytes);
+		}
+		return usage;
+	}
+
+	/**
+	 * Records that a file has been written, updating its size and access time. Files outside the
+	 * tracked locations are ignored. Writes made through {@link FileUtils} and {@link ImageUtils} are
+	 * recorded automatically, this only needs calling for files written by other means.
+	 *
+	 * @param file	{@link File} which was written
+	 */
+	public void recordWrite(@NonNull File file) {
+		Ledger ledger = findLedger(file);
+		if (ledger == null) {
+			return;
+		}
+		if (!file.isFile()) {
+			// The write failed and left nothing behind
+			forget(file);
+			return;
+		}
+		long size = file.length();
+		synchronized (this) {
+			ledger.put(file.getAbsolutePath(), size, System.currentTimeMillis());
+		}
+		scheduleSave();
+		scheduleTrimIfOverQuota();
+	}
+
+	/**
+	 * Records that a tracked file has been read, so it is evicted after files accessed less recently.
+	 *
+	 * @param file	{@link File} which was read
+	 */
+	public void recordAccess(@NonNull File file) {
+		String path = file.getAbsolutePath();
+		boolean changed = false;
+		synchronized (this) {
+			for (Ledger ledger : mLedgers) {
+				Entry entry = ledger.mEntries.get(path);
+				if (entry != null) {
+					entry.mLastAccess = System.currentTimeMillis();
+					changed = true;
+					break;
+				}
+			}
+		}
+		if (changed) {
+			scheduleSave();
+		}
+	}
+
+	/**
+	 * Stops tracking a file, or every file within a directory, once it has been removed.
+	 *
+	 * @param file	{@link File} or directory which was removed
+	 */
+	public void forget(@NonNull File file) {
+		String path = file.getAbsolutePath();
+		String prefix = path.endsWith("/") ? path : path + "/";
+		boolean changed = false;
+		synchronized (this) {
+			for (Ledger ledger : mLedgers) {
+				if (ledger.remove(path)) {
+					changed = true;
+					break;
+				}
+				Iterator<Map.Entry<String, Entry>> iterator = ledger.mEntries.entrySet().iterator();
+				while (iterator.hasNext()) {
+					Map.Entry<String, Entry> entry = iterator.next();
+					if (entry.getKey().startsWith(prefix)) {
+						ledger.mBytes -= entry.getValue().mSize;
+						iterator.remove();
+						changed = true;
+					}
+				}
+			}
+		}
+		if (changed) {
+			scheduleSave();
+		}
+	}
+
+	/**
+	 * Deletes the least recently accessed files of every location over its quota until it is back
+	 * within, keeping the most recently accessed file of each and any file leased through
+	 * {@link TempFileManager}. A file written again before it is deleted is kept. This blocks while
+	 * files are deleted.
+	 *
+	 * @return	{@link FileDeleter.Result} describing the files removed
+	 */
+	@NonNull
+	@WorkerThread
+	public FileDeleter.Result trim() {
+		List<File> victims = new ArrayList<>();
+		synchronized (this) {
+			for (Ledger ledger : mLedgers) {
+				if (ledger.mQuota == NO_QUOTA) {
+					continue;
+				}
+				Iterator<Map.Entry<String, Entry>> iterator = ledger.mEntries.entrySet().iterator();
+				// Stops before the most recently accessed entry, which is always kept
+				int candidates = ledger.mEntries.size() - 1;
+				while (ledger.mBytes > ledger.mQuota && candidates-- > 0) {
+					Map.Entry<String, Entry> entry = iterator.next();
+					File file = new File(entry.getKey());
+					if (TempFileManager.isLeased(file)) {
+						continue;
+					}
+					ledger.mBytes -= entry.getValue().mSize;
+					iterator.remove();
+					victims.add(file);
+				}
+			}
+		}
+		if (!victims.isEmpty()) {
+			synchronized (this) {
+				// A victim recorded again since leaving the ledger has been rewritten, so is no longer stale
+				Iterator<File> iterator = victims.iterator();
+				while (iterator.hasNext()) {
+					if (isTracked(iterator.next().getAbsolutePath())) {
+						iterator.remove();
+					}
+				}
+			}
+		}
+		if (victims.isEmpty()) {
+			return new FileDeleter.Result();
+		}
+
+		FileDeleter.Result result = FileDeleter.delete(victims.toArray(new File[victims.size()]));
+		if (UtilLogger.isDebugLogsEnabled()) {
+			UtilLogger.d("StorageBudgetManager", "trim() Evicted " + victims.size() + " files, " + result);
+		}
+		scheduleSave();
+		return result;
+	}
+
+	/** Returns true if a path is in any location's ledger, must be called holding the lock **/
+	private boolean isTracked(@NonNull String path) {
+		for (Ledger ledger : mLedgers) {
+			if (ledger.mEntries.containsKey(path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Records a write made through the library, if the manager has been created **/
+	static void onFileWritten(@Nullable File file) {
+		StorageBudgetManager instance = sInstance;
+		if (instance != null && file != null) {
+			instance.recordWrite(file);
+		}
+	}
+
+	/** Records a read made through the library, if the manager has been created **/
+	static void onFileAccessed(@Nullable File file) {
+		StorageBudgetManager instance = sInstance;
+		if (instance != null && file != null) {
+			instance.recordAccess(file);
+		}
+	}
+
+	/** Forgets files deleted through {@link FileDeleter}, if the manager has been created **/
+	static void onFilesDeleted(@NonNull File... roots) {
+		StorageBudgetManager instance = sInstance;
+		if (instance != null) {
+			for (File root : roots) {
+				if (root != null) {
+					instance.forget(root);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the ledger of the location whose directory contains the file, or null if it is not
+	 * within a tracked location.
+	 */
+	@Nullable
+	private Ledger findLedger(@NonNull File file) {
+		String path = file.getAbsolutePath();
+		for (int i = 0; i < LOCATIONS.length; i++) {
+			String directory = getDirectory(LOCATIONS[i]);
+			if (directory != null && path.startsWith(directory) && path.length() > directory.length()
+					&& path.charAt(directory.length()) == '/') {
+				return mLedgers[i];
+			}
+		}
+		return null;
+	}
+
+	@Nullable
+	private String getDirectory(@TrackedLocation int location) {
+		if (location == TrackedLocation.COMPRESSED_IMAGES) {
+			return ImageUtils.getCompressedDirectory(mContext);
+		}
+		File directory = DirectoryCache.get(mContext, location);
+		return directory != null ? directory.getAbsolutePath() : null;
+	}
+
+	@NonNull
+	private Ledger getLedger(@TrackedLocation int location) {
+		for (Ledger ledger : mLedgers) {
+			if (ledger.mLocation == location) {
+				return ledger;
+			}
+		}
+		throw new IllegalArgumentException("Untracked location: " + location);
+	}
+
+	private void scheduleTrimIfOverQuota() {
+		boolean overQuota = false;
+		synchronized (this) {
+			for (Ledger ledger : mLedgers) {
+				if (ledger.mQuota != NO_QUOTA && ledger.mBytes > ledger.mQuota) {
+					overQuota = true;
+				}
+			}
+		}
+		if (overQuota && mTrimScheduled.compareAndSet(false, true)) {
+			UtilExecutors.background().execute(new Runnable() {
+				@Override
+				public void run() {
+					mTrimScheduled.set(false);
+					trim();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Saves the ledger on the shared background pool, coalescing changes made before it runs.
+	 */
+	private void scheduleSave() {
+		if (mSaveScheduled.compareAndSet(false, true)) {
+			UtilExecutors.background().execute(new Runnable() {
+				@Override
+				public void run() {
+					mSaveScheduled.set(false);
+					save();
+				}
+			});
+		}
+	}
+
+	private void save() {
+		StringBuilder builder = new StringBuilder(LEDGER_MAGIC).append('\n').append(LEDGER_VERSION).append('\n');
+		synchronized (this) {
+			for (Ledger ledger : mLedgers) {
+				for (Map.Entry<String, Entry> entry : ledger.mEntries.entrySet()) {
+					builder.append(ledger.mLocation).append('\t')
+						.append(entry.getValue().mSize).append('\t')
+						.append(entry.getValue().mLastAccess).append('\t')
+						.append(entry.getKey()).append('\n');
+				}
+			}
+		}
+		try {
+			AtomicFileWriter.write(mLedgerFile, builder, AtomicFileWriter.SyncPolicy.NONE);
+		} catch (IOException e) {
+			UtilLogger.e("StorageBudgetManager", "save() Unable to write ledger: " + e);
+		}
+	}
+
+	private void loadAsync() {
+		UtilExecutors.background().execute(new Runnable() {
+			@Override
+			public void run() {
+				load();
+			}
+		});
+	}
+
+	/**
+	 * Reads the persisted ledger, dropping files which no longer exist and updating the size of any
+	 * changed since. Files recorded before the ledger was loaded are kept as the most recent.
+	 */
+	private void load() {
+		List<LoadedEntry> loaded = new ArrayList<>();
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(mLedgerFile), UTF_8));
+			if (!LEDGER_MAGIC.equals(reader.readLine()) || !LEDGER_VERSION.equals(reader.readLine())) {
+				UtilLogger.e("StorageBudgetManager", "load() Discarding ledger with unexpected header");
+				return;
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t", 4);
+				if (parts.length != 4) {
+					continue;
+				}
+				File file = new File(parts[3]);
+				if (file.isFile()) {
+					loaded.add(new LoadedEntry(Integer.parseInt(parts[0]), parts[3], file.length(), Long.parseLong(parts[2])));
+				}
+			}
+		} catch (FileNotFoundException e) {
+			// Nothing has been tracked yet
+			return;
+		} catch (IOException | NumberFormatException e) {
+			UtilLogger.e("StorageBudgetManager", "load() Unable to read ledger: " + e);
+		} finally {
+			FileUtils.closeQuietly(reader);
+		}
+
+		Collections.sort(loaded, new Comparator<LoadedEntry>() {
+			@Override
+			public int compare(LoadedEntry lhs, LoadedEntry rhs) {
+				return lhs.mLastAccess < rhs.mLastAccess ? -1 : (lhs.mLastAccess == rhs.mLastAccess ? 0 : 1);
+			}
+		});
+		synchronized (this) {
+			for (Ledger ledger : mLedgers) {
+				LinkedHashMap<String, Entry> recorded = new LinkedHashMap<>(ledger.mEntries);
+				ledger.mEntries.clear();
+				ledger.mBytes = 0;
+				for (LoadedEntry entry : loaded) {
+					if (entry.mLocation == ledger.mLocation && !recorded.containsKey(entry.mPath)) {
+						ledger.put(entry.mPath, entry.mSize, entry.mLastAccess);
+					}
+				}
+				for (Map.Entry<String, Entry> entry : recorded.entrySet()) {
+					ledger.put(entry.getKey(), entry.getValue().mSize, entry.getValue().mLastAccess);
+				}
+			}
+		}
+		if (UtilLogger.isDebugLogsEnabled()) {
+			UtilLogger.d("StorageBudgetManager", "load() " + getUsage());
+		}
+		scheduleSave();
+		scheduleTrimIfOverQuota();
+	}
+
+	/**
+	 * Files tracked in a single location, iterated from least to most recently accessed.
+	 */
+	private static class Ledger {
+		final int mLocation;
+		final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(64, 0.75f, true);
+		long mBytes;
+		long mQuota = NO_QUOTA;
+
+		Ledger(int location) {
+			mLocation = location;
+		}
+
+		void put(@NonNull String path, long size, long lastAccess) {
+			Entry previous = mEntries.put(path, new Entry(size, lastAccess));
+			mBytes += size - (previous != null ? previous.mSize : 0);
+		}
+
+		boolean remove(@NonNull String path) {
+			Entry previous = mEntries.remove(path);
+			if (previous != null) {
+				mBytes -= previous.mSize;
+			}
+			return previous != null;
+		}
+	}
+
+	private static class Entry {
+		final long mSize;
+		long mLastAccess;
+
+		Entry(long size, long lastAccess) {
+			mSize = size;
+			mLastAccess = lastAccess;
+		}
+	}
+
+	private static class LoadedEntry {
+		final int mLocation;
+		final String mPath;
+		final long mSize;
+		final long mLastAccess;
+
+		LoadedEntry(int location, @NonNull String path, long size, long lastAccess) {
+			mLocation = location;
+			mPath = path;
+			mSize = size;
+			mLastAccess = lastAccess;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package com.bosh.utils;
+
+import android.content.Context;
+import android.os.Process;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.bosh.utils.FileUtils.FileStorageLocations;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out temporary {@link File}s in the {@link FileStorageLocations#DO_NOT_STORE} directory as
+ * {@link Lease}s, deleting each file once it is no longer needed. {@link File#deleteOnExit()} never
+ * runs on Android, as app processes are killed rather than exiting, so temporary files would
+ * otherwise remain until {@link FileUtils#cleanUpCache(Context)} is called.
+ *
+ * A file is deleted on a background reaper thread once its lease is released. Each lease is also
+ * tracked with a {@link PhantomReference}, so a lease which is garbage collected without being
+ * released is detected as a leak and its file deleted too. The file must therefore only be used
+ * while its {@link Lease} is reachable.
+ *
+ * Files left behind by a previous process are removed by a sweep when the manager is first created,
+ * deleting any file older than the orphan age set through {@link #initialise(Context, long)}.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class TempFileManager {
+
+	/** Default age from which files left in the temporary directory are deleted when swept **/
+	public static final long DEFAULT_ORPHAN_AGE_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+	private static TempFileManager sInstance;
+
+	private final Context mContext;
+	private final long mOrphanAgeMillis;
+	private final ReferenceQueue<Lease> mQueue = new ReferenceQueue<>();
+	/** Outstanding references, which must be strongly held for them to be enqueued **/
+	private final Set<LeaseReference> mReferences =
+		Collections.newSetFromMap(new ConcurrentHashMap<LeaseReference, Boolean>());
+	private final AtomicLong mLeakedCount = new AtomicLong();
+
+	private TempFileManager(@NonNull Context context, long orphanAgeMillis) {
+		mContext = context.getApplicationContext();
+		mOrphanAgeMillis = orphanAgeMillis;
+
+		Thread reaper = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				reap();
+			}
+		}, "TempFileManager-Reaper");
+		reaper.setDaemon(true);
+		reaper.start();
+	}
+
+	/**
+	 * Creates the shared manager with the provided orphan age, and sweeps the temporary directory
+	 * for files older than it on a background thread. This should be called once as the app starts,
+	 * subsequent calls return the existing manager and its orphan age is unchanged.
+	 *
+	 * @param context	{@link Context}
+	 * @param orphanAgeMillis	Age in milliseconds from which files left in the temporary directory
+	 *                          by a previous process are deleted
+	 * @return	Shared {@link TempFileManager}
+	 */
+	@NonNull
+	public static synchronized TempFileManager initialise(@NonNull Context context,
+			@IntRange(from=0) long orphanAgeMillis) {
+		if (sInstance == null) {
+			sInstance = new TempFileManager(context, orphanAgeMillis);
+			sInstance.sweepAsync();
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Returns the shared manager, creating it with the {@link #DEFAULT_ORPHAN_AGE_MILLIS} if
+	 * {@link #initialise(Context, long)} hasn't been called.
+	 *
+	 * @param context	{@link Context}
+	 * @return	Shared {@link TempFileManager}
+	 */
+	@NonNull
+	public static TempFileManager getInstance(@NonNull Context context) {
+		return initialise(context, DEFAULT_ORPHAN_AGE_MILLIS);
+	}
+
+	/**
+	 * Leases a new, uniquely named temporary {@link File}. The file itself isn't created.
+	 *
+	 * @param prefix	Prefix of the file name, e.g. "IMG_"
+	 * @param extension	Extension of the file name, e.g. ".jpg"
+	 * @return	{@link Lease} of the file
+	 * @throws IOException	If the temporary directory is inaccessible
+	 */
+	@NonNull
+	public Lease acquire(@NonNull String prefix, @NonNull String extension) throws IOException {
+		File directory = DirectoryCache.get(mContext, FileStorageLocations.DO_NOT_STORE);
+		if (directory == null) {
+			throw new IOException("Unable to lease temporary file as directory is inaccessible");
+		}
+		if (!extension.isEmpty() && !extension.startsWith(".")) {
+			extension = "." + extension;
+		}
+
+		File file = new File(directory, prefix + FileUtils.getUniqueFileName() + extension);
+		Lease lease = new Lease(file);
+		lease.mReference = new LeaseReference(lease, file, mQueue);
+		mReferences.add(lease.mReference);
+		return lease;
+	}
+
+	/** Returns the number of leases which have not yet been released or collected **/
+	public int getLeasedCount() {
+		return mReferences.size();
+	}
+
+	/** Returns the number of leases garbage collected without being released **/
+	public long getLeakedCount() {
+		return mLeakedCount.get();
+	}
+
+	/**
+	 * Deletes files in the temporary directory older than the orphan age, skipping any which are
+	 * currently leased. This blocks while the directory is swept, see {@link #sweepAsync()}.
+	 *
+	 * @return	{@link FileDeleter.Result} describing the files removed
+	 */
+	@NonNull
+	public FileDeleter.Result sweep() {
+		String directoryPath = FileUtils.getDirectory(mContext, FileStorageLocations.DO_NOT_STORE);
+		File[] children = directoryPath == null ? null : new File(directoryPath).listFiles();
+		if (children == null) {
+			return new FileDeleter.Result();
+		}
+
+		Set<File> leased = new HashSet<>();
+		for (LeaseReference reference : mReferences) {
+			leased.add(reference.mFile);
+		}
+
+		long cutoff = System.currentTimeMillis() - mOrphanAgeMillis;
+		List<File> orphans = new ArrayList<>();
+		for (File child : children) {
+			if (!leased.contains(child) && child.lastModified() < cutoff) {
+				orphans.add(child);
+			}
+		}
+
+		FileDeleter.Result result = FileDeleter.delete(orphans.toArray(new File[orphans.size()]));
+		if (UtilLogger.isDebugLogsEnabled()) {
+			UtilLogger.d("TempFileManager", "sweep(" + directoryPath + ") " + result);
+		}
+		return result;
+	}
+
+	/**
+	 * Sweeps the temporary directory for orphaned files on a background thread.
+	 */
+	public void sweepAsync() {
+		// Deleting orphaned directories waits on the shared pool, so the sweep runs on its own thread
+		Thread sweeper = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				sweep();
+			}
+		}, "TempFileManager-Sweeper");
+		sweeper.setDaemon(true);
+		sweeper.start();
+	}
+
+	/**
+	 * Returns true if the file is held by a lease of the shared manager which hasn't been released,
+	 * so must not be deleted by anything else.
+	 */
+	static boolean isLeased(@NonNull File file) {
+		TempFileManager instance;
+		synchronized (TempFileManager.class) {
+			instance = sInstance;
+		}
+		if (instance == null) {
+			return false;
+		}
+		String path = file.getAbsolutePath();
+		for (LeaseReference reference : instance.mReferences) {
+			if (!reference.mReleased && reference.mFile.getAbsolutePath().equals(path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Deletes the file of each released or collected lease as its reference is enqueued. Runs on the
+	 * reaper thread for the life of the process.
+	 */
+	private void reap() {
+		while (true) {
+			LeaseReference reference;
+			try {
+				reference = (LeaseReference) mQueue.remove();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			mReferences.remove(reference);
+			if (!reference.mReleased) {
+				mLeakedCount.incrementAndGet();
+				UtilLogger.e("TempFileManager", "Lease of " + reference.mFile.getAbsolutePath()
+					+ " was never released, deleting leaked file");
+			}
+			if (reference.mFile.exists()) {
+				FileDeleter.delete(reference.mFile);
+			}
+		}
+	}
+
+	/**
+	 * Lease of a temporary {@link File}. The file is deleted once the lease is released, or if the
+	 * lease is garbage collected without being released.
+	 */
+	public static class Lease implements Closeable {
+		private final File mFile;
+		private LeaseReference mReference;
+
+		private Lease(@NonNull File file) {
+			mFile = file;
+		}
+
+		/** Returns the leased {@link File} **/
+		@NonNull
+		public File getFile() {
+			return mFile;
+		}
+
+		/** Returns true if the lease has been released **/
+		public boolean isReleased() {
+			return mReference.mReleased;
+		}
+
+		/**
+		 * Releases the lease, deleting the file in the background. The file must not be used after.
+		 */
+		public void release() {
+			if (!mReference.mReleased) {
+				mReference.mReleased = true;
+				mReference.enqueue();
+			}
+		}
+
+		@Override
+		public void close() {
+			release();
+		}
+	}
+
+	/**
+	 * Reference to a {@link Lease}, holding what is needed to delete its file once the lease is
+	 * released or collected. It must not reference the lease itself.
+	 */
+	private static class LeaseReference extends PhantomReference<Lease> {
+		private final File mFile;
+		private volatile boolean mReleased;
+
+		LeaseReference(@NonNull Lease lease, @NonNull File file, @Nullable ReferenceQueue<Lease> queue) {
+			super(lease, queue);
+			mFile = file;
+		}
+	}
+}
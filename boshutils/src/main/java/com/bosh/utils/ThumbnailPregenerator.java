@@ -0,0 +1,381 @@
+package com.bosh.utils;
+
+import android.Manifest.permission;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Configuration;
+import android.database.Cursor;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.MediaStore.Images.Media;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresPermission;
+import java.io.File;
+
+/**
+ * Generates thumbnails for every image in the {@link android.provider.MediaStore} ahead of time, so
+ * that the first scroll through a large gallery doesn't have to create them lazily. Images are walked
+ * newest first on a lowest priority background thread, and each thumbnail is created through
+ * {@link ImageUtils#getThumbnailFile(Context, long, File, int, int)}, which is the same cache any
+ * gallery screen should read from.
+ *
+ * Images are ordered by their date taken, falling back to the date added for images without one,
+ * such as screenshots and downloads. The date and id of the last processed image are saved as a
+ * checkpoint, so if the process is killed the next call to {@link #start()} continues from where the
+ * previous run stopped. Generation pauses automatically while the system reports memory pressure,
+ * and backs off whenever the thread is being starved of CPU time by foreground work.
+ *
+ * The highest image id processed is also saved, and each call to {@link #start()} first processes
+ * any image added since, in the order they were added, before resuming the walk. Ids are used rather
+ * than dates as a new image can carry an old date taken, such as a photo copied from a camera.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ThumbnailPregenerator implements ComponentCallbacks2 {
+
+	private static final String PREFERENCES_NAME = "com.bosh.utils.thumbnails";
+	private static final String KEY_CHECKPOINT_DATE = "checkpoint_date";
+	private static final String KEY_CHECKPOINT_ID = "checkpoint_id";
+	private static final String KEY_COMPLETE = "complete";
+	private static final String KEY_NEWEST_ID = "newest_id";
+
+	/** Number of thumbnails generated between each saved checkpoint **/
+	private static final int CHECKPOINT_INTERVAL = 20;
+	/** Time to wait before re-checking once paused due to memory pressure **/
+	private static final long MEMORY_PAUSE_MS = 5000;
+	/** Wall clock to CPU time ratio above which the thread is considered starved of CPU **/
+	private static final int CPU_CONTENTION_RATIO = 3;
+	/** Time to back off for once CPU contention is detected **/
+	private static final long CPU_BACKOFF_MS = 500;
+	/** Date images are ordered by, in milliseconds. The date added is in seconds **/
+	private static final String SORT_DATE = "COALESCE(" + Media.DATE_TAKEN + ", " + Media.DATE_ADDED + " * 1000)";
+
+	private final Context mContext;
+	private final SharedPreferences mPreferences;
+	private final int mWidth;
+	private final int mHeight;
+	private final Object mLock = new Object();
+
+	private Thread mThread;
+	private boolean mCallbacksRegistered;
+	private volatile boolean mStopped;
+	private volatile boolean mMemoryPressure;
+
+	/**
+	 * Creates a thumbnail pre-generator for thumbnails of the given dimensions. These should match the
+	 * dimensions later requested by the gallery, otherwise the generated thumbnails will not be reused.
+	 *
+	 * @param context	{@link Context}
+	 * @param width	Width of the thumbnails
+	 * @param height	Height of the thumbnails
+	 */
+	public ThumbnailPregenerator(@NonNull Context context, @IntRange(from=1) int width, @IntRange(from=1) int height) {
+		mContext = context.getApplicationContext();
+		mPreferences = mContext.getSharedPreferences(PREFERENCES_NAME + "." + width + "x" + height,
+			Context.MODE_PRIVATE);
+		mWidth = width;
+		mHeight = height;
+	}
+
+	/**
+	 * Starts, or resumes from the last saved checkpoint, generating thumbnails on a background thread.
+	 * Images added since the last run are processed first, even once the whole gallery has been
+	 * walked. This method does nothing if generation is already running.
+	 *
+	 * This method requires the user to have granted the app the {@link permission#READ_EXTERNAL_STORAGE}
+	 * permission which will require this method call to be surrounded by a method name that begins
+	 * with "check" and ends with "permission".
+	 */
+	@RequiresPermission(permission.READ_EXTERNAL_STORAGE)
+	public void start() {
+		synchronized (mLock) {
+			if (isRunning()) {
+				return;
+			}
+
+			mStopped = false;
+			if (!mCallbacksRegistered) {
+				// A stopped thread which hasn't yet exited leaves the callbacks registered for this run
+				mContext.registerComponentCallbacks(this);
+				mCallbacksRegistered = true;
+			}
+			mThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+					try {
+						generate();
+					} finally {
+						unregisterCallbacks();
+					}
+				}
+			}, "ThumbnailPregenerator");
+			mThread.start();
+		}
+	}
+
+	/**
+	 * Stops generating thumbnails, the checkpoint is kept so a later call to {@link #start()} will
+	 * resume from the last processed image.
+	 */
+	public void stop() {
+		synchronized (mLock) {
+			mStopped = true;
+			mLock.notifyAll();
+			if (mThread != null) {
+				mThread.interrupt();
+				mThread = null;
+			}
+		}
+	}
+
+	/**
+	 * Unregisters the memory callbacks as a generator thread exits, unless a newer thread has been
+	 * started which still needs them.
+	 */
+	private void unregisterCallbacks() {
+		synchronized (mLock) {
+			if (mCallbacksRegistered && (mThread == null || mThread == Thread.currentThread())) {
+				mContext.unregisterComponentCallbacks(this);
+				mCallbacksRegistered = false;
+			}
+		}
+	}
+
+	/**
+	 * Clears the saved checkpoint, so that the next call to {@link #start()} walks the whole gallery
+	 * again from the newest image, e.g. once the thumbnail cache has been cleared.
+	 */
+	public void reset() {
+		mPreferences.edit().clear().apply();
+	}
+
+	/** Returns true while thumbnails are being generated **/
+	public boolean isRunning() {
+		synchronized (mLock) {
+			return mThread != null && mThread.isAlive();
+		}
+	}
+
+	/** Returns true once the whole gallery has been walked, images added later may still be pending **/
+	public boolean isComplete() {
+		return mPreferences.getBoolean(KEY_COMPLETE, false);
+	}
+
+	@Override
+	public void onTrimMemory(int level) {
+		mMemoryPressure = level >= TRIM_MEMORY_RUNNING_LOW;
+	}
+
+	@Override
+	public void onLowMemory() {
+		mMemoryPressure = true;
+	}
+
+	@Override
+	public void onConfigurationChanged(Configuration newConfig) {
+		// Not required
+	}
+
+	/**
+	 * Processes images added since the last run, then continues the walk through the gallery if it
+	 * hasn't yet completed. Runs on the generator thread.
+	 */
+	private void generate() {
+		int processed = 0;
+		if (mPreferences.contains(KEY_NEWEST_ID)) {
+			processed += generateAdded(mPreferences.getLong(KEY_NEWEST_ID, 0));
+		}
+		if (!isStopped() && !mPreferences.getBoolean(KEY_COMPLETE, false)) {
+			processed += generateFromCheckpoint();
+		}
+
+		if (UtilLogger.isDebugLogsEnabled()) {
+			UtilLogger.d("ThumbnailPregenerator", "generate() Processed " + processed + " images");
+		}
+	}
+
+	/**
+	 * Generates a thumbnail for each image with an id above the newest processed, oldest first so the
+	 * newest id can be saved as it goes.
+	 *
+	 * @return	Number of images processed
+	 */
+	private int generateAdded(long newestId) {
+		Cursor cursor = query(new String[]{Media._ID, Media.DATA}, Media._ID + ">?",
+			new String[]{String.valueOf(newestId)}, Media._ID + " ASC");
+		if (cursor == null) {
+			return 0;
+		}
+
+		int processed = 0;
+		try {
+			int idIdx = cursor.getColumnIndex(Media._ID);
+			int pathIdx = cursor.getColumnIndex(Media.DATA);
+
+			while (!isStopped() && cursor.moveToNext()) {
+				if (!waitForResources()) {
+					break;
+				}
+				newestId = cursor.getLong(idIdx);
+				generateThumbnail(newestId, cursor.getString(pathIdx));
+				if (++processed % CHECKPOINT_INTERVAL == 0) {
+					mPreferences.edit().putLong(KEY_NEWEST_ID, newestId).apply();
+				}
+			}
+			mPreferences.edit().putLong(KEY_NEWEST_ID, newestId).apply();
+		} finally {
+			cursor.close();
+		}
+		return processed;
+	}
+
+	/**
+	 * Walks the image table newest first, starting after the saved checkpoint, and generates a
+	 * thumbnail for each image.
+	 *
+	 * @return	Number of images processed
+	 */
+	private int generateFromCheckpoint() {
+		long checkpointDate = mPreferences.getLong(KEY_CHECKPOINT_DATE, Long.MAX_VALUE);
+		long checkpointId = mPreferences.getLong(KEY_CHECKPOINT_ID, Long.MAX_VALUE);
+		long newestId = mPreferences.getLong(KEY_NEWEST_ID, 0);
+
+		String[] projection = new String[]{Media._ID, Media.DATA, Media.DATE_TAKEN, Media.DATE_ADDED};
+		String selection = SORT_DATE + "<? OR (" + SORT_DATE + "=? AND " + Media._ID + "<?)";
+		String[] selectionArgs = new String[]{String.valueOf(checkpointDate), String.valueOf(checkpointDate),
+			String.valueOf(checkpointId)};
+		String sortOrder = SORT_DATE + " DESC, " + Media._ID + " DESC";
+
+		Cursor cursor = query(projection, selection, selectionArgs, sortOrder);
+		if (cursor == null) {
+			return 0;
+		}
+
+		int processed = 0;
+		try {
+			int idIdx = cursor.getColumnIndex(Media._ID);
+			int pathIdx = cursor.getColumnIndex(Media.DATA);
+			int dateIdx = cursor.getColumnIndex(Media.DATE_TAKEN);
+			int dateAddedIdx = cursor.getColumnIndex(Media.DATE_ADDED);
+
+			while (!isStopped() && cursor.moveToNext()) {
+				if (!waitForResources()) {
+					break;
+				}
+
+				long id = cursor.getLong(idIdx);
+				generateThumbnail(id, cursor.getString(pathIdx));
+
+				// Matches SORT_DATE, so the checkpoint resumes at the same position in the ordering
+				checkpointDate = cursor.isNull(dateIdx) ? cursor.getLong(dateAddedIdx) * 1000 : cursor.getLong(dateIdx);
+				checkpointId = id;
+				newestId = Math.max(newestId, id);
+				if (++processed % CHECKPOINT_INTERVAL == 0) {
+					saveCheckpoint(checkpointDate, checkpointId, newestId, false);
+				}
+			}
+
+			saveCheckpoint(checkpointDate, checkpointId, newestId, !isStopped() && cursor.isAfterLast());
+		} finally {
+			cursor.close();
+		}
+		return processed;
+	}
+
+	/**
+	 * Queries the image table, returning null if it cannot be read.
+	 */
+	@Nullable
+	@SuppressWarnings("MissingPermission")
+	private Cursor query(@NonNull String[] projection, @NonNull String selection, @NonNull String[] selectionArgs,
+			@NonNull String sortOrder) {
+		try {
+			return mContext.getContentResolver().query(Media.EXTERNAL_CONTENT_URI, projection, selection,
+				selectionArgs, sortOrder);
+		} catch (SecurityException e) {
+			UtilLogger.e("ThumbnailPregenerator", "query() Unable to read the Media Store: " + e.getLocalizedMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Generates the thumbnail of a single image, backing off afterwards if the thread is being starved
+	 * of CPU time.
+	 */
+	private void generateThumbnail(long id, @Nullable String path) {
+		long wallStart = SystemClock.elapsedRealtime();
+		long cpuStart = SystemClock.currentThreadTimeMillis();
+
+		if (path != null) {
+			ImageUtils.getThumbnailFile(mContext, id, new File(path), mWidth, mHeight);
+		}
+
+		// A thread at the lowest priority only falls this far behind when foreground work is
+		// competing for the CPU, in which case give it some breathing room
+		long wall = SystemClock.elapsedRealtime() - wallStart;
+		long cpu = SystemClock.currentThreadTimeMillis() - cpuStart;
+		if (wall > CPU_BACKOFF_MS && wall > cpu * CPU_CONTENTION_RATIO) {
+			pause(CPU_BACKOFF_MS);
+		}
+	}
+
+	/**
+	 * Blocks while the device is under memory pressure.
+	 *
+	 * @return	True if generation should continue, false if it has been stopped
+	 */
+	private boolean waitForResources() {
+		ActivityManager activityManager = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+		ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+		while (!isStopped()) {
+			if (activityManager != null) {
+				activityManager.getMemoryInfo(memoryInfo);
+			}
+			if (!mMemoryPressure && !memoryInfo.lowMemory) {
+				return true;
+			}
+			// Trim memory callbacks are not repeated once pressure eases, so clear the flag and re-check
+			mMemoryPressure = false;
+			pause(MEMORY_PAUSE_MS);
+		}
+		return false;
+	}
+
+	/** Sleeps the generator thread, returning early if generation is stopped **/
+	private void pause(long millis) {
+		synchronized (mLock) {
+			if (isStopped()) {
+				return;
+			}
+			try {
+				mLock.wait(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the current generator thread should finish. A stopped thread is interrupted,
+	 * which keeps it stopped even if {@link #start()} is called again before it has exited.
+	 */
+	private boolean isStopped() {
+		return mStopped || Thread.currentThread().isInterrupted();
+	}
+
+	private void saveCheckpoint(long date, long id, long newestId, boolean complete) {
+		mPreferences.edit()
+			.putLong(KEY_CHECKPOINT_DATE, date)
+			.putLong(KEY_CHECKPOINT_ID, id)
+			.putLong(KEY_NEWEST_ID, newestId)
+			.putBoolean(KEY_COMPLETE, complete)
+			.apply();
+	}
+}
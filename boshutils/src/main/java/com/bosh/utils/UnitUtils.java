@@ -18,9 +18,6 @@ import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.TypedValue;
 import android.view.View;
-import java.io.ByteArrayOutputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Locale;
 
 /**
@@ -184,9 +181,13 @@ public class UnitUtils {
 	@Nullable
 	public static byte[] bitmapToBytes(@Nullable Bitmap bitmap, @Nullable Bitmap.CompressFormat format) {
 		if (bitmap == null) return null;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		bitmap.compress(format, 100, baos);
-		return baos.toByteArray();
+		PooledByteArrayOutputStream stream = new PooledByteArrayOutputStream();
+		try {
+			bitmap.compress(format, 100, stream);
+			return stream.toByteArray();
+		} finally {
+			stream.close();
+		}
 	}
 
 	@Nullable
@@ -248,27 +249,6 @@ public class UnitUtils {
 
 	@NonNull
 	public static String stringToMd5(@NonNull String string) {
-		try {
-			// Create MD5 Hash
-			MessageDigest digest = java.security.MessageDigest
-				.getInstance("MD5");
-			digest.update(string.getBytes());
-			byte messageDigest[] = digest.digest();
-
-			// Create Hex String
-			StringBuilder hexString = new StringBuilder();
-			for (byte aMessageDigest : messageDigest) {
-				StringBuilder h = new StringBuilder(Integer.toHexString(0xFF & aMessageDigest));
-				while (h.length() < 2) {
-					h.insert(0, "0");
-				}
-				hexString.append(h);
-			}
-			return hexString.toString();
-
-		} catch (NoSuchAlgorithmException e) {
-			UtilLogger.e("UnitUtils", "No such algorithm exception", e);
-		}
-		return "";
+		return HashUtils.digestHex(string, HashUtils.Algorithm.MD5);
 	}
 }
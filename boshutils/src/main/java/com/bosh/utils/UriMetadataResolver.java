@@ -0,0 +1,317 @@
+package com.bosh.utils;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.BaseColumns;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.provider.OpenableColumns;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.webkit.MimeTypeMap;
+import com.bosh.utils.FileUtils.FileMetadata;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Resolves the display name, size and mime type of many {@link Uri}s at once, used by
+ * {@link FileUtils#getFileMetadata(Context, Collection)}. Only the three columns needed are ever
+ * requested from a provider.
+ *
+ * {@link MediaStore} item {@link Uri}s are grouped by their table and resolved with one
+ * "_id IN (...)" query per {@link FileUtils#BATCH_QUERY_SIZE} items. Any other provider can only be
+ * asked about one {@link Uri} per query, so those queries, along with each batch, are run
+ * concurrently on the libraries shared background pool.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+final class UriMetadataResolver {
+
+	private static final String[] MEDIA_PROJECTION = {BaseColumns._ID, MediaStore.MediaColumns.DISPLAY_NAME,
+		MediaStore.MediaColumns.SIZE, MediaStore.MediaColumns.MIME_TYPE};
+	private static final String[] DOCUMENT_PROJECTION = {DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+		DocumentsContract.Document.COLUMN_SIZE, DocumentsContract.Document.COLUMN_MIME_TYPE};
+	private static final String[] OPENABLE_PROJECTION = {OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+
+	private UriMetadataResolver() {
+		// Not instantiable
+	}
+
+	/**
+	 * Resolves the metadata of each {@link Uri}, blocking until all have been resolved. This must not
+	 * be called from the shared background pool.
+	 *
+	 * @return	{@link Map} of every {@link Uri} to its {@link FileMetadata}, in the order provided
+	 */
+	@NonNull
+	static Map<Uri, FileMetadata> resolve(@NonNull final Context context, @NonNull Collection<Uri> uris) {
+		Map<Uri, FileMetadata> resolved = new HashMap<>(uris.size());
+		Map<Uri, List<Uri>> mediaTables = new LinkedHashMap<>();
+		List<Callable<List<FileMetadata>>> tasks = new ArrayList<>();
+
+		for (final Uri uri : new LinkedHashSet<>(uris)) {
+			if (ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && uri.getPath() != null) {
+				resolved.put(uri, resolveFile(uri));
+				continue;
+			}
+
+			Uri table = getMediaTable(uri);
+			if (table != null) {
+				List<Uri> items = mediaTables.get(table);
+				if (items == null) {
+					items = new ArrayList<>();
+					mediaTables.put(table, items);
+				}
+				items.add(uri);
+			} else {
+				tasks.add(new Callable<List<FileMetadata>>() {
+					@Override
+					public List<FileMetadata> call() throws Exception {
+						List<FileMetadata> metadata = new ArrayList<>(1);
+						metadata.add(query(context, uri));
+						return metadata;
+					}
+				});
+			}
+		}
+
+		for (Map.Entry<Uri, List<Uri>> entry : mediaTables.entrySet()) {
+			final Uri table = entry.getKey();
+			List<Uri> items = entry.getValue();
+			for (int start = 0; start < items.size(); start += FileUtils.BATCH_QUERY_SIZE) {
+				final List<Uri> batch = items.subList(start, Math.min(items.size(), start + FileUtils.BATCH_QUERY_SIZE));
+				tasks.add(new Callable<List<FileMetadata>>() {
+					@Override
+					public List<FileMetadata> call() throws Exception {
+						return queryMediaTable(context, table, batch);
+					}
+				});
+			}
+		}
+
+		for (List<FileMetadata> metadata : run(tasks)) {
+			for (FileMetadata item : metadata) {
+				resolved.put(item.getUri(), item);
+			}
+		}
+
+		Map<Uri, FileMetadata> ordered = new LinkedHashMap<>(uris.size());
+		for (Uri uri : uris) {
+			FileMetadata metadata = resolved.get(uri);
+			ordered.put(uri, metadata != null ? metadata : new FileMetadata(uri, uri.getLastPathSegment(), -1, null));
+		}
+		return ordered;
+	}
+
+	/**
+	 * Runs the tasks concurrently on the shared background pool, or directly if there is only one.
+	 * Tasks which fail are logged and left out of the results.
+	 */
+	@NonNull
+	private static List<List<FileMetadata>> run(@NonNull List<Callable<List<FileMetadata>>> tasks) {
+		List<List<FileMetadata>> results = new ArrayList<>(tasks.size());
+		if (tasks.size() == 1) {
+			try {
+				results.add(tasks.get(0).call());
+			} catch (Exception e) {
+				UtilLogger.e("UriMetadataResolver", "resolve() failed: " + e);
+			}
+			return results;
+		}
+
+		List<Future<List<FileMetadata>>> futures = new ArrayList<>(tasks.size());
+		for (Callable<List<FileMetadata>> task : tasks) {
+			futures.add(UtilExecutors.background().submit(task));
+		}
+		for (Future<List<FileMetadata>> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException e) {
+				// Abandon the remaining queries, their Uris are reported without metadata
+				Thread.currentThread().interrupt();
+				for (Future<List<FileMetadata>> remaining : futures) {
+					remaining.cancel(true);
+				}
+				break;
+			} catch (ExecutionException e) {
+				UtilLogger.e("UriMetadataResolver", "resolve() failed: " + e.getCause());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the {@link MediaStore} table containing the item referenced by the {@link Uri}, or null
+	 * if the {@link Uri} isn't a {@link MediaStore} item, e.g. content://media/external/images/media/12
+	 * returns content://media/external/images/media.
+	 */
+	@Nullable
+	private static Uri getMediaTable(@NonNull Uri uri) {
+		if (!MediaStore.AUTHORITY.equals(uri.getAuthority()) || uri.getQuery() != null) {
+			return null;
+		}
+		List<String> segments = uri.getPathSegments();
+		if (segments.size() < 2 || !isNumeric(segments.get(segments.size() - 1))) {
+			return null;
+		}
+
+		Uri.Builder builder = new Uri.Builder().scheme(uri.getScheme()).authority(uri.getAuthority());
+		for (int i = 0; i < segments.size() - 1; i++) {
+			builder.appendPath(segments.get(i));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Resolves a batch of items from a single {@link MediaStore} table in one query. If the provider
+	 * rejects the query, each item is queried individually instead.
+	 */
+	@NonNull
+	private static List<FileMetadata> queryMediaTable(@NonNull Context context, @NonNull Uri table,
+			@NonNull List<Uri> items) {
+
+		Map<Long, Uri> ids = new HashMap<>(items.size());
+		StringBuilder selection = new StringBuilder(BaseColumns._ID).append(" IN (");
+		String[] selectionArgs = new String[items.size()];
+		for (int i = 0; i < items.size(); i++) {
+			long id = ContentUris.parseId(items.get(i));
+			ids.put(id, items.get(i));
+			selection.append(i == 0 ? "?" : ",?");
+			selectionArgs[i] = String.valueOf(id);
+		}
+		selection.append(')');
+
+		List<FileMetadata> metadata = new ArrayList<>(items.size());
+		Cursor cursor;
+		try {
+			cursor = context.getContentResolver().query(table, MEDIA_PROJECTION, selection.toString(), selectionArgs, null);
+		} catch (RuntimeException e) {
+			UtilLogger.e("UriMetadataResolver", "queryMediaTable(" + table + ") Batch query rejected, "
+				+ "querying individually: " + e);
+			for (Uri item : items) {
+				metadata.add(query(context, item));
+			}
+			return metadata;
+		}
+		if (cursor == null) {
+			return metadata;
+		}
+
+		try {
+			int idIdx = cursor.getColumnIndexOrThrow(BaseColumns._ID);
+			int nameIdx = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DISPLAY_NAME);
+			int sizeIdx = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.SIZE);
+			int mimeIdx = cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.MIME_TYPE);
+			while (cursor.moveToNext()) {
+				Uri uri = ids.get(cursor.getLong(idIdx));
+				if (uri != null) {
+					metadata.add(read(context, uri, cursor, nameIdx, sizeIdx, mimeIdx));
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		return metadata;
+	}
+
+	/**
+	 * Resolves a single {@link Uri}, asking document providers for the mime type in the same query
+	 * and any other provider through {@link ContentResolver#getType(Uri)}.
+	 */
+	@NonNull
+	private static FileMetadata query(@NonNull Context context, @NonNull Uri uri) {
+		boolean document = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+			&& DocumentsContract.isDocumentUri(context, uri);
+		ContentResolver resolver = context.getContentResolver();
+
+		try {
+			Cursor cursor = resolver.query(uri, document ? DOCUMENT_PROJECTION : OPENABLE_PROJECTION, null, null, null);
+			if (cursor != null) {
+				try {
+					if (cursor.moveToFirst()) {
+						// Providers may reorder, add or omit columns, so each is looked up by name
+						int nameIdx = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+						int sizeIdx = cursor.getColumnIndex(OpenableColumns.SIZE);
+						int mimeIdx = document
+							? cursor.getColumnIndex(DocumentsContract.Document.COLUMN_MIME_TYPE) : -1;
+						FileMetadata metadata = read(context, uri, cursor, nameIdx, sizeIdx, mimeIdx);
+						if (metadata.getMimeType() != null) {
+							return metadata;
+						}
+						return new FileMetadata(uri, metadata.getDisplayName(), metadata.getSize(), resolver.getType(uri));
+					}
+				} finally {
+					cursor.close();
+				}
+			}
+			return new FileMetadata(uri, uri.getLastPathSegment(), -1, resolver.getType(uri));
+		} catch (RuntimeException e) {
+			// Providers can reject the query or the caller's access to the Uri
+			UtilLogger.e("UriMetadataResolver", "query(" + uri + ") failed: " + e);
+			return new FileMetadata(uri, uri.getLastPathSegment(), -1, null);
+		}
+	}
+
+	/**
+	 * Reads the metadata at the cursor's current row, caching the display name for
+	 * {@link FileUtils#getFileDisplayName(Context, Uri)}. A column index of -1 marks a column the
+	 * provider didn't return.
+	 */
+	@NonNull
+	private static FileMetadata read(@NonNull Context context, @NonNull Uri uri, @NonNull Cursor cursor,
+			int nameIdx, int sizeIdx, int mimeIdx) {
+
+		String displayName = nameIdx == -1 ? null : cursor.getString(nameIdx);
+		long size = sizeIdx == -1 || cursor.isNull(sizeIdx) ? -1 : cursor.getLong(sizeIdx);
+		String mimeType = mimeIdx == -1 ? null : cursor.getString(mimeIdx);
+
+		if (displayName != null) {
+			UriPathCache.putDisplayName(context, uri, displayName);
+		} else {
+			displayName = uri.getLastPathSegment();
+		}
+		return new FileMetadata(uri, displayName, size, mimeType);
+	}
+
+	/**
+	 * Resolves a file {@link Uri} from the file itself, with the mime type guessed from its extension.
+	 */
+	@NonNull
+	private static FileMetadata resolveFile(@NonNull Uri uri) {
+		File file = new File(uri.getPath());
+		String mimeType = null;
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot != -1) {
+			mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(name.substring(dot + 1).toLowerCase(Locale.US));
+		}
+		return new FileMetadata(uri, name, file.isFile() ? file.length() : -1, mimeType);
+	}
+
+	private static boolean isNumeric(@NonNull String segment) {
+		if (segment.isEmpty() || segment.length() > 18) {
+			return false;
+		}
+		for (int i = 0; i < segment.length(); i++) {
+			if (!Character.isDigit(segment.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
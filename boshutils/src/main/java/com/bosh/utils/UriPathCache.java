@@ -0,0 +1,183 @@
+package com.bosh.utils;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.LruCache;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded LRU cache of content {@link Uri}s to their resolved file path and display name, used by
+ * {@link FileUtils#getFilePath(Context, Uri)} and {@link FileUtils#getFileDisplayName(Context, Uri)}
+ * so repeatedly resolving the same {@link Uri} doesn't query the
+ * {@link android.content.ContentResolver} every time.
+ *
+ * The first time a {@link Uri} from an authority is cached a {@link ContentObserver} is registered
+ * on that authority, and any change it reports evicts every cached entry from the authority. Media
+ * and Downloads document {@link Uri}s are resolved through the {@link MediaStore} and Downloads
+ * providers, so their entries are also evicted when those providers report changes.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+final class UriPathCache {
+
+	private static final int MAX_ENTRIES = 256;
+
+	private static final String MEDIA_DOCUMENTS_AUTHORITY = "com.android.providers.media.documents";
+	private static final String DOWNLOADS_DOCUMENTS_AUTHORITY = "com.android.providers.downloads.documents";
+	private static final String DOWNLOADS_AUTHORITY = "downloads";
+
+	private static final LruCache<Uri, Entry> sCache = new LruCache<>(MAX_ENTRIES);
+
+	/** Observed authorities, mapped to the authorities whose entries are evicted when they change **/
+	private static final Map<String, Set<String>> sObservedAuthorities = new HashMap<>();
+
+	private UriPathCache() {
+		// Not instantiable
+	}
+
+	/**
+	 * Returns the cached {@link Entry} for the {@link Uri}, or null if it hasn't been resolved.
+	 */
+	@Nullable
+	static Entry get(@NonNull Uri uri) {
+		return sCache.get(uri);
+	}
+
+	/**
+	 * Caches the resolved file path of a content {@link Uri}.
+	 */
+	static void putPath(@NonNull Context context, @NonNull Uri uri, @NonNull String path) {
+		if (!isCacheable(uri)) {
+			return;
+		}
+		synchronized (sCache) {
+			getOrCreate(uri).mPath = path;
+		}
+		observe(context, uri.getAuthority());
+	}
+
+	/**
+	 * Caches the resolved display name of a content {@link Uri}.
+	 */
+	static void putDisplayName(@NonNull Context context, @NonNull Uri uri, @NonNull String displayName) {
+		if (!isCacheable(uri)) {
+			return;
+		}
+		synchronized (sCache) {
+			getOrCreate(uri).mDisplayName = displayName;
+		}
+		observe(context, uri.getAuthority());
+	}
+
+	/** Removes every cached entry **/
+	static void clear() {
+		sCache.evictAll();
+	}
+
+	private static boolean isCacheable(@NonNull Uri uri) {
+		return "content".equalsIgnoreCase(uri.getScheme()) && uri.getAuthority() != null;
+	}
+
+	@NonNull
+	private static Entry getOrCreate(@NonNull Uri uri) {
+		Entry entry = sCache.get(uri);
+		if (entry == null) {
+			entry = new Entry();
+			sCache.put(uri, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Registers the observers which invalidate entries from the provided authority, if not already
+	 * registered.
+	 */
+	private static void observe(@NonNull Context context, @NonNull String authority) {
+		if (MEDIA_DOCUMENTS_AUTHORITY.equals(authority)) {
+			observe(context, MediaStore.AUTHORITY, authority);
+		} else if (DOWNLOADS_DOCUMENTS_AUTHORITY.equals(authority)) {
+			observe(context, DOWNLOADS_AUTHORITY, authority);
+		}
+		observe(context, authority, authority);
+	}
+
+	private static void observe(@NonNull Context context, @NonNull final String observedAuthority,
+			@NonNull String invalidatedAuthority) {
+
+		synchronized (sObservedAuthorities) {
+			Set<String> invalidated = sObservedAuthorities.get(observedAuthority);
+			if (invalidated != null) {
+				invalidated.add(invalidatedAuthority);
+				return;
+			}
+			invalidated = new HashSet<>();
+			invalidated.add(invalidatedAuthority);
+			sObservedAuthorities.put(observedAuthority, invalidated);
+		}
+
+		try {
+			// Changes are delivered on a binder thread, eviction is cheap enough to run there directly
+			context.getApplicationContext().getContentResolver().registerContentObserver(
+				Uri.parse("content://" + observedAuthority), true, new ContentObserver(null) {
+					@Override
+					public void onChange(boolean selfChange) {
+						invalidate(observedAuthority);
+					}
+				});
+		} catch (SecurityException e) {
+			// Without an observer entries from this authority could go stale, so stop caching them
+			UtilLogger.e("UriPathCache", "observe(" + observedAuthority + ") Unable to observe authority: "
+				+ e.getLocalizedMessage());
+			invalidate(observedAuthority);
+			synchronized (sObservedAuthorities) {
+				sObservedAuthorities.remove(observedAuthority);
+			}
+		}
+	}
+
+	/**
+	 * Evicts every entry belonging to an authority invalidated by changes to the observed authority.
+	 */
+	private static void invalidate(@NonNull String observedAuthority) {
+		Set<String> invalidated;
+		synchronized (sObservedAuthorities) {
+			Set<String> authorities = sObservedAuthorities.get(observedAuthority);
+			if (authorities == null) {
+				return;
+			}
+			invalidated = new HashSet<>(authorities);
+		}
+
+		for (Uri uri : sCache.snapshot().keySet()) {
+			if (invalidated.contains(uri.getAuthority())) {
+				sCache.remove(uri);
+			}
+		}
+	}
+
+	/**
+	 * Resolved values for a single {@link Uri}, either of which is null until it has been resolved.
+	 */
+	static class Entry {
+		private volatile String mPath;
+		private volatile String mDisplayName;
+
+		@Nullable
+		String getPath() {
+			return mPath;
+		}
+
+		@Nullable
+		String getDisplayName() {
+			return mDisplayName;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.bosh.utils;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the shared background thread pool used by the library for work that is split across
+ * several threads, such as hashing many files at once. The pool is bounded to the number of
+ * available processors, its threads run at background priority and time out when idle, so it costs
+ * nothing while the library isn't busy.
+ *
+ * Tasks running on this pool must not block waiting for other tasks submitted to it.
+ *
+ * @author David Jones
+ * @version 1.0
+ */
+final class UtilExecutors {
+
+	private static final int POOL_SIZE = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private static ThreadPoolExecutor sExecutor;
+
+	private UtilExecutors() {
+		// Not instantiable
+	}
+
+	/** Returns the number of threads in the shared pool **/
+	static int getPoolSize() {
+		return POOL_SIZE;
+	}
+
+	/** Returns the shared background {@link ExecutorService}, creating it on first use **/
+	@NonNull
+	static synchronized ExecutorService background() {
+		if (sExecutor == null) {
+			sExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new BackgroundThreadFactory());
+			sExecutor.allowCoreThreadTimeOut(true);
+		}
+		return sExecutor;
+	}
+
+	/**
+	 * Creates named threads which lower themselves to background priority once started.
+	 */
+	private static class BackgroundThreadFactory implements ThreadFactory {
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(@NonNull final Runnable runnable) {
+			return new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					runnable.run();
+				}
+			}, "BoshUtils-" + mCount.incrementAndGet());
+		}
+	}
+}
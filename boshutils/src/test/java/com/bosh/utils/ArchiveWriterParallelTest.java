@@ -0,0 +1,13 @@
+package com.bosh.utils;
+
+/**
+ * Runs {@link ArchiveWriterTest} with blocks deflated in parallel and joined by sync flushes, as from
+ * KitKat. The host reports an SDK version of 0, so parallel deflating is enabled directly.
+ */
+public class ArchiveWriterParallelTest extends ArchiveWriterTest {
+
+	@Override
+	protected boolean isParallel() {
+		return true;
+	}
+}
@@ -0,0 +1,293 @@
+package com.bosh.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the archives written by {@link ArchiveWriter}, read back with the JDK's zip and
+ * gzip readers, with blocks deflated serially as before KitKat. {@link ArchiveWriterParallelTest}
+ * runs the same tests with blocks deflated in parallel.
+ */
+public class ArchiveWriterTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int TAR_BLOCK_SIZE = 512;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private File mSource;
+	/** Expected content of each file beneath the source, keyed by its name within an archive **/
+	private Map<String, byte[]> mFiles;
+
+	private boolean mParallel;
+
+	@Before
+	public void setUp() throws Exception {
+		mParallel = ArchiveWriter.sParallel;
+		ArchiveWriter.sParallel = isParallel();
+		mSource = mFolder.newFolder("logs");
+		mFiles = new LinkedHashMap<>();
+
+		// Spans several blocks, so the serial deflater is carried between them
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; text.length() < 2 * ArchiveWriter.BLOCK_SIZE + 100; i++) {
+			text.append("Line ").append(i).append(" of the application log\n");
+		}
+		createFile("app.log", text.toString().getBytes(UTF_8));
+		createFile("empty.log", new byte[0]);
+		createFile("media/photo.jpg", randomBytes(ArchiveWriter.BLOCK_SIZE + 1));
+		char[] longName = new char[120];
+		Arrays.fill(longName, 'n');
+		createFile("media/" + new String(longName) + ".txt", "Long name".getBytes(UTF_8));
+		assertTrue(new File(mSource, "empty").mkdir());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ArchiveWriter.sParallel = mParallel;
+	}
+
+	/** Returns true to deflate blocks in parallel on the shared background pool **/
+	protected boolean isParallel() {
+		return false;
+	}
+
+	@Test
+	public void zip_directoryTree() throws Exception {
+		File archive = new File(mFolder.getRoot(), "logs.zip");
+		long written = ArchiveWriter.zip(mSource, archive, null, null);
+		assertEquals(archive.length(), written);
+
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		ZipFile zipFile = new ZipFile(archive);
+		try {
+			Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+			while (enumeration.hasMoreElements()) {
+				ZipEntry entry = enumeration.nextElement();
+				InputStream in = zipFile.getInputStream(entry);
+				try {
+					entries.put(entry.getName(), readFully(in));
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			zipFile.close();
+		}
+		assertTrue(entries.containsKey("logs/"));
+		assertTrue(entries.containsKey("logs/empty/"));
+		assertEntries(entries);
+	}
+
+	@Test
+	public void zip_readsAsStream() throws Exception {
+		File archive = new File(mFolder.getRoot(), "logs.zip");
+		ArchiveWriter.zip(mSource, archive, null, null);
+
+		// Reads the local headers and data descriptors rather than the central directory
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		ZipInputStream in = new ZipInputStream(new FileInputStream(archive));
+		try {
+			ZipEntry entry;
+			while ((entry = in.getNextEntry()) != null) {
+				entries.put(entry.getName(), readFully(in));
+			}
+		} finally {
+			in.close();
+		}
+		assertEntries(entries);
+	}
+
+	@Test
+	public void gzip_file() throws Exception {
+		File source = new File(mSource, "app.log");
+		File archive = new File(mFolder.getRoot(), "app.log.gz");
+		long written = ArchiveWriter.gzip(source, archive, null, null);
+		assertEquals(archive.length(), written);
+
+		assertArrayEquals(mFiles.get("logs/app.log"), readFully(new GZIPInputStream(new FileInputStream(archive))));
+	}
+
+	@Test
+	public void gzip_keepsBlocksInOrder() throws Exception {
+		// More blocks than are held in flight, each distinct so any reordering changes the content
+		byte[] content = new byte[20 * ArchiveWriter.BLOCK_SIZE + 1];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i / ArchiveWriter.BLOCK_SIZE + i % 7);
+		}
+		createFile("blocks.bin", content);
+		File archive = new File(mFolder.getRoot(), "blocks.bin.gz");
+		ArchiveWriter.gzip(new File(mSource, "blocks.bin"), archive, null, null);
+
+		assertArrayEquals(content, readFully(new GZIPInputStream(new FileInputStream(archive))));
+	}
+
+	@Test
+	public void combineCrc_matchesSingleCrc() throws Exception {
+		byte[] data = randomBytes(3 * ArchiveWriter.BLOCK_SIZE + 17);
+		CRC32 expected = new CRC32();
+		expected.update(data, 0, data.length);
+
+		int[] splits = {0, 1, ArchiveWriter.BLOCK_SIZE, 2 * ArchiveWriter.BLOCK_SIZE + 5, data.length - 1, data.length};
+		for (int split : splits) {
+			CRC32 first = new CRC32();
+			first.update(data, 0, split);
+			CRC32 second = new CRC32();
+			second.update(data, split, data.length - split);
+			int combined = ArchiveWriter.combineCrc((int) first.getValue(), (int) second.getValue(), data.length - split);
+			assertEquals(expected.getValue(), combined & 0xffffffffL);
+		}
+	}
+
+	@Test
+	public void gzip_emptyFile() throws Exception {
+		File archive = new File(mFolder.getRoot(), "empty.log.gz");
+		ArchiveWriter.gzip(new File(mSource, "empty.log"), archive, null, null);
+
+		assertEquals(0, readFully(new GZIPInputStream(new FileInputStream(archive))).length);
+	}
+
+	@Test
+	public void gzip_directoryTreeAsTar() throws Exception {
+		File archive = new File(mFolder.getRoot(), "logs.tar.gz");
+		ArchiveWriter.gzip(mSource, archive, null, null);
+		byte[] tar = readFully(new GZIPInputStream(new FileInputStream(archive)));
+		assertEquals(0, tar.length % TAR_BLOCK_SIZE);
+
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		String longName = null;
+		int offset = 0;
+		while (offset + TAR_BLOCK_SIZE <= tar.length && tar[offset] != 0) {
+			String name = readString(tar, offset, 100);
+			long size = Long.parseLong(readString(tar, offset + 124, 12), 8);
+			char type = (char) tar[offset + 156];
+			assertEquals("ustar", readString(tar, offset + 257, 6));
+			assertEquals(checksum(tar, offset), Long.parseLong(readString(tar, offset + 148, 8).trim(), 8));
+
+			offset += TAR_BLOCK_SIZE;
+			byte[] content = Arrays.copyOfRange(tar, offset, offset + (int) size);
+			offset += (size + TAR_BLOCK_SIZE - 1) / TAR_BLOCK_SIZE * TAR_BLOCK_SIZE;
+			if (type == 'L') {
+				longName = readString(content, 0, content.length);
+				continue;
+			}
+			if (longName != null) {
+				name = longName;
+				longName = null;
+			}
+			entries.put(name, content);
+		}
+		// Ends with two empty blocks
+		assertEquals(tar.length, offset + 2 * TAR_BLOCK_SIZE);
+		assertTrue(entries.containsKey("logs/empty/"));
+		assertEntries(entries);
+	}
+
+	@Test
+	public void zip_progressReachesTotal() throws Exception {
+		long total = 0;
+		for (byte[] content : mFiles.values()) {
+			total += content.length;
+		}
+		final long[] progress = new long[2];
+		ArchiveWriter.zip(mSource, new File(mFolder.getRoot(), "logs.zip"), new FileCopier.ProgressListener() {
+			@Override
+			public void onProgress(long bytesCopied, long totalBytes) {
+				progress[0] = bytesCopied;
+				progress[1] = totalBytes;
+			}
+		}, null);
+
+		assertEquals(total, progress[0]);
+		assertEquals(total, progress[1]);
+	}
+
+	@Test
+	public void zip_missingSourceRemovesDestination() throws Exception {
+		File archive = new File(mFolder.getRoot(), "missing.zip");
+		try {
+			ArchiveWriter.zip(new File(mSource, "missing"), archive, null, null);
+			fail("Expected missing source to be rejected");
+		} catch (FileNotFoundException e) {
+			assertFalse("Partial archive was left behind", archive.exists());
+		}
+	}
+
+	private void assertEntries(Map<String, byte[]> entries) {
+		for (Map.Entry<String, byte[]> file : mFiles.entrySet()) {
+			assertTrue("Missing entry " + file.getKey(), entries.containsKey(file.getKey()));
+			assertArrayEquals(file.getValue(), entries.get(file.getKey()));
+		}
+	}
+
+	private void createFile(String name, byte[] content) throws IOException {
+		File file = new File(mSource, name);
+		file.getParentFile().mkdirs();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		mFiles.put("logs/" + name, content);
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	/** Reads a null terminated string from a tar field **/
+	private static String readString(byte[] bytes, int offset, int length) {
+		int end = offset;
+		while (end < offset + length && bytes[end] != 0) {
+			end++;
+		}
+		return new String(bytes, offset, end - offset, UTF_8);
+	}
+
+	/** Sums a tar header with its checksum field read as spaces **/
+	private static long checksum(byte[] tar, int offset) {
+		long checksum = 0;
+		for (int i = 0; i < TAR_BLOCK_SIZE; i++) {
+			checksum += i >= 148 && i < 156 ? ' ' : tar[offset + i] & 0xff;
+		}
+		return checksum;
+	}
+}
@@ -0,0 +1,220 @@
+package com.bosh.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link DiskLruCache}, reopening the cache to check what its journal replays.
+ */
+public class DiskLruCacheTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final long MAX_SIZE = 1000;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private File mDirectory;
+	private DiskLruCache mCache;
+
+	@Before
+	public void setUp() throws Exception {
+		mDirectory = mFolder.newFolder("cache");
+		mCache = DiskLruCache.open(mDirectory, MAX_SIZE);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		mCache.close();
+	}
+
+	@Test
+	public void reopen_restoresCommittedValues() throws Exception {
+		mCache.put("a", bytes("apple"));
+		mCache.put("b", bytes("banana"));
+		mCache.put("a", bytes("apricot"));
+		reopen(MAX_SIZE);
+
+		assertEquals("apricot", string(mCache.getBytes("a")));
+		assertEquals("banana", string(mCache.getBytes("b")));
+		assertEquals(13, mCache.size());
+	}
+
+	@Test
+	public void reopen_forgetsRemovedValues() throws Exception {
+		mCache.put("a", bytes("apple"));
+		mCache.put("b", bytes("banana"));
+		assertTrue(mCache.remove("a"));
+		reopen(MAX_SIZE);
+
+		assertNull(mCache.getBytes("a"));
+		assertEquals("banana", string(mCache.getBytes("b")));
+		assertEquals(6, mCache.size());
+	}
+
+	@Test
+	public void reopen_discardsEditInterruptedBeforeCommit() throws Exception {
+		mCache.put("a", bytes("apple"));
+		DiskLruCache.Editor replace = mCache.edit("a");
+		write(replace, "apricot");
+		DiskLruCache.Editor create = mCache.edit("b");
+		write(create, "banana");
+
+		// Opening the directory again without closing the cache replays the journal as after a crash
+		DiskLruCache crashed = mCache;
+		mCache = DiskLruCache.open(mDirectory, MAX_SIZE);
+		try {
+			assertEquals("apple", string(mCache.getBytes("a")));
+			assertNull(mCache.getBytes("b"));
+			assertEquals(5, mCache.size());
+			assertEquals(2, mDirectory.list().length);
+		} finally {
+			crashed.close();
+		}
+	}
+
+	@Test
+	public void reopen_readsLengthOfValueReplacedBeforeCommitJournaled() throws Exception {
+		mCache.put("a", bytes("apple"));
+		mCache.put("a", bytes("apricot"));
+		mCache.close();
+
+		// Drops the final CLEAN line, as if the process died after the value's file was replaced
+		File journal = new File(mDirectory, DiskLruCache.JOURNAL_FILE);
+		String lines = string(readFully(journal));
+		String committed = lines.substring(0, lines.lastIndexOf("CLEAN "));
+		assertTrue(committed.endsWith("DIRTY " + HashUtils.digestHex("a", HashUtils.Algorithm.SHA_1) + "\n"));
+		FileOutputStream out = new FileOutputStream(journal);
+		try {
+			out.write(bytes(committed));
+		} finally {
+			out.close();
+		}
+		mCache = DiskLruCache.open(mDirectory, MAX_SIZE);
+
+		assertEquals("apricot", string(mCache.getBytes("a")));
+		assertEquals(7, mCache.size());
+	}
+
+	@Test
+	public void reopen_restoresAccessOrder() throws Exception {
+		mCache.put("a", bytes("1234567890"));
+		mCache.put("b", bytes("1234567890"));
+		mCache.put("c", bytes("1234567890"));
+		assertNotNull(mCache.getBytes("a"));
+		reopen(20);
+		mCache.flush();
+
+		assertNull(mCache.getBytes("b"));
+		assertNotNull(mCache.getBytes("a"));
+		assertNotNull(mCache.getBytes("c"));
+		assertEquals(20, mCache.size());
+	}
+
+	@Test
+	public void reopen_survivesRepeatedReopening() throws Exception {
+		mCache.put("a", bytes("apple"));
+		reopen(MAX_SIZE);
+		mCache.put("b", bytes("banana"));
+		reopen(MAX_SIZE);
+		assertTrue(mCache.remove("a"));
+		reopen(MAX_SIZE);
+
+		assertNull(mCache.getBytes("a"));
+		assertEquals("banana", string(mCache.getBytes("b")));
+		assertEquals(6, mCache.size());
+	}
+
+	@Test
+	public void open_clearsCacheWithCorruptJournal() throws Exception {
+		mCache.put("a", bytes("apple"));
+		mCache.close();
+		FileOutputStream out = new FileOutputStream(new File(mDirectory, DiskLruCache.JOURNAL_FILE), true);
+		try {
+			out.write(bytes("UNKNOWN entry\n"));
+		} finally {
+			out.close();
+		}
+		mCache = DiskLruCache.open(mDirectory, MAX_SIZE);
+
+		assertNull(mCache.getBytes("a"));
+		assertEquals(0, mCache.size());
+	}
+
+	@Test
+	public void get_missingFileWithEditorKeepsEntryForEditor() throws Exception {
+		mCache.put("a", bytes("apple"));
+		DiskLruCache.Editor editor = mCache.edit("a");
+		assertTrue(new File(mDirectory, HashUtils.digestHex("a", HashUtils.Algorithm.SHA_1)).delete());
+
+		assertNull(mCache.getBytes("a"));
+		assertEquals(0, mCache.size());
+		write(editor, "apricot");
+		editor.commit();
+		assertEquals("apricot", string(mCache.getBytes("a")));
+		assertEquals(7, mCache.size());
+
+		reopen(MAX_SIZE);
+		assertEquals("apricot", string(mCache.getBytes("a")));
+		assertEquals(7, mCache.size());
+	}
+
+	@Test
+	public void edit_abortKeepsCurrentValue() throws Exception {
+		mCache.put("a", bytes("apple"));
+		DiskLruCache.Editor editor = mCache.edit("a");
+		assertNull(mCache.edit("a"));
+		write(editor, "apricot");
+		editor.abort();
+
+		assertEquals("apple", string(mCache.getBytes("a")));
+		reopen(MAX_SIZE);
+		assertEquals("apple", string(mCache.getBytes("a")));
+		assertEquals(5, mCache.size());
+	}
+
+	private void reopen(long maxSize) throws IOException {
+		mCache.close();
+		mCache = DiskLruCache.open(mDirectory, maxSize);
+	}
+
+	private static void write(DiskLruCache.Editor editor, String value) throws IOException {
+		OutputStream out = editor.newOutputStream();
+		try {
+			out.write(bytes(value));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte[] readFully(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] bytes = new byte[(int) in.length()];
+			in.readFully(bytes);
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] bytes(String string) {
+		return string.getBytes(UTF_8);
+	}
+
+	private static String string(byte[] bytes) {
+		return bytes == null ? null : new String(bytes, UTF_8);
+	}
+}
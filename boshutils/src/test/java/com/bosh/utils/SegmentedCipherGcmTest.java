@@ -0,0 +1,36 @@
+package com.bosh.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link SegmentedCipherTest} with containers sealed with AES-GCM, the mode used from KitKat.
+ * The host reports an SDK version of 0, so GCM is enabled directly.
+ */
+public class SegmentedCipherGcmTest extends SegmentedCipherTest {
+
+	@Override
+	protected boolean isGcm() {
+		return true;
+	}
+
+	@Test
+	public void decrypt_rejectsGcmWhereUnsupported() throws Exception {
+		SecurityUtils securityUtils = new SecurityUtils("password", new byte[16]);
+		File container = mFolder.newFile();
+		securityUtils.encryptSegmented(mFolder.newFile(), container, SegmentedCipher.MIN_SEGMENT_SIZE, null, null);
+		SegmentedCipher.sGcmSupported = false;
+
+		File decrypted = new File(mFolder.getRoot(), "decrypted");
+		try {
+			securityUtils.decryptSegmented(container, decrypted, null, null);
+			fail("Expected AES-GCM container to be rejected before KitKat");
+		} catch (IOException e) {
+			assertFalse("Partial output was left behind", decrypted.exists());
+		}
+	}
+}
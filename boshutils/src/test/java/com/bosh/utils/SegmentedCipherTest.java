@@ -0,0 +1,250 @@
+package com.bosh.utils;
+
+import com.bosh.utils.FileCopier.ProgressListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the segmented container written by
+ * {@link SecurityUtils#encryptSegmented(File, File, int, ProgressListener, android.os.CancellationSignal)}
+ * in the AES-CTR with HMAC-SHA256 mode used before KitKat. {@link SegmentedCipherGcmTest} runs the
+ * same tests in the AES-GCM mode.
+ */
+public class SegmentedCipherTest {
+
+	private static final int SEGMENT_SIZE = SegmentedCipher.MIN_SEGMENT_SIZE;
+	/** Size of the container header, which the segments follow **/
+	private static final int HEADER_SIZE = 26;
+	/** Size of a segment on disk, including its authentication tag **/
+	private static final int STRIDE = SEGMENT_SIZE + 16;
+	/** Offset of the mode in the container header **/
+	private static final int MODE_OFFSET = 5;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private SecurityUtils mSecurityUtils;
+
+	private boolean mGcmSupported;
+
+	@Before
+	public void setUp() throws Exception {
+		mGcmSupported = SegmentedCipher.sGcmSupported;
+		SegmentedCipher.sGcmSupported = isGcm();
+		mSecurityUtils = new SecurityUtils("password", "0123456789abcdef".getBytes("UTF-8"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		SegmentedCipher.sGcmSupported = mGcmSupported;
+	}
+
+	/** Returns true to seal containers with AES-GCM rather than AES-CTR with HMAC-SHA256 **/
+	protected boolean isGcm() {
+		return false;
+	}
+
+	@Test
+	public void encrypt_recordsMode() throws Exception {
+		File container = encrypt(createPlaintext(1));
+		RandomAccessFile file = new RandomAccessFile(container, "r");
+		try {
+			file.seek(MODE_OFFSET);
+			assertEquals(isGcm() ? 1 : 2, file.read());
+		} finally {
+			file.close();
+		}
+	}
+
+	@Test
+	public void roundTrip_emptyFile() throws Exception {
+		assertRoundTrip(0);
+	}
+
+	@Test
+	public void roundTrip_exactMultipleOfSegmentSize() throws Exception {
+		assertRoundTrip(3 * SEGMENT_SIZE);
+	}
+
+	@Test
+	public void roundTrip_oneByteOverSegmentSize() throws Exception {
+		assertRoundTrip(3 * SEGMENT_SIZE + 1);
+	}
+
+	@Test
+	public void roundTrip_progressReachesLength() throws Exception {
+		File plaintext = createPlaintext(2 * SEGMENT_SIZE + 7);
+		File container = mFolder.newFile();
+		final long[] progress = new long[2];
+		mSecurityUtils.encryptSegmented(plaintext, container, SEGMENT_SIZE, new ProgressListener() {
+			@Override
+			public void onProgress(long processed, long total) {
+				progress[0] = processed;
+				progress[1] = total;
+			}
+		}, null);
+
+		assertEquals(plaintext.length(), progress[0]);
+		assertEquals(plaintext.length(), progress[1]);
+	}
+
+	@Test
+	public void decrypt_rejectsTamperedHeader() throws Exception {
+		File container = encrypt(createPlaintext(3 * SEGMENT_SIZE + 1));
+		// The first byte of the salt, which the segment keys are derived from
+		flipByte(container, 10);
+
+		assertRejected(container);
+	}
+
+	@Test
+	public void decrypt_rejectsTamperedSegment() throws Exception {
+		File container = encrypt(createPlaintext(3 * SEGMENT_SIZE + 1));
+		flipByte(container, HEADER_SIZE + STRIDE + 1);
+
+		assertRejected(container);
+	}
+
+	@Test
+	public void decrypt_rejectsSwappedSegments() throws Exception {
+		File container = encrypt(createPlaintext(3 * SEGMENT_SIZE + 1));
+		RandomAccessFile file = new RandomAccessFile(container, "rw");
+		try {
+			byte[] first = new byte[STRIDE];
+			byte[] second = new byte[STRIDE];
+			file.seek(HEADER_SIZE);
+			file.readFully(first);
+			file.readFully(second);
+			file.seek(HEADER_SIZE);
+			file.write(second);
+			file.write(first);
+		} finally {
+			file.close();
+		}
+
+		assertRejected(container);
+	}
+
+	@Test
+	public void decrypt_rejectsTruncationAtSegmentBoundary() throws Exception {
+		File container = encrypt(createPlaintext(3 * SEGMENT_SIZE));
+		truncate(container, container.length() - STRIDE);
+
+		assertRejected(container);
+	}
+
+	@Test
+	public void decrypt_rejectsTruncationWithinSegment() throws Exception {
+		File container = encrypt(createPlaintext(3 * SEGMENT_SIZE + 1));
+		truncate(container, container.length() - 1);
+
+		assertRejected(container);
+	}
+
+	@Test
+	public void decrypt_rejectsAppendedSegment() throws Exception {
+		File container = encrypt(createPlaintext(3 * SEGMENT_SIZE));
+		RandomAccessFile file = new RandomAccessFile(container, "rw");
+		try {
+			byte[] segment = new byte[STRIDE];
+			file.seek(HEADER_SIZE);
+			file.readFully(segment);
+			file.seek(file.length());
+			file.write(segment);
+		} finally {
+			file.close();
+		}
+
+		assertRejected(container);
+	}
+
+	@Test
+	public void decrypt_rejectsWrongPassword() throws Exception {
+		File container = encrypt(createPlaintext(SEGMENT_SIZE + 1));
+		mSecurityUtils = new SecurityUtils("wrong password", "0123456789abcdef".getBytes("UTF-8"));
+
+		assertRejected(container);
+	}
+
+	private void assertRoundTrip(int length) throws Exception {
+		File plaintext = createPlaintext(length);
+		File container = encrypt(plaintext);
+		File decrypted = mFolder.newFile();
+
+		assertEquals(length, mSecurityUtils.decryptSegmented(container, decrypted, null, null));
+		assertArrayEquals(readFully(plaintext), readFully(decrypted));
+	}
+
+	private void assertRejected(File container) throws Exception {
+		File decrypted = new File(mFolder.getRoot(), "decrypted");
+		try {
+			mSecurityUtils.decryptSegmented(container, decrypted, null, null);
+			fail("Expected " + container.length() + " byte container to be rejected");
+		} catch (IOException e) {
+			assertFalse("Partial output was left behind", decrypted.exists());
+		}
+	}
+
+	private File encrypt(File plaintext) throws Exception {
+		File container = mFolder.newFile();
+		assertEquals(plaintext.length(), mSecurityUtils.encryptSegmented(plaintext, container, SEGMENT_SIZE, null, null));
+		return container;
+	}
+
+	private File createPlaintext(int length) throws IOException {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		File file = mFolder.newFile();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static byte[] readFully(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] bytes = new byte[(int) in.length()];
+			in.readFully(bytes);
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void flipByte(File file, long offset) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.seek(offset);
+			int value = out.read();
+			out.seek(offset);
+			out.write(value ^ 0x01);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.setLength(length);
+		} finally {
+			out.close();
+		}
+	}
+}